@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Repository.in;
+import static gitlet.Repository.out;
+
+/**
+ * The BATCH command: runs the commands read from its input one after the
+ * other in this process, as if each had been given to the command line.
+ * The commands share everything read by the ones before them, such as
+ * HEAD, the index and the decoded commits, and the index is written once
+ * at the end instead of after each command, or after every CHECKPOINT
+ * commands if given. Commands are separated by newlines, or by NULs with
+ * -z, so that they may span lines. Each is split into words at
+ * whitespace, as a shell would: text in single quotes is taken as it
+ * is, and in double quotes or outside quotes a backslash takes the next
+ * character as it is.
+ * @author Iram Morshed
+ */
+final class Batch {
+
+    /** Not instantiable. */
+    private Batch() {
+    }
+
+    /**
+     * Runs the BATCH command with the options ARGS: batch, then -z and
+     * --checkpoint [count], in any order.
+     * @param args String[]
+     */
+    static void batch(String[] args) throws IOException {
+        char delimiter = '\n';
+        long checkpoint = 0;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("-z")) {
+                delimiter = '\0';
+            } else if (args[i].equals("--checkpoint") && i + 1 < args.length
+                    && args[i + 1].matches("[1-9][0-9]*")) {
+                checkpoint = Long.parseLong(args[i + 1]);
+                i += 1;
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+        Repository repo = Repository.current();
+        Reader reader = new BufferedReader(
+                new InputStreamReader(in(), Charset.defaultCharset()));
+        long count = 0;
+        for (String command = read(reader, delimiter); command != null;
+             command = read(reader, delimiter)) {
+            List<String> words = words(command);
+            if (words == null) {
+                out().println("Unterminated quote in command.");
+                repo.markFailed();
+                continue;
+            } else if (words.isEmpty()) {
+                continue;
+            } else if (words.get(0).equals("batch")) {
+                out().println("Cannot run batch within batch.");
+                repo.markFailed();
+                continue;
+            }
+            repo.run(InputStream.nullInputStream(), out(),
+                    words.toArray(new String[0]));
+            count += 1;
+            if (checkpoint > 0 && count % checkpoint == 0 && repo.exists()) {
+                Stage.flush();
+            }
+        }
+    }
+
+    /**
+     * Returns the next command from READER, up to DELIMITER or the end of
+     * the input, or null at the end of the input.
+     * @param reader Reader
+     * @param delimiter char
+     * @return String
+     */
+    private static String read(Reader reader, char delimiter)
+            throws IOException {
+        StringBuilder command = new StringBuilder();
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        while (c != -1 && c != delimiter) {
+            command.append((char) c);
+            c = reader.read();
+        }
+        if (delimiter == '\n' && command.length() > 0
+                && command.charAt(command.length() - 1) == '\r') {
+            command.setLength(command.length() - 1);
+        }
+        return command.toString();
+    }
+
+    /**
+     * Returns the words of COMMAND, or null if it has an unterminated
+     * quote.
+     * @param command String
+     * @return List<String>
+     */
+    static List<String> words(String command) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < command.length(); i += 1) {
+            char c = command.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\\' && i + 1 < command.length()) {
+                word = word == null ? new StringBuilder() : word;
+                i += 1;
+                word.append(command.charAt(i));
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                word = word == null ? new StringBuilder() : word;
+                quote = c;
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                word = word == null ? new StringBuilder() : word;
+                word.append(c);
+            }
+        }
+        if (quote != 0) {
+            return null;
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+}
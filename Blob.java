@@ -1,14 +1,10 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 
-import static gitlet.Main.*;
-import static gitlet.Stage.STAGED_FOR_ADDITION;
+import static gitlet.Repository.*;
 
 /**
  * Blob class for storing file contents.
@@ -17,56 +13,21 @@ import static gitlet.Stage.STAGED_FOR_ADDITION;
 public final class Blob implements Serializable {
 
     /**
-     * Creates a Blob.
+     * Creates a Blob of the file FILENAME, storing the contents of SOURCE.
      * @param filename String
+     * @param blobContent File
      */
-    public Blob(String filename) {
-        File blobContent = Utils.join(STAGED_FOR_ADDITION, filename);
+    public Blob(String filename, File blobContent) {
         if (!blobContent.exists()) {
             throw Utils.error("File does not exist when creating Blob object.");
         }
-        _contents = Utils.readContents(blobContent);
-        _blobID = Utils.sha1(_contents);
-        _fileName = filename;
-        _allBlobs.put(filename, _blobID);
-        saveBlob();
-    }
-
-    /**
-     * Returns the hashmap containing
-     * all the blobs.
-     * @return HashMap
-     */
-    public HashMap<String, String> getBlobs() {
-        return _allBlobs;
-    }
-
-    /**
-     * Returns all of the blob contents
-     * as a list.
-     * @param blobs HashMap
-     * @return List<String>
-     */
-    public static List<String> allBlobContents(HashMap<String, String> blobs) {
-        List<String> allBlobContents = new ArrayList<String>();
-        for (String key: blobs.keySet()) {
-            String uniqueID = blobs.get(key);
-            allBlobContents.add(readFromFile(uniqueID));
-        }
-        return allBlobContents;
-    }
-
-    /**
-     * Saves this blob to BLOB_OBJECTS.
-     */
-    private void saveBlob() {
-        File blob = Utils.join(BLOB_OBJECTS, _blobID);
-        try {
-            blob.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (Chunker.shouldChunk(blobContent)) {
+            _blobID = Chunker.writeChunked(blobObjects(), blobContent);
+        } else {
+            _blobID = ObjectStore.writeFile(blobObjects(), ObjectStore.BLOB,
+                    blobContent);
         }
-        Utils.writeContents(blob, _contents);
+        _fileName = filename;
     }
 
     /**
@@ -75,41 +36,40 @@ public final class Blob implements Serializable {
      * @return String
      */
     public static String readFromFile(String uniqueID) {
-        File blob = Utils.join(BLOB_OBJECTS, uniqueID);
-        if (!blob.exists()) {
+        if (!ObjectStore.contains(blobObjects(), uniqueID)) {
             throw Utils.error("File does not exist in BLOBS.");
         }
-        String contents = Utils.readContentsAsString(blob);
-        return contents;
+        return new String(ObjectStore.read(blobObjects(), uniqueID),
+                StandardCharsets.UTF_8);
     }
 
     /**
-     * Returns the blob as a file.
+     * Saves a blob to a file in CWD.
+     * @param filename String
      * @param uniqueID String
-     * @return File
      */
-    public static File blobToFile(String uniqueID) {
-        File blob = Utils.join(BLOB_OBJECTS, uniqueID);
-        if (!blob.exists()) {
-            throw Utils.error("File does not exist in BLOBS.");
-        }
-        return blob;
+    private void saveBlob(String filename, String uniqueID) {
+        copyToFile(uniqueID, Utils.join(cwd(), filename));
     }
 
     /**
-     * Saves a blob to a file in CWD.
-     * @param filename String
+     * Writes the contents of the blob UNIQUEID to TARGET, streaming them
+     * so that memory use does not depend on the size of the blob. Missing
+     * directories on the way to TARGET are created.
      * @param uniqueID String
+     * @param target File
      */
-    private void saveBlob(String filename, String uniqueID) {
-        File blob = Utils.join(BLOB_OBJECTS, uniqueID);
-        try {
-            blob.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static void copyToFile(String uniqueID, File target) {
+        if (!ObjectStore.contains(blobObjects(), uniqueID)) {
+            throw Utils.error("File does not exist in BLOBS.");
         }
-        File blobInCWD = Utils.join(CWD, filename);
-        Utils.writeContents(blobInCWD, Utils.readContentsAsString(blob));
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()
+                && !parent.isDirectory()) {
+            throw Utils.error("Could not create directory %s.",
+                    parent.getPath());
+        }
+        Utils.writeContents(target, ObjectStore.open(blobObjects(), uniqueID));
     }
 
     /**
@@ -121,14 +81,6 @@ public final class Blob implements Serializable {
         return _blobID;
     }
 
-    /**
-     * Retrieves contents as a byte[].
-     * @return byte[]
-     */
-    public byte[] getContents() {
-        return _contents;
-    }
-
     /**
      * Retrieves the filename
      * of this blob.
@@ -138,16 +90,9 @@ public final class Blob implements Serializable {
         return _fileName;
     }
 
-    /** Stores all created Blobs [KEY = filename, VALUE = blobID]. */
-    private static HashMap<String, String>
-            _allBlobs = new HashMap<String, String>();
-
     /** The SHA1 code of this Blob. */
     private String _blobID;
 
-    /** The byte array storing the file contents of this Blob. */
-    private byte[] _contents;
-
     /** The filename of this Blob. */
     private String _fileName;
 
@@ -4,22 +4,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import static gitlet.Blob.readFromFile;
 import static gitlet.Checkout.fourArgs;
 import static gitlet.Checkout.twoArgs;
 import static gitlet.Commit.commit;
+import static gitlet.Commit.headToFile;
 import static gitlet.Commit.retrieveCommit;
 import static gitlet.Commit.retrieveHead;
-import static gitlet.Commit.setHead;
-import static gitlet.Main.BRANCHES_FOLDER;
-import static gitlet.Main.CURRENT_BRANCH;
-import static gitlet.Main.CWD;
-import static gitlet.Main.GITLET_FOLDER;
+import static gitlet.Repository.branchesFolder;
+import static gitlet.Repository.currentBranchFile;
+import static gitlet.Repository.cwd;
 import static gitlet.Stage.isStageClear;
-import static gitlet.Stage.STAGED_FOR_ADDITION;
+import static gitlet.Repository.out;
 
 /**
  * Branch class which runs several commands related to branches.
@@ -27,6 +26,9 @@ import static gitlet.Stage.STAGED_FOR_ADDITION;
  */
 public final class Branch implements Serializable {
 
+    /** Keeps branches written before the class changed readable. */
+    private static final long serialVersionUID = 3633928491307761443L;
+
     /**
      * Official constructor for
      * creating a Branch.
@@ -40,7 +42,12 @@ public final class Branch implements Serializable {
         _name = name;
         _isHead = isHead;
         _currentNode = currentNode;
-        saveBranchToFile();
+        RefTransaction refs = new RefTransaction()
+                .create(Utils.join(branchesFolder(), _name), _currentNode);
+        if (isHead()) {
+            refs.update(currentBranchFile(), activeBranchName(), _name);
+        }
+        refs.commit();
     }
 
     /**
@@ -53,31 +60,20 @@ public final class Branch implements Serializable {
         this(name, isHead, retrieveHead());
     }
 
-    /** Saves a branch with filename, _NAME, under the BRANCHES_FOLDER dir.*/
-    public void saveBranchToFile() throws IOException {
-        File branch = Utils.join(BRANCHES_FOLDER, _name);
-        if (!branch.exists()) {
-            branch.createNewFile();
-        }
-        Utils.writeObject(branch, this);
-        if (isHead()) {
-            File current = new File(GITLET_FOLDER,
-                    CURRENT_BRANCH.getName());
-            if (!current.exists()) {
-                throw Utils.error("CURRENT_BRANCH file should "
-                        + "have been initialized with INIT command.");
-            }
-            Utils.writeObject(current, this);
-        }
+    /** A branch read from its file, filled in by read. */
+    private Branch() {
     }
 
-    /** Updates the node that the active HEAD branch is pointing to.
+    /** Points the active HEAD branch, and HEAD, at the commit UNIQUEID,
+     *  if both still point at the commit that HEAD pointed at when the
+     *  command began.
      * @param uniqueID String*/
     public void updateNode(String uniqueID) throws IOException {
         if (isHead()) {
+            headToFile(new RefTransaction().update(
+                    Utils.join(branchesFolder(), _name), retrieveHead(),
+                    uniqueID), uniqueID);
             _currentNode = uniqueID;
-            setHead(uniqueID);
-            saveBranchToFile();
         }
     }
 
@@ -85,24 +81,55 @@ public final class Branch implements Serializable {
      * @param name String
      * @return Branch */
     public static Branch retrieveBranch(String name) {
-        File branch = Utils.join(BRANCHES_FOLDER, name);
+        File branch = Utils.join(branchesFolder(), name);
         if (!branch.exists()) {
-            System.out.println("Can only retrieve a "
+            throw Utils.error("Can only retrieve a "
                     + "branch if specified by its name.");
-            return null;
         }
-        return Utils.readObject(branch, Branch.class);
+        return read(name, name.equals(activeBranchName()));
     }
 
     /** Retrieves the active HEAD branch from the CURRENT_BRANCH file.
      * @return Branch*/
     public static Branch retrieveActiveBranch() {
-        File current = Utils.join(GITLET_FOLDER, CURRENT_BRANCH.getName());
-        if (!current.exists()) {
+        return read(activeBranchName(), true);
+    }
+
+    /** Returns the name of the active HEAD branch, as saved in the
+     *  CURRENT_BRANCH file.
+     * @return String */
+    public static String activeBranchName() {
+        String name = RefTransaction.read(currentBranchFile());
+        if (name == null) {
             throw Utils.error("CURRENT_BRANCH file should have"
                     + " been initialized with INIT command.");
         }
-        return Utils.readObject(current, Branch.class);
+        return name;
+    }
+
+    /** Returns the branch NAME, which is the active branch if ISHEAD.
+     * @param name String
+     * @param isHead boolean
+     * @return Branch */
+    private static Branch read(String name, boolean isHead) {
+        Branch branch = new Branch();
+        branch._name = name;
+        branch._isHead = isHead;
+        branch._currentNode =
+                RefTransaction.read(Utils.join(branchesFolder(), name));
+        return branch;
+    }
+
+    /** Returns the names of the branches in the BRANCHES_FOLDER dir.
+     * @return List<String> */
+    public static List<String> branchNames() {
+        List<String> names = new ArrayList<>();
+        for (String name: Utils.plainFilenamesIn(branchesFolder())) {
+            if (!RefTransaction.isLockFile(name)) {
+                names.add(name);
+            }
+        }
+        return names;
     }
 
     /*** Switches the value of isHead.*/
@@ -116,11 +143,14 @@ public final class Branch implements Serializable {
      * @throws IOException
      */
     public static void branch(String name) throws IOException {
-        List<String> branchNames = Utils.plainFilenamesIn(BRANCHES_FOLDER);
+        List<String> branchNames = branchNames();
         if (name.isBlank()) {
-            System.out.println("Please enter a branch name.");
+            throw Utils.error("Please enter a branch name.");
+        } else if (RefTransaction.isLockFile(name)) {
+            throw Utils.error("A branch name cannot end with "
+                    + RefTransaction.LOCK_SUFFIX + ".");
         } else if (branchNames.contains(name)) {
-            System.out.println("A branch with that name already exists.");
+            throw Utils.error("A branch with that name already exists.");
         } else {
             Branch other = new Branch(name, false);
         }
@@ -131,19 +161,18 @@ public final class Branch implements Serializable {
      * @param name String
      */
     public static void rmBranch(String name) {
-        File branch = Utils.join(BRANCHES_FOLDER, name);
-        if (!branch.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            return;
+        File branch = Utils.join(branchesFolder(), name);
+        if (!branch.exists() || RefTransaction.isLockFile(name)) {
+            throw Utils.error("A branch with that name does not exist.");
         }
 
         Branch active = retrieveActiveBranch();
         if (active.getBranchName().equals(name)) {
-            System.out.println("Cannot remove the current branch.");
-            return;
+            throw Utils.error("Cannot remove the current branch.");
         }
 
-        branch.delete();
+        new RefTransaction().delete(branch, RefTransaction.read(branch))
+                .commit();
     }
 
     /**
@@ -152,34 +181,31 @@ public final class Branch implements Serializable {
      * @throws IOException
      */
     public static void merge(String branchName) throws IOException {
-        List<String> allBranches = Utils.plainFilenamesIn(BRANCHES_FOLDER);
+        List<String> allBranches = branchNames();
         if (!allBranches.contains(branchName)) {
-            System.out.println("No branch with that name "
+            throw Utils.error("No branch with that name "
                     +
                     "exists in BRANCHES_FOLDER dir.");
-            return;
         }
         if (retrieveActiveBranch().getBranchName().equals(branchName)) {
-            System.out.println("Cannot merge a branch with itself.");
+            throw Utils.error("Cannot merge a branch with itself.");
         }
         Branch branch = retrieveBranch(branchName);
         Commit current = retrieveCommit(retrieveHead());
         Commit atBranch = retrieveCommit(branch.getCurrentNode());
         String split = findSplitPoint(current, atBranch);
         if (split.equals("") || split.isBlank()) {
-            System.out.println("There are no common ancestors "
+            throw Utils.error("There are no common ancestors "
                     + "between the current branch and given branch.");
-            return;
         }
-        Commit splitPoint =
-                retrieveCommit(findSplitPoint(current, atBranch));
+        Commit splitPoint = retrieveCommit(split);
         if (splitPoint.getUniqueID().equals(atBranch.getUniqueID())) {
-            System.out.println("Given branch is "
+            out().println("Given branch is "
                     + "an ancestor of the current branch.");
             return;
         } else if (splitPoint.getUniqueID().equals(current.getUniqueID())) {
             twoArgs(branchName);
-            System.out.println("Current branch fast-forwarded.");
+            out().println("Current branch fast-forwarded.");
             return;
         }
         merge(branch, splitPoint, current, atBranch);
@@ -187,7 +213,10 @@ public final class Branch implements Serializable {
     }
 
     /**
-     * Splits up files into three respective categories;
+     * Splits up files into three respective categories by comparing
+     * their blob ids, so no file contents are read. Only the files the
+     * given branch changed since SPLIT can need merging, so both sides
+     * are compared to SPLIT tree by tree, skipping identical subtrees;
      * Helper function for MERGE command.
      * @param given Branch
      * @param split Commit
@@ -198,60 +227,35 @@ public final class Branch implements Serializable {
     public static void merge(Branch given, Commit split,
                              Commit current, Commit atBranch)
                             throws IOException {
-        HashMap<String, String> splitBlobs = split.getBlobs();
-        HashMap<String, String> currBlobs = current.getBlobs();
-        HashMap<String, String> branchBlobs = atBranch.getBlobs();
+        ManifestDiff ours = new ManifestDiff(split, current);
+        ManifestDiff theirs = new ManifestDiff(split, atBranch);
+        HashSet<String> oursChanged = new HashSet<>(ours.added());
+        oursChanged.addAll(ours.modified());
+        oursChanged.addAll(ours.removed());
 
         List<String> checkout = new ArrayList<>();
         List<String> remove = new ArrayList<>();
         List<String> conflict = new ArrayList<>();
 
-        String splitContents, currContents, branchContents;
-        for (String file: branchBlobs.keySet()) {
-            if (currBlobs.containsKey(file) && splitBlobs.containsKey(file)) {
-                currContents = readFromFile(currBlobs.get(file));
-                branchContents = readFromFile(branchBlobs.get(file));
-                splitContents = readFromFile(splitBlobs.get(file));
-                if (splitContents.equals(currContents)
-                        && !branchContents.equals(currContents)) {
-                    checkout.add(file);
-                } else if (!branchContents.equals(currContents)
-                        && !branchContents.equals(splitContents)) {
-                    conflict.add(file);
-                }
-            } else if (splitBlobs.containsKey(file)
-                    && !currBlobs.containsKey(file)) {
-                branchContents = readFromFile(branchBlobs.get(file));
-                splitContents = readFromFile(splitBlobs.get(file));
-                if (!branchContents.equals(splitContents)) {
-                    conflict.add(file);
-                }
-            } else if (!splitBlobs.containsKey(file)
-                    && !currBlobs.containsKey(file)) {
+        List<String> changed = new ArrayList<>(theirs.added());
+        changed.addAll(theirs.modified());
+        for (String file: changed) {
+            String branchID = theirs.toID(file);
+            if (!oursChanged.contains(file)) {
                 checkout.add(file);
-            } else if (!splitBlobs.containsKey(file)
-                    && currBlobs.containsKey(file)) {
-                currContents = readFromFile(currBlobs.get(file));
-                branchContents = readFromFile(branchBlobs.get(file));
-                if (!currContents.equals(branchContents)) {
-                    conflict.add(file);
-                }
+            } else if (!branchID.equals(ours.toID(file))) {
+                conflict.add(file);
             }
         }
 
-        for (String file: currBlobs.keySet()) {
-            if (splitBlobs.containsKey(file)
-                    && !branchBlobs.containsKey(file)) {
-                currContents = readFromFile(currBlobs.get(file));
-                splitContents = readFromFile(splitBlobs.get(file));
-                if (currContents.equals(splitContents)) {
-                    remove.add(file);
-                } else {
-                    conflict.add(file);
-                }
+        for (String file: theirs.removed()) {
+            if (!oursChanged.contains(file)) {
+                remove.add(file);
+            } else if (ours.toID(file) != null) {
+                conflict.add(file);
             }
         }
-        mergeCommands(given, atBranch, checkout, remove, conflict);
+        mergeCommands(given, atBranch, checkout, remove, conflict, split);
     }
 
     /**
@@ -262,25 +266,25 @@ public final class Branch implements Serializable {
      * @param checkout List<String>
      * @param remove List<String>
      * @param conflict List<String>
+     * @param split Commit
      * @throws IOException
      */
     public static void mergeCommands(Branch given, Commit branch,
                                      List<String> checkout, List<String> remove,
-                                     List<String> conflict) throws IOException {
+                                     List<String> conflict, Commit split)
+                                    throws IOException {
         String[] commands = new String[4];
         if (!isStageClear()) {
-            System.out.println("You have uncommitted changes.");
-            return;
+            throw Utils.error("You have uncommitted changes.");
         }
         Commit current = retrieveCommit(retrieveHead());
         Commit atGiven = retrieveCommit(given.getCurrentNode());
-        List<String> cwd = Utils.plainFilenamesIn(CWD);
+        List<String> cwd = Utils.plainFilenamesUnder(cwd());
         for (String file: cwd) {
             if (!current.getBlobs().containsKey(file)
                     && atGiven.getBlobs().containsKey(file)) {
-                System.out.println("There is an untracked file in the way;"
+                throw Utils.error("There is an untracked file in the way;"
                         + " delete it, or add and commit it first.");
-                return;
             }
         }
 
@@ -290,56 +294,58 @@ public final class Branch implements Serializable {
             commands[2] = "--";
             commands[3] = file;
             fourArgs(commands);
-            File retrieve = Utils.join(STAGED_FOR_ADDITION, file);
-            retrieve.createNewFile();
-            Utils.writeContents(retrieve,
-                    Utils.readContents(Utils.join(CWD, file)));
+            Stage.stageForAdd(file, Utils.join(cwd(), file));
         }
 
         for (String file: remove) {
-            File delete = Utils.join(CWD, file);
+            File delete = Utils.join(cwd(), file);
             if (!delete.exists()) {
-                System.out.println("File does not exist in CWD.");
-                return;
+                throw Utils.error("File does not exist in CWD.");
             }
             delete.delete();
+            Utils.deleteEmptyParents(cwd(), delete);
         }
-        mergeConflict(given, branch, conflict);
+        mergeConflict(given, branch, conflict, split);
     }
 
     /**
-     * Another helper method for MERGE for solving conflict.
+     * Another helper method for MERGE for solving conflict. Files changed
+     * in both branches are merged line by line against their version at
+     * SPLIT, so only the regions changed differently in both are marked
+     * as conflicts.
      * @param given Branch
      * @param branch Commit
      * @param conflict List<String>
+     * @param split Commit
      * @throws IOException
      */
     public static void mergeConflict(Branch given,
-                                     Commit branch, List<String> conflict)
+                                     Commit branch, List<String> conflict,
+                                     Commit split)
                                     throws IOException {
         Commit current = retrieveCommit(retrieveHead());
         Commit atGiven = retrieveCommit(given.getCurrentNode());
         String currentContents, branchContents;
+        int conflicts = 0;
         for (String file: conflict) {
-            File rewrite = Utils.join(CWD, file);
-            String head = "<<<<<<< HEAD";
-            String divide = "=======";
-            String end = ">>>>>>>";
+            File rewrite = Utils.join(cwd(), file);
+            String head = LineMerge.HEAD_MARKER;
+            String divide = LineMerge.DIVIDE_MARKER;
+            String end = LineMerge.END_MARKER;
             if (current.getBlobs().containsKey(file)
                     && branch.getBlobs().containsKey(file)) {
                 currentContents = readFromFile(current.getBlobs().get(file));
                 branchContents = readFromFile(branch.getBlobs().get(file));
+                String splitID = split.getBlobs().get(file);
+                String base = splitID == null ? "" : readFromFile(splitID);
                 if (!rewrite.exists()) {
-                    System.out.println("This file should exist in CWD.");
+                    out().println("This file should exist in CWD.");
                 }
-                String contents = head
-                        + System.lineSeparator() + currentContents
-                        + divide + System.lineSeparator()
-                        + branchContents + end;
-                Utils.writeContents(rewrite, contents);
-                File stage = Utils.join(STAGED_FOR_ADDITION, file);
-                stage.createNewFile();
-                Utils.writeContents(stage, Utils.readContents(rewrite));
+                LineMerge merged =
+                        new LineMerge(base, currentContents, branchContents);
+                conflicts += merged.conflicts();
+                Utils.writeContents(rewrite, merged.text());
+                Stage.stageForAdd(file, rewrite);
             } else if (current.getBlobs().containsKey(file)
                     && !branch.getBlobs().containsKey(file)) {
                 if (!rewrite.exists()) {
@@ -350,25 +356,28 @@ public final class Branch implements Serializable {
                         + currentContents + divide
                         + System.lineSeparator() + end;
                 Utils.writeContents(rewrite, contents);
-                File stage = Utils.join(STAGED_FOR_ADDITION, file);
-                stage.createNewFile();
-                Utils.writeContents(stage, Utils.readContents(rewrite));
+                Stage.stageForAdd(file, rewrite);
+                conflicts += 1;
+            } else {
+                conflicts += 1;
             }
 
         }
         String message = "Merged " + given.getBranchName()
                 + " into " + retrieveActiveBranch().getBranchName() + ".";
-        if (conflict.isEmpty()) {
+        if (conflicts == 0) {
             commit(message, atGiven.getUniqueID(), true);
         } else {
             commit(message, atGiven.getUniqueID(), true);
-            System.out.println("Encountered a merge conflict.");
+            out().println("Encountered a merge conflict.");
             return;
         }
     }
 
     /**
-     * Finds the split point between CURRENT and GIVEN.
+     * Finds the split point between CURRENT and GIVEN, the latest common
+     * ancestor of the two, following both parents of merge commits.
+     * Returns "" if they are the same commit or share no ancestor.
      * @param current <Commit>
      * @param given <Commit>
      * @return String
@@ -377,38 +386,11 @@ public final class Branch implements Serializable {
         if (current.getUniqueID().equals(given.getUniqueID())) {
             return "";
         }
-
-        List<String> ancestorsAtCurr = allAncestors(current);
-        List<String> ancestorsAtGiv = allAncestors(given);
-        ancestorsAtCurr.retainAll(ancestorsAtGiv);
-        String common = ancestorsAtCurr.get(0);
-        if (common.equals("")) {
-            System.out.println("There exists no common "
-                    + "ancestors between Commit current "
-                    + "[" + current + "] and Commit given [" + given + "]");
-        }
-        return common;
+        String common = MergeBase.find(current.getUniqueID(),
+                given.getUniqueID());
+        return common == null ? "" : common;
     }
 
-    /**
-     * Returns the ancestors of GIVEN.
-     * @param given <Commit>
-     * @return List<String>
-     */
-    public static List<String> allAncestors(Commit given) {
-        List<String> ancestors = new ArrayList<>();
-        while (given != null) {
-            if (given.getParent() != null) {
-                given = retrieveCommit(given.getParent());
-                ancestors.add(given.getUniqueID());
-            } else {
-                break;
-            }
-        }
-        return ancestors;
-    }
-
-
     /** Returns the name of this branch.
      * @return String */
     public String getBranchName() {
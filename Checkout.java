@@ -3,18 +3,20 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
-import static gitlet.Blob.readFromFile;
+import static gitlet.Blob.copyToFile;
 import static gitlet.Branch.retrieveActiveBranch;
 import static gitlet.Branch.retrieveBranch;
 import static gitlet.Commit.findCompleteID;
 import static gitlet.Commit.retrieveCommit;
 import static gitlet.Commit.retrieveHead;
 import static gitlet.Commit.setActiveBranch;
-import static gitlet.Main.BRANCHES_FOLDER;
-import static gitlet.Main.COMMIT_HISTORY;
-import static gitlet.Main.CWD;
+import static gitlet.Repository.cwd;
+import static gitlet.Repository.out;
+import static gitlet.Repository.worktreeFile;
 
 /**
  * A class devoted to the three checkout commands.
@@ -22,6 +24,10 @@ import static gitlet.Main.CWD;
  */
 public final class Checkout implements Serializable {
 
+    /** Configuration key that makes checkout of a branch and reset also
+     *  restore files they do not change that were modified or deleted. */
+    static final String RESTORE_KEY = "checkout.restoreModified";
+
     /**
      * Runs the CHECKOUT command first, before calling other functions.
      * @param args <String>
@@ -35,9 +41,8 @@ public final class Checkout implements Serializable {
         } else if (args.length == 4) {
             fourArgs(args);
         } else {
-            System.out.println("Checkout function only "
+            throw Utils.error("Checkout function only "
                     + "accepts 2, 3, or 4 total arguments.");
-            return;
         }
     }
 
@@ -48,52 +53,37 @@ public final class Checkout implements Serializable {
      * @throws IOException
      */
     public static void twoArgs(String args) throws IOException {
-        List<String> allBranches = Utils.plainFilenamesIn(BRANCHES_FOLDER);
+        List<String> allBranches = Branch.branchNames();
         if (!allBranches.contains(args)) {
-            System.out.println("No such branch exists.");
-            return;
+            throw Utils.error("No such branch exists.");
         }
 
         Branch current = retrieveActiveBranch();
         Commit atCurrent = retrieveCommit(current.getCurrentNode());
 
         if (current.getBranchName().equals(args)) {
-            System.out.println("No need to checkout the current branch.");
-            return;
+            throw Utils.error("No need to checkout the current branch.");
         }
 
         Branch given = retrieveBranch(args);
         Commit atGiven = retrieveCommit(given.getCurrentNode());
-        List<String> cwd = Utils.plainFilenamesIn(CWD);
-        File overwrite; String contents;
-
-        for (String file: cwd) {
-            if (atGiven.getBlobs().containsKey(file)
-                    && !atCurrent.getBlobs().containsKey(file)) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                return;
-            }
-        }
+        ManifestDiff diff = new ManifestDiff(atCurrent, atGiven);
 
-        for (String file: atGiven.getBlobs().keySet()) {
-            contents = readFromFile(atGiven.getBlobs().get(file));
-            overwrite = Utils.join(CWD, file);
-            overwrite.createNewFile();
-            Utils.writeContents(overwrite, contents);
+        if (untrackedInTheWay(diff)) {
+            throw Utils.error("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
         }
 
-        for (String file: atCurrent.getBlobs().keySet()) {
-            if (!atGiven.getBlobs().containsKey(file)) {
-                File delete = Utils.join(CWD, file);
-                if (!delete.exists()) {
-                    System.out.println("File in KEYSET but "
-                            + "doesn't exist which doesn't make sense.");
-                    return;
-                }
-                delete.delete();
+        WorktreeUpdate update = updateTo(diff);
+        for (String file: diff.removed()) {
+            File delete = Utils.join(cwd(), file);
+            if (!delete.exists()) {
+                throw Utils.error("File in KEYSET but "
+                        + "doesn't exist which doesn't make sense.");
             }
+            update.delete(file);
         }
+        update.run();
         Stage.clearStage();
         setActiveBranch(given);
     }
@@ -108,7 +98,7 @@ public final class Checkout implements Serializable {
             throw Utils.error("For this scenario, second arg must be '--'");
         }
 
-        File checkout = new File(args[2]);
+        File checkout = worktreeFile(args[2]);
         if (!checkout.exists()) {
             throw Utils.error("File must exist"
                     + " in order for it to be checked out.");
@@ -116,13 +106,11 @@ public final class Checkout implements Serializable {
 
         String head = retrieveHead();
         Commit latest = retrieveCommit(head);
-        if (!latest.getBlobs().containsKey(args[2])) {
-            System.out.println("File does not exist in that commit.");
-            return;
+        String name = Utils.relativePath(cwd(), checkout);
+        if (!latest.getBlobs().containsKey(name)) {
+            throw Utils.error("File does not exist in that commit.");
         }
-        String contents = readFromFile(latest.getBlobs().get(args[2]));
-        File overwrite = Utils.join(CWD, args[2]); overwrite.createNewFile();
-        Utils.writeContents(overwrite, contents);
+        copyToFile(latest.getBlobs().get(name), Utils.join(cwd(), name));
     }
 
     /**
@@ -132,29 +120,19 @@ public final class Checkout implements Serializable {
      * @throws IOException
      */
     public static void fourArgs(String[] args) throws IOException {
-        List<String> allCommits = Utils.plainFilenamesIn(COMMIT_HISTORY);
-        Commit found = null;
-        for (String commitID: allCommits) {
-            if (commitID.equals(args[1]) || commitID.startsWith(args[1])) {
-                found = retrieveCommit(commitID);
-            }
-        }
-        if (found == null) {
-            System.out.println("No commit with that id exists.");
-            return;
+        String completeID = findCompleteID(args[1]);
+        if (completeID == null) {
+            throw Utils.error("No commit with that id exists.");
         }
+        Commit found = retrieveCommit(completeID);
         if (!args[2].equals("--")) {
-            System.out.println("Incorrect operands.");
-            return;
+            throw Utils.error("Incorrect operands.");
         }
-        if (!found.getBlobs().containsKey(args[3])) {
-            System.out.println("File does not exist in that commit.");
-            return;
+        String name = Utils.relativePath(cwd(), worktreeFile(args[3]));
+        if (!found.getBlobs().containsKey(name)) {
+            throw Utils.error("File does not exist in that commit.");
         }
-        String contents = readFromFile(found.getBlobs().get(args[3]));
-        File overwrite = Utils.join(CWD, args[3]);
-        overwrite.createNewFile();
-        Utils.writeContents(overwrite, contents);
+        copyToFile(found.getBlobs().get(name), Utils.join(cwd(), name));
     }
 
     /**
@@ -165,41 +143,28 @@ public final class Checkout implements Serializable {
     public static void reset(String id) throws IOException {
         String completeID = findCompleteID(id);
         if (completeID == null) {
-            System.out.println("No commit with that id exists.");
-            return;
+            throw Utils.error("No commit with that id exists.");
         }
 
         Commit toReset = retrieveCommit(completeID);
         Commit current = retrieveCommit(retrieveHead());
-        List<String> cwd = Utils.plainFilenamesIn(CWD);
-        for (String file: cwd) {
-            if (toReset.getBlobs().containsKey(file)
-                    && !current.getBlobs().containsKey(file)) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                return;
-            }
-        }
-
-        for (String file: toReset.getBlobs().keySet()) {
-            File overwrite = Utils.join(CWD, file);
-            overwrite.createNewFile();
-            String contents = readFromFile(toReset.getBlobs().get(file));
-            Utils.writeContents(overwrite, contents);
-        }
-
-        for (String file: current.getBlobs().keySet()) {
-            if (!toReset.getBlobs().containsKey(file)) {
-                File delete = Utils.join(CWD, file);
-                if (!delete.exists()) {
-                    System.out.println("File should exist "
-                            + "since it was contained in "
-                            + "current commit keyset.");
-                    return;
-                }
-                delete.delete();
+        ManifestDiff diff = new ManifestDiff(current, toReset);
+        if (untrackedInTheWay(diff)) {
+            throw Utils.error("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
+        }
+
+        WorktreeUpdate update = updateTo(diff);
+        for (String file: diff.removed()) {
+            File delete = Utils.join(cwd(), file);
+            if (!delete.exists()) {
+                throw Utils.error("File should exist "
+                        + "since it was contained in "
+                        + "current commit keyset.");
             }
+            update.delete(file);
         }
+        update.run();
 
 
         Branch active = retrieveActiveBranch();
@@ -210,4 +175,58 @@ public final class Checkout implements Serializable {
     }
 
 
+
+    /**
+     * Returns true if a file added by DIFF is already in CWD, where it
+     * is untracked.
+     * @param diff ManifestDiff
+     * @return boolean
+     */
+    private static boolean untrackedInTheWay(ManifestDiff diff) {
+        for (String file: diff.added()) {
+            if (Utils.join(cwd(), file).isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an update writing the files of the target commit that
+     * differ from those of the current one, where DIFF is the difference
+     * from the current commit to the target. Files with the same blob in
+     * both commits are left as they are in CWD, so that the subtrees the
+     * diff skipped are never listed, unless RESTORE_KEY is set: then they
+     * are also written if they are missing or were changed in CWD, which
+     * the stat cache tells without reading unchanged files.
+     * @param diff ManifestDiff
+     * @return WorktreeUpdate
+     */
+    private static WorktreeUpdate updateTo(ManifestDiff diff) {
+        WorktreeUpdate update = new WorktreeUpdate();
+        for (String file: diff.added()) {
+            update.write(file, diff.toID(file));
+        }
+        for (String file: diff.modified()) {
+            update.write(file, diff.toID(file));
+        }
+        if (!Config.getBoolean(RESTORE_KEY, false)) {
+            return update;
+        }
+        List<String> present = new ArrayList<>();
+        for (String file: diff.unchanged()) {
+            if (Utils.join(cwd(), file).isFile()) {
+                present.add(file);
+            } else {
+                update.write(file, diff.toID(file));
+            }
+        }
+        Map<String, String> cwdIDs = Stage.worktreeIDs(present);
+        for (String file: present) {
+            if (!cwdIDs.get(file).equals(diff.toID(file))) {
+                update.write(file, diff.toID(file));
+            }
+        }
+        return update;
+    }
 }
@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Content-defined chunking of large files. A file at least
+ * chunking.threshold bytes long is cut wherever a Gear rolling hash of
+ * the preceding bytes matches a mask (normalized as in FastCDC: a
+ * stricter mask before the average chunk size, a looser one after it).
+ * Because cut points depend only on nearby content, an edit only changes
+ * the chunks around it. Each chunk is stored as a blob of its own; the
+ * file's blob, still named by the hash of the whole contents, holds the
+ * list of its chunk ids and sizes, one "ID SIZE" line per chunk.
+ * @author Iram Morshed
+ */
+public final class Chunker {
+
+    /** Default size at which files are chunked; 0 disables chunking. */
+    static final long DEFAULT_THRESHOLD = 64L << 20;
+
+    /** Default average chunk size. */
+    static final int DEFAULT_AVERAGE = 1 << 16;
+
+    /** Random values mixed into the hash, one per byte value. The seed
+     *  is fixed: changing it would change every cut point. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x67697466L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * A chunker producing chunks of about AVERAGE bytes, which is rounded
+     * down to a power of two.
+     * @param average int
+     */
+    Chunker(int average) {
+        int bits = 31 - Integer.numberOfLeadingZeros(Math.max(average, 256));
+        _average = 1 << bits;
+        _min = _average / 4;
+        _max = _average * 4;
+        _maskSmall = topBits(bits + 2);
+        _maskLarge = topBits(bits - 2);
+    }
+
+    /**
+     * Feeds B to this chunker and returns true if the current chunk ends
+     * with B.
+     * @param b byte
+     * @return boolean
+     */
+    boolean next(byte b) {
+        _size += 1;
+        _hash = (_hash << 1) + GEAR[b & 0xff];
+        if (_size < _min) {
+            return false;
+        }
+        long mask = _size < _average ? _maskSmall : _maskLarge;
+        if ((_hash & mask) == 0 || _size >= _max) {
+            _size = 0;
+            _hash = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the largest chunk this chunker produces.
+     * @return int
+     */
+    int maxSize() {
+        return _max;
+    }
+
+    /**
+     * Returns a mask of the BITS most significant bits of a long, which
+     * the Gear hash mixes best.
+     * @param bits int
+     * @return long
+     */
+    private static long topBits(int bits) {
+        return bits <= 0 ? 0 : -1L << (Long.SIZE - bits);
+    }
+
+    /**
+     * Returns true if SOURCE is large enough to be stored in chunks.
+     * @param source File
+     * @return boolean
+     */
+    static boolean shouldChunk(File source) {
+        long threshold = Config.getLong("chunking.threshold",
+                DEFAULT_THRESHOLD);
+        return threshold > 0 && source.length() >= threshold;
+    }
+
+    /**
+     * Stores SOURCE in DIR as chunks plus a chunk list and returns its
+     * blob id, the hash of its whole contents. SOURCE is read once; only
+     * chunks not already stored are written.
+     * @param dir File
+     * @param source File
+     * @return String
+     */
+    static String writeChunked(File dir, File source) {
+        Chunker chunker = new Chunker(Config.getInt("chunking.average",
+                DEFAULT_AVERAGE));
+        MessageDigest whole = Utils.sha1Digest();
+        StringBuilder list = new StringBuilder();
+        ByteArrayOutputStream chunk =
+                new ByteArrayOutputStream(chunker.maxSize());
+        byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(source), ObjectStore.BUFFER_SIZE)) {
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                whole.update(buffer, 0, n);
+                int start = 0;
+                for (int i = 0; i < n; i += 1) {
+                    if (chunker.next(buffer[i])) {
+                        chunk.write(buffer, start, i + 1 - start);
+                        storeChunk(dir, chunk, list);
+                        start = i + 1;
+                    }
+                }
+                chunk.write(buffer, start, n - start);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read %s: %s", source.getName(),
+                    excp.getMessage());
+        }
+        if (chunk.size() > 0) {
+            storeChunk(dir, chunk, list);
+        }
+        String uniqueID = Utils.toHex(whole.digest());
+        ObjectStore.write(dir, uniqueID, ObjectStore.CHUNKS,
+                list.toString().getBytes(StandardCharsets.UTF_8));
+        return uniqueID;
+    }
+
+    /**
+     * Stores the bytes in CHUNK as a blob in DIR, records it in LIST and
+     * empties CHUNK.
+     * @param dir File
+     * @param chunk ByteArrayOutputStream
+     * @param list StringBuilder
+     */
+    private static void storeChunk(File dir, ByteArrayOutputStream chunk,
+                                   StringBuilder list) {
+        byte[] contents = chunk.toByteArray();
+        String uniqueID = Utils.sha1(contents);
+        ObjectStore.write(dir, uniqueID, ObjectStore.BLOB, contents);
+        list.append(uniqueID).append(' ').append(contents.length)
+                .append('\n');
+        chunk.reset();
+    }
+
+    /**
+     * Returns a stream over the concatenated chunks in LIST, stored in
+     * DIR. Each chunk is only opened once the previous one is used up.
+     * @param dir File
+     * @param list String
+     * @return InputStream
+     */
+    static InputStream reassemble(File dir, String list) {
+        String[] lines = list.isEmpty() ? new String[0] : list.split("\n");
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return _next < lines.length;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (_next >= lines.length) {
+                    throw new NoSuchElementException();
+                }
+                String line = lines[_next];
+                _next += 1;
+                return ObjectStore.open(dir, line.substring(0,
+                        line.indexOf(' ')));
+            }
+
+            /** Index of the next chunk to open. */
+            private int _next;
+        });
+    }
+
+    /**
+     * Returns the total size of the chunks in LIST.
+     * @param list String
+     * @return long
+     */
+    static long totalSize(String list) {
+        long total = 0;
+        for (String line: list.split("\n")) {
+            if (!line.isEmpty()) {
+                total += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+            }
+        }
+        return total;
+    }
+
+    /** Average chunk size. */
+    private final int _average;
+
+    /** No chunk is cut before this many bytes. */
+    private final int _min;
+
+    /** Every chunk is cut at this many bytes. */
+    private final int _max;
+
+    /** Mask used until the chunk reaches the average size. */
+    private final long _maskSmall;
+
+    /** Mask used once the chunk is past the average size. */
+    private final long _maskLarge;
+
+    /** Bytes in the current chunk. */
+    private int _size;
+
+    /** Gear hash of the current chunk. */
+    private long _hash;
+}
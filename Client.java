@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+/** The client of the gitlet daemon: runs a command like Main, but sends
+ *  it to the running Daemon instead of running it in this JVM, printing
+ *  its output and exiting with its exit code. If no daemon is running,
+ *  or if its socket cannot be trusted to belong to this user, the
+ *  command runs here as Main would run it. Besides the socket classes of
+ *  the JDK, this class only loads Daemon, so that it starts quickly.
+ *  @author Iram Morshed
+ */
+public class Client {
+
+    /** Sends the command ARGS to the daemon, or runs it here if there is
+     *  none.
+     * @param args <String[]></> */
+    public static void main(String... args) throws IOException {
+        SocketChannel channel = Daemon.connect(Daemon.socketFile());
+        if (channel == null) {
+            Main.main(args);
+            return;
+        }
+        int code;
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(new Daemon.SocketOutput(channel)));
+            request.writeInt(Daemon.VERSION);
+            request.writeUTF(new File(".").getAbsolutePath());
+            request.writeUTF(System.getProperty("sun.stdout.encoding",
+                    Charset.defaultCharset().name()));
+            request.writeInt(args.length);
+            for (String arg: args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            if (args.length > 0 && args[0].equals("batch")) {
+                sendInput(channel);
+            } else {
+                channel.shutdownOutput();
+            }
+            code = reply(new DataInputStream(new BufferedInputStream(
+                    new Daemon.SocketInput(channel))));
+        }
+        System.out.flush();
+        System.err.flush();
+        if (code != 0) {
+            System.exit(code);
+        }
+    }
+
+    /** Sends the standard input to CHANNEL as it is read, on a thread of
+     *  its own so that output is printed meanwhile.
+     * @param channel <SocketChannel></> */
+    private static void sendInput(SocketChannel channel) {
+        Thread sender = new Thread(() -> {
+            try {
+                System.in.transferTo(new Daemon.SocketOutput(channel));
+                channel.shutdownOutput();
+            } catch (IOException excp) {
+                /* The daemon went away; its reply says why. */
+            }
+        }, "gitlet-input");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /** Prints the output frames read from REPLY and returns the exit code
+     *  of the command.
+     * @param reply <DataInputStream></>
+     * @return int */
+    private static int reply(DataInputStream reply) throws IOException {
+        byte[] buffer = new byte[0];
+        try {
+            while (true) {
+                byte kind = reply.readByte();
+                if (kind == Daemon.EXIT) {
+                    return reply.readInt();
+                }
+                int length = reply.readInt();
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                reply.readFully(buffer, 0, length);
+                (kind == Daemon.ERR ? System.err : System.out)
+                        .write(buffer, 0, length);
+            }
+        } catch (EOFException excp) {
+            System.err.println("The gitlet daemon closed the connection.");
+            return 1;
+        }
+    }
+}
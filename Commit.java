@@ -3,32 +3,40 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
 
 import static gitlet.Branch.retrieveActiveBranch;
-import static gitlet.Main.*;
-import static gitlet.Stage.STAGED_FOR_ADDITION;
-import static gitlet.Stage.STAGED_FOR_REMOVAL;
+import static gitlet.Repository.*;
 
 /**
  * @author Iram Morshed
  */
 public final class Commit implements Serializable {
 
+    /** Keeps commits written by Java serialization readable. */
+    private static final long serialVersionUID = -1502565665525790544L;
+
     /** Constructor for initial commit. */
     public Commit() throws IOException {
-        _timestamp = "Wed Dec 31 16:00:00 1969 -0800";
+        _epochSeconds = 0;
+        _zoneMinutes = INITIAL_ZONE_MINUTES;
+        _hasEpoch = true;
         _message = "initial commit";
-        _uniqueID = Utils.sha1(Utils.serialize(this));
-        _head = _uniqueID;
         _blobs = new HashMap<>();
+        _tree = Tree.of(_blobs);
+        _uniqueID = Utils.sha1(CommitCodec.encode(this));
         saveCommitAsFile();
-        headToFile();
+        CommitGraph.append(this);
+        headToFile(new RefTransaction(), _uniqueID);
     }
 
     /** Commit constructor.
@@ -38,94 +46,202 @@ public final class Commit implements Serializable {
     public Commit(String message,
                   String secondParent, boolean merged)
                   throws IOException {
-        String pattern = "EEE MMM d HH:mm:ss yyyy Z";
-        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
-        _timestamp = dateFormat.format(new Date());
+        long now = System.currentTimeMillis();
+        _epochSeconds = Math.floorDiv(now, 1000);
+        _zoneMinutes = TimeZone.getDefault().getOffset(now) / 60000;
+        _hasEpoch = true;
         _message = message;
         _parent = retrieveHead();
-        _uniqueID = Utils.sha1(Utils.serialize(this));
-        _head = _uniqueID;
         _blobs = new HashMap<>();
         _secondParent = secondParent;
         _isMerged = merged;
 
-        addToParent();
-        Branch active = retrieveActiveBranch();
-        active.updateNode(_head);
-
-        List<String> retrieveAdded =
-                Utils.plainFilenamesIn(STAGED_FOR_ADDITION);
-        for (String file: retrieveAdded) {
-            Blob blob = new Blob(file);
-            _blobs.put(file, blob.getBlobID());
-        }
-        List<String> retrieveRemoved =
-                Utils.plainFilenamesIn(STAGED_FOR_REMOVAL);
-        for (String file: retrieveRemoved) {
-            File delete = Utils.join(STAGED_FOR_REMOVAL, file);
-            if (!delete.exists()) {
-                throw Utils.error("File doesn't exist even "
-                        + "though STAGEREMOVE DIR says it does.");
-            }
-            delete.delete();
+        Commit parent = retrieveCommit(_parent);
+        TreeMap<String, String> changes = addToParent(parent);
+        for (String file: Stage.stagedForAdd()) {
+            _blobs.put(file, Stage.entry(file).uniqueID());
+            changes.put(file, Stage.entry(file).uniqueID());
         }
+        _tree = parent.getTree() == null ? Tree.of(_blobs)
+                : Tree.update(parent.getTree(), changes);
+        _uniqueID = Utils.sha1(CommitCodec.encode(this));
         saveCommitAsFile();
-        headToFile();
+        CommitGraph.append(this);
+        cache(this);
+        Branch active = retrieveActiveBranch();
+        active.updateNode(_uniqueID);
     }
 
-    /** Transfers commit files from parent to child. */
-    public void addToParent() {
-        Commit parent = retrieveCommit(retrieveHead());
-        _blobs.putAll(parent._blobs);
-        List<String> stagedForRm = Utils.plainFilenamesIn(STAGED_FOR_REMOVAL);
-        List<String> cwd = Utils.plainFilenamesIn(CWD);
+    /** Constructor for a commit decoded by CommitCodec. TREE is the id
+     *  of its root tree, or null for a commit whose files are in MANIFEST,
+     *  its undecoded manifest section, or null to load it on first use.
+     * @param uniqueID <String></>
+     * @param parent <String></>
+     * @param secondParent <String></>
+     * @param merged <boolean></>
+     * @param epochSeconds <long></>
+     * @param zoneMinutes <int></>
+     * @param message <String></>
+     * @param tree <String></>
+     * @param manifest <byte[]></>*/
+    Commit(String uniqueID, String parent, String secondParent,
+           boolean merged, long epochSeconds, int zoneMinutes,
+           String message, String tree, byte[] manifest) {
+        _uniqueID = uniqueID;
+        _parent = parent;
+        _secondParent = secondParent;
+        _isMerged = merged;
+        _epochSeconds = epochSeconds;
+        _zoneMinutes = zoneMinutes;
+        _hasEpoch = true;
+        _message = message;
+        _tree = tree;
+        _manifest = manifest;
+    }
+
+    /** Transfers commit files from PARENT to child, returning the files
+     *  dropped on the way as changes to the parent's tree.
+     * @param parent <Commit></>
+     * @return TreeMap<String, String>*/
+    private TreeMap<String, String> addToParent(Commit parent) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        _blobs.putAll(parent.getBlobs());
         Iterator<String> iterator = _blobs.keySet().iterator();
         while (iterator.hasNext()) {
             String filename = iterator.next();
-            if (stagedForRm.contains(filename) || !cwd.contains(filename)) {
+            if (Stage.stagedForRemove(filename)
+                    || !Utils.join(cwd(), filename).isFile()) {
                 iterator.remove();
+                changes.put(filename, null);
             }
         }
+        return changes;
     }
 
-    /** Saves the head to file. */
-    private static void headToFile() {
-        File head = Utils.join(GITLET_FOLDER, "HEAD");
+    /** Saves the head, UNIQUEID, to file, together with the changes to
+     *  other refs in REFS. Nothing is saved unless HEAD still holds the
+     *  head that this command read.
+     * @param refs <RefTransaction></>
+     * @param uniqueID <String></>*/
+    static void headToFile(RefTransaction refs, String uniqueID) {
+        File head = headFile();
         if (!head.exists()) {
             throw Utils.error("Head file was not initialized during INIT.");
         }
-        Utils.writeObject(head, _head);
+        refs.update(head, retrieveHead(), uniqueID).commit();
+        Repository.current().forget(Head.class);
     }
 
-    /** Retrieves the head from the HEAD file.
+    /** Retrieves the head from the HEAD file, which is read again only
+     *  once it changes.
      * @return String*/
     public static String retrieveHead() {
-        File containsHead = Utils.join(GITLET_FOLDER, "HEAD");
+        File containsHead = headFile();
         if (!containsHead.exists()) {
             throw Utils.error("Head was not saved for persistence.");
         }
-        String head = Utils.readObject(containsHead, String.class);
-        return head;
+        return Repository.current().fileState(Head.class, containsHead,
+                () -> new Head(RefTransaction.read(containsHead)))._uniqueID;
+    }
+
+    /** The head commit of a repository, as read from its HEAD file. */
+    private static final class Head {
+
+        /**
+         * The head commit UNIQUEID.
+         * @param uniqueID String
+         */
+        Head(String uniqueID) {
+            _uniqueID = uniqueID;
+        }
+
+        /** Id of the head commit. */
+        private final String _uniqueID;
     }
 
     /** Saves a commit to a file. */
     private void saveCommitAsFile() throws IOException {
-        File commit = Utils.join(COMMIT_HISTORY, _uniqueID);
-        commit.createNewFile();
-        Utils.writeObject(commit, this);
+        ObjectStore.write(commitHistory(), _uniqueID, ObjectStore.COMMIT,
+                CommitCodec.encode(this));
     }
 
     /** Retrievs a commit specified by ID.
      * @param uniqueID <String></>
      * @return Commit*/
     public static Commit retrieveCommit(String uniqueID) {
-        File commit = Utils.join(COMMIT_HISTORY, uniqueID);
-        if (!commit.exists()) {
+        Commit cached = cached(uniqueID);
+        if (cached != null) {
+            return cached;
+        } else if (!ObjectStore.contains(commitHistory(), uniqueID)) {
+            throw Utils.error("File does not exist");
+        } else {
+            return cache(CommitCodec.read(uniqueID, true));
+        }
+    }
+
+    /** Retrieves the commit specified by ID without reading its files,
+     *  which are only loaded if getBlobs() is called.
+     * @param uniqueID <String></>
+     * @return Commit*/
+    public static Commit retrieveHeader(String uniqueID) {
+        Commit cached = cached(uniqueID);
+        if (cached != null) {
+            return cached;
+        } else if (!ObjectStore.contains(commitHistory(), uniqueID)) {
             throw Utils.error("File does not exist");
+        }
+        return cache(CommitCodec.read(uniqueID, false));
+    }
+
+    /** Returns the decoded commit ID if it is cached, or null.
+     * @param uniqueID <String></>
+     * @return Commit*/
+    private static Commit cached(String uniqueID) {
+        Cache cache = cache();
+        Commit cached = cache._commits.get(uniqueID);
+        if (cached == null) {
+            cache._misses += 1;
         } else {
-            Commit retrieved = Utils.readObject(commit, Commit.class);
-            return retrieved;
+            cache._hits += 1;
         }
+        return cached;
+    }
+
+    /** Adds COMMIT to the cache of decoded commits, evicting the least
+     *  recently used one once the cache holds CACHE_SIZE commits.
+     * @param commit <Commit></>
+     * @return Commit*/
+    private static Commit cache(Commit commit) {
+        Cache cache = cache();
+        if (cache._commits.isEmpty()) {
+            cache._size = Math.max(1,
+                    Config.getInt("cache.commits", DEFAULT_CACHE_SIZE));
+        }
+        cache._commits.put(commit.getUniqueID(), commit);
+        if (cache._commits.size() > cache._size) {
+            Iterator<Commit> eldest = cache._commits.values().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return commit;
+    }
+
+    /** Returns the cache of decoded commits of the current repository.
+     * @return Cache*/
+    private static Cache cache() {
+        return Repository.current().state(Cache.class, Cache::new);
+    }
+
+    /** Returns the number of commits found in the cache.
+     * @return long*/
+    static long cacheHits() {
+        return cache()._hits;
+    }
+
+    /** Returns the number of commits that had to be read from disk.
+     * @return long*/
+    static long cacheMisses() {
+        return cache()._misses;
     }
 
     /************** GITLET COMMANDS *********************/
@@ -138,112 +254,67 @@ public final class Commit implements Serializable {
                               String secondParent, boolean merged)
             throws IOException {
         if (message.isBlank()) {
-            System.out.println("Please enter a commit message.");
-            return;
+            throw Utils.error("Please enter a commit message.");
         }
 
-        List<String> stageForAdd = Utils.plainFilenamesIn(STAGED_FOR_ADDITION),
-                stageForRm = Utils.plainFilenamesIn(STAGED_FOR_REMOVAL);
-        if (stageForAdd.size() == 0 && stageForRm.size() == 0) {
-            System.out.println("No changes added to the commit.");
-            return;
+        if (Stage.isStageClear()) {
+            throw Utils.error("No changes added to the commit.");
         }
 
-        Commit snapshot = new Commit(message, secondParent, merged);
-        List<String> filesStageAdd =
-                Utils.plainFilenamesIn(STAGED_FOR_ADDITION),
-                filesStageRemove = Utils.plainFilenamesIn(STAGED_FOR_REMOVAL);
-        for (String file: filesStageAdd) {
-            File delete = Utils.join(STAGED_FOR_ADDITION, file);
-            if (!delete.exists()) {
-                System.out.println("File does not exist even "
-                        + "though it says it should in Stage.");
-                return;
-            }
-            delete.delete();
-        }
-        for (String file: filesStageRemove) {
-            File delete = Utils.join(STAGED_FOR_REMOVAL, file);
-            if (!delete.exists()) {
-                System.out.println("File does not exist even "
-                        + "though it says it should in Stage.");
-                return;
-            }
-            delete.delete();
-        }
+        new Commit(message, secondParent, merged);
+        Stage.clearStage();
     }
 
     /** Runs the ADD command.
      * @param file <File></>*/
     public static void add(File file) throws IOException {
-        List<String> remove = Utils.plainFilenamesIn(STAGED_FOR_REMOVAL);
-        if (remove.contains(file.getName())) {
-            File inRemove = Utils.join(STAGED_FOR_REMOVAL, file.getName());
-            if (Utils.readContentsAsString(inRemove)
-                    .equals(Utils.readContentsAsString(file))) {
-                inRemove.delete();
+        String name = Utils.relativePath(cwd(), file);
+        if (Stage.stagedForRemove(name)) {
+            if (Stage.entry(name).uniqueID().equals(Utils.sha1(file))) {
+                Stage.unstage(name);
                 return;
             }
         }
 
         Commit current = retrieveCommit(retrieveHead());
-        if (current.getBlobs().containsKey(file.getName())) {
-            String currentContents = Blob.readFromFile(
-                    current.getBlobs().get(file.getName()));
-
-            String fileContents = Utils.readContentsAsString(file);
-
-            List<String> stage = Utils.plainFilenamesIn(STAGED_FOR_ADDITION);
-            if (currentContents.equals(fileContents)
-                    && stage.contains(file.getName())) {
-                File delete = Utils.join(STAGED_FOR_ADDITION, file.getName());
-                if (!delete.exists()) {
-                    throw Utils.error("File does not exist "
-                            + "even though file name exists in STAGE ADD.");
+        if (current.getBlobs().containsKey(name)) {
+            boolean unchanged = current.getBlobs().get(name)
+                    .equals(Utils.sha1(file));
+
+            if (unchanged) {
+                if (Stage.stagedForAdd(name)) {
+                    Stage.unstage(name);
                 }
-                delete.delete();
-                return;
-            } else if (currentContents.equals(fileContents)) {
                 return;
             }
         }
-        File add = Utils.join(STAGED_FOR_ADDITION, file.getName());
-        add.createNewFile();
-        Utils.writeContents(add, Utils.readContents(file));
+        Stage.stageForAdd(name, file);
     }
 
     /** Runs the RM command.
      * @param file <File></>*/
     public static void remove(File file) throws IOException {
-        List<String> stagedforAdd = Utils.plainFilenamesIn(STAGED_FOR_ADDITION);
+        String name = Utils.relativePath(cwd(), file);
         boolean wasStaged, wasTracked;
-        if (stagedforAdd.contains(file.getName())) {
-            File stageForAdd = Utils.join(STAGED_FOR_ADDITION, file.getName());
-            if (!stageForAdd.exists()) {
-                System.out.println("File does not exist in "
-                        + "staged_for_addition even though"
-                        + " the DIR contains its filename.");
-            }
-            stageForAdd.delete();
+        if (Stage.stagedForAdd(name)) {
+            Stage.unstage(name);
             wasStaged = true;
         } else {
             wasStaged = false;
         }
 
         Commit current = retrieveCommit(retrieveHead());
-        String name = file.getName();
         if (current.getBlobs().containsKey(name)) {
-            File stageForRm = Utils.join(STAGED_FOR_REMOVAL, name);
-            stageForRm.createNewFile();
-            Utils.writeContents(stageForRm, Utils.readContents(file));
+            Stage.stageForRemove(name, current.getBlobs().get(name));
             file.delete();
+            Utils.deleteEmptyParents(cwd(), file);
             wasTracked = true;
         } else {
             wasTracked = false;
         }
 
         if (!wasStaged && !wasTracked) {
-            System.out.println("No reason to remove the file.");
+            throw Utils.error("No reason to remove the file.");
         }
     }
 
@@ -251,87 +322,128 @@ public final class Commit implements Serializable {
      * @param filename <String></> */
     public static void remove(String filename) throws IOException {
         Commit current = retrieveCommit(retrieveHead());
-        Set<String> currentBlobs = current._blobs.keySet();
+        Set<String> currentBlobs = current.getBlobs().keySet();
         if (currentBlobs.contains(filename)) {
-            String contents =
-                    Blob.readFromFile
-                            (current.getBlobs().get(filename));
-            File remove = Utils.join(STAGED_FOR_REMOVAL, filename);
-            remove.createNewFile();
-            Utils.writeContents(remove, contents);
+            Stage.stageForRemove(filename, current.getBlobs().get(filename));
         }
 
     }
 
     /** Runs the LOG command. */
     public static void log() {
-        String head = retrieveHead();
-        Commit history = retrieveCommit(head);
-        while (history != null) {
-            System.out.println("===");
-            System.out.println("commit " + history.getUniqueID());
+        int pos = CommitGraph.require(retrieveHead());
+        while (pos != CommitGraph.NONE) {
+            Commit history = retrieveHeader(CommitGraph.id(pos));
+            out().println("===");
+            out().println("commit " + history.getUniqueID());
             if (history.getSecondParent() != null && history.getMerged()) {
-                System.out.println("Merge: "
+                out().println("Merge: "
                         + history.getParent().substring(0, 7)
                         + " "
                         + history.getSecondParent().substring(0, 7));
             }
-            System.out.println("Date: " + history.getTimestamp());
-            System.out.println(history.getMessage());
-            System.out.println();
-            if (history.getParent() != null) {
-                history = retrieveCommit(history.getParent());
-            } else {
-                break;
-            }
+            out().println("Date: " + history.getTimestamp());
+            out().println(history.getMessage());
+            out().println();
+            pos = CommitGraph.parent(pos);
         }
     }
 
-    /** Runs GLOBAL_LOG. */
+    /** Runs GLOBAL_LOG, listing every commit in the order it was made
+     *  straight from the commit graph. */
     public static void globallog() {
-        List<String> allCommits = Utils.plainFilenamesIn(COMMIT_HISTORY);
-        for (String uniqueID: allCommits) {
-            Commit history = retrieveCommit(uniqueID);
-            System.out.println("===");
-            System.out.println("commit " + history.getUniqueID());
-            System.out.println("Date: " + history.getTimestamp());
-            System.out.println(history.getMessage());
-            System.out.println();
+        for (int pos = 0; pos < CommitGraph.size(); pos += 1) {
+            printGlobal(pos);
         }
+    }
 
+    /** Runs GLOBAL_LOG --SINCE --UNTIL, listing the commits made from
+     *  SINCE to UNTIL seconds since the epoch in order of time.
+     * @param since <long></>
+     * @param until <long></>*/
+    public static void globallog(long since, long until) {
+        for (int pos: CommitGraph.madeBetween(since, until)) {
+            printGlobal(pos);
+        }
+    }
+
+    /** Prints the GLOBAL_LOG entry of the commit at graph position POS.
+     * @param pos <int></>*/
+    private static void printGlobal(int pos) {
+        out().println("===");
+        out().println("commit " + CommitGraph.id(pos));
+        out().println("Date: " + CommitGraph.timestamp(pos));
+        out().println(CommitGraph.message(pos));
+        out().println();
+    }
+
+    /** Returns TIME, a local date given as yyyy-MM-dd, optionally followed
+     *  by HH:mm or HH:mm:ss, in seconds since the epoch. A date alone
+     *  means its first second, or its last if END.
+     * @param time <String></>
+     * @param end <boolean></>
+     * @return long*/
+    public static long parseTime(String time, boolean end) {
+        String[] patterns = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm",
+            "yyyy-MM-dd"};
+        for (String pattern: patterns) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            ParsePosition parsed = new ParsePosition(0);
+            Date date = format.parse(time, parsed);
+            if (date != null && parsed.getIndex() == time.length()) {
+                long seconds = Math.floorDiv(date.getTime(), 1000);
+                boolean dateOnly = pattern.length() == time.length();
+                return end && dateOnly ? seconds + SECONDS_PER_DAY - 1
+                        : seconds;
+            }
+        }
+        throw Utils.error("Invalid time %s; use yyyy-MM-dd [HH:mm[:ss]].",
+                time);
     }
 
     /** Find the commit.
      * @param args <String></>*/
     public static void find(String args) {
-        List<String> allCommits = Utils.plainFilenamesIn(COMMIT_HISTORY);
-        boolean found = false;
-        for (String commit: allCommits) {
-            Commit fromFile = retrieveCommit(commit);
-            if (fromFile.getMessage().startsWith(args)) {
-                System.out.println(fromFile.getUniqueID());
-                found = true;
-            }
+        printFound(MessageIndex.withPrefix(args));
+    }
+
+    /** Runs FIND --WORD, finding the commits whose message contains
+     *  every word of WORDS.
+     * @param words <String></>*/
+    public static void findWords(String words) {
+        printFound(MessageIndex.withWords(words));
+    }
+
+    /** Prints the ids FOUND by FIND.
+     * @param found <List<String>></>*/
+    private static void printFound(List<String> found) {
+        for (String uniqueID: found) {
+            out().println(uniqueID);
         }
-        if (!found) {
-            System.out.println("Found no commit with that message.");
-            return;
+        if (found.isEmpty()) {
+            throw Utils.error("Found no commit with that message.");
         }
     }
 
-    /** Find the complete ID.
+    /** Find the complete ID. Abbreviations are looked up in the commit
+     *  index, and in the object store only for commits missing from it.
      * @param args <String></>
-     * @return String*/
+     * @return String, or null if no commit has that id*/
     public static String findCompleteID(String args) {
-        List<String> allCommits = Utils.plainFilenamesIn(COMMIT_HISTORY);
-        String completeID = null;
-        for (String commit: allCommits) {
-            if (commit.startsWith(args)) {
-                completeID = commit;
-            }
+        if (args.length() == Utils.UID_LENGTH) {
+            return ObjectStore.contains(commitHistory(), args) ? args : null;
         }
-        return completeID;
-
+        List<String> matches = CommitGraph.idsWithPrefix(args);
+        if (matches.isEmpty()) {
+            matches = ObjectStore.idsWithPrefix(commitHistory(), args);
+        }
+        if (matches.size() > 1) {
+            throw Utils.error("Commit id %s is ambiguous; it matches %s "
+                    + "and %d more.", args, matches.get(0),
+                    matches.size() - 1);
+        }
+        return matches.isEmpty() ? null : matches.get(0);
     }
 
     /** Retrieves the parent of a commit.
@@ -343,9 +455,31 @@ public final class Commit implements Serializable {
     /** Retrieves the timestamp of a commit.
      * @return String*/
     public String getTimestamp() {
+        if (_timestamp == null) {
+            _timestamp = CommitCodec.formatTimestamp(_epochSeconds,
+                    _zoneMinutes);
+        }
         return _timestamp;
     }
 
+    /** Retrieves the time a commit was made in seconds since the epoch.
+     * @return long*/
+    public long getEpochSeconds() {
+        if (!_hasEpoch) {
+            _epochSeconds = CommitCodec.parseEpochSeconds(_timestamp);
+            _zoneMinutes = CommitCodec.parseZoneMinutes(_timestamp);
+            _hasEpoch = true;
+        }
+        return _epochSeconds;
+    }
+
+    /** Retrieves the zone offset of the timestamp in minutes east of UTC.
+     * @return int*/
+    public int getZoneMinutes() {
+        getEpochSeconds();
+        return _zoneMinutes;
+    }
+
     /** Retrieves the message of a commit.
      * @return String*/
     public String getMessage() {
@@ -358,9 +492,27 @@ public final class Commit implements Serializable {
         return _uniqueID;
     }
 
-    /** Retrieves the list of blobs.
+    /** Retrieves the id of the root tree, or null for a commit whose
+     *  files are only kept in its manifest.
+     * @return String*/
+    public String getTree() {
+        return _tree;
+    }
+
+    /** Retrieves the list of blobs by path, decoding them on first use.
      * @return HashMap<String, String>*/
     public HashMap<String, String> getBlobs() {
+        if (_blobs == null) {
+            if (_tree != null) {
+                _blobs = new HashMap<>();
+                Tree.flatten(_tree, "", _blobs);
+            } else if (_manifest == null) {
+                _blobs = CommitCodec.read(_uniqueID, true).getBlobs();
+            } else {
+                _blobs = CommitCodec.decodeManifest(_manifest);
+                _manifest = null;
+            }
+        }
         return _blobs;
     }
 
@@ -379,24 +531,21 @@ public final class Commit implements Serializable {
     /** Retrieves the head.
      * @return String*/
     public static String getHead() {
-        return _head;
+        return retrieveHead();
     }
 
-    /** Sets the head.
-     * @param commit <String></>*/
-    public static void setHead(String commit) {
-        _head = commit;
-        headToFile();
-    }
-
-    /** Sets active branch to CURRENT. */
+    /** Sets active branch to CURRENT, if neither it nor HEAD was moved
+     *  since this command read them. */
     public static void setActiveBranch(Branch current) throws IOException {
         Branch active = retrieveActiveBranch();
         active.switchHead(); current.switchHead();
-        setHead(current.getCurrentNode());
-        setActive(current);
-        active.saveBranchToFile();
-        current.saveBranchToFile();
+        File branch = Utils.join(branchesFolder(), current.getBranchName());
+        headToFile(new RefTransaction()
+                .update(currentBranchFile(), active.getBranchName(),
+                        current.getBranchName())
+                .update(branch, current.getCurrentNode(),
+                        current.getCurrentNode()),
+                current.getCurrentNode());
     }
 
     /** Stores parent ID. */
@@ -408,17 +557,59 @@ public final class Commit implements Serializable {
     /** Stores if it is a merged commit or not. */
     private boolean _isMerged = false;
 
-    /** Stores time commit made. */
+    /** Stores time commit made, as printed by LOG. Formatted on first
+     *  use for commits decoded by CommitCodec. */
     private String _timestamp;
 
+    /** Seconds in a day. */
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /** Offset of the zone of the initial commit's timestamp. */
+    private static final int INITIAL_ZONE_MINUTES = -8 * 60;
+
+    /** Stores time commit made in seconds since the epoch. */
+    private transient long _epochSeconds;
+
+    /** Stores the zone offset of the timestamp in minutes east of UTC. */
+    private transient int _zoneMinutes;
+
+    /** True once _epochSeconds and _zoneMinutes are set. Commits written
+     *  by Java serialization only have _timestamp. */
+    private transient boolean _hasEpoch;
+
+    /** Stores the id of the root tree. Commits made before trees, and
+     *  those written by Java serialization, have none. */
+    private transient String _tree;
+
+    /** Stores the undecoded manifest of a decoded commit. */
+    private transient byte[] _manifest;
+
     /** Stores message. */
     private String _message;
 
     /** Stores sha1 code for commit. */
     private String _uniqueID;
 
-    /** Stores head. */
-    private static String _head;
+    /** Default number of decoded commits kept in the cache. */
+    private static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /** The decoded commits of a repository. */
+    private static final class Cache {
+
+        /** Recently decoded commits by id, least recently used first. */
+        private final LinkedHashMap<String, Commit> _commits =
+                new LinkedHashMap<>(16, 0.75f, true);
+
+        /** Most commits kept in _commits, read from the config on first
+         *  use. */
+        private int _size;
+
+        /** Number of lookups answered by _commits. */
+        private long _hits;
+
+        /** Number of lookups that missed _commits. */
+        private long _misses;
+    }
 
     /** Stores blobs. */
     private HashMap<String, String> _blobs;
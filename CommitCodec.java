@@ -0,0 +1,383 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+import java.util.TreeMap;
+
+import static gitlet.Repository.commitHistory;
+import static gitlet.Repository.out;
+
+/**
+ * The binary format of commit objects. A commit starts with the magic
+ * "GLC" and a version byte, followed by two length-prefixed sections.
+ * The header section holds a flags byte (has parent, has second parent,
+ * merged), the binary parent ids, the epoch seconds and zone offset in
+ * minutes of the timestamp, and the message. Commits with a tree also
+ * hold the binary id of their root {@link Tree} after the parents and
+ * leave the manifest section empty. For commits without one, the
+ * manifest section holds the number of tracked files and, sorted by
+ * name, each file name and binary blob id. Strings, the message and
+ * the file names, are an int length followed by their UTF-8 bytes;
+ * version 1 wrote them with DataOutputStream.writeUTF, which limits them
+ * to 65535 bytes, and is still decoded. History walks decode only the
+ * header and never read the manifest. Commits written by Java
+ * serialization, before this format, are still decoded and can be
+ * rewritten by CONVERT-COMMITS.
+ * @author Iram Morshed
+ */
+public final class CommitCodec {
+
+    /** First bytes of every encoded commit, followed by its version. */
+    private static final byte[] MAGIC = {'G', 'L', 'C'};
+
+    /** Version of the format written. */
+    private static final byte VERSION = 2;
+
+    /** Version whose strings were written by writeUTF. */
+    private static final byte UTF_VERSION = 1;
+
+    /** Flag set if the commit has a parent. */
+    private static final int HAS_PARENT = 1;
+
+    /** Flag set if the commit has a second parent. */
+    private static final int HAS_SECOND_PARENT = 2;
+
+    /** Flag set if the commit is a merge. */
+    private static final int MERGED = 4;
+
+    /** Flag set if the commit's files are in a tree. */
+    private static final int HAS_TREE = 8;
+
+    /** Format of commit timestamps. */
+    static final String TIMESTAMP_PATTERN = "EEE MMM d HH:mm:ss yyyy Z";
+
+    /** Epoch seconds of the first day of the Gregorian calendar, before
+     *  which SimpleDateFormat uses the Julian calendar. */
+    private static final long GREGORIAN_SECONDS = -12219292800L;
+
+    /** English abbreviations of the days of the week, from Monday. */
+    private static final String[] DAYS = {
+        "Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun",
+    };
+
+    /** English abbreviations of the months. */
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+        "Jul", "Aug", "Sep", "Oct", "Nov", "Dec",
+    };
+
+    /** Not instantiable. */
+    private CommitCodec() {
+    }
+
+    /**
+     * Returns COMMIT in the binary commit format.
+     * @param commit Commit
+     * @return byte[]
+     */
+    static byte[] encode(Commit commit) {
+        try {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(header);
+            int flags = (commit.getParent() != null ? HAS_PARENT : 0)
+                    | (commit.getSecondParent() != null
+                    ? HAS_SECOND_PARENT : 0)
+                    | (commit.getMerged() ? MERGED : 0)
+                    | (commit.getTree() != null ? HAS_TREE : 0);
+            out.writeByte(flags);
+            if (commit.getParent() != null) {
+                out.write(Pack.toBinary(commit.getParent()));
+            }
+            if (commit.getSecondParent() != null) {
+                out.write(Pack.toBinary(commit.getSecondParent()));
+            }
+            if (commit.getTree() != null) {
+                out.write(Pack.toBinary(commit.getTree()));
+            }
+            out.writeLong(commit.getEpochSeconds());
+            out.writeInt(commit.getZoneMinutes());
+            writeString(out, commit.getMessage());
+
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+            out = new DataOutputStream(manifest);
+            if (commit.getTree() == null) {
+                TreeMap<String, String> blobs =
+                        new TreeMap<>(commit.getBlobs());
+                out.writeInt(blobs.size());
+                for (Map.Entry<String, String> entry: blobs.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.write(Pack.toBinary(entry.getValue()));
+                }
+            }
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            out = new DataOutputStream(result);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(header.size());
+            header.writeTo(out);
+            out.writeInt(manifest.size());
+            manifest.writeTo(out);
+            return result.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit.");
+        }
+    }
+
+    /**
+     * Reads the commit UNIQUEID. Unless WITHMANIFEST, only its header is
+     * read and its files are loaded on first use of getBlobs().
+     * @param uniqueID String
+     * @param withManifest boolean
+     * @return Commit
+     */
+    static Commit read(String uniqueID, boolean withManifest) {
+        try (InputStream in = new BufferedInputStream(
+                ObjectStore.open(commitHistory(), uniqueID))) {
+            in.mark(MAGIC.length + 1);
+            byte[] magic = in.readNBytes(MAGIC.length + 1);
+            in.reset();
+            if (!isEncoded(magic)) {
+                return Utils.readObject(in, Commit.class);
+            }
+            return decode(uniqueID, new DataInputStream(in), withManifest);
+        } catch (IOException excp) {
+            throw Utils.error("Could not read commit %s: %s", uniqueID,
+                    excp.getMessage());
+        }
+    }
+
+    /**
+     * Decodes the commit UNIQUEID from IN, positioned at its magic. The
+     * manifest, if read, is kept undecoded after the version byte of the
+     * commit, which decodeManifest needs.
+     * @param uniqueID String
+     * @param in DataInputStream
+     * @param withManifest boolean
+     * @return Commit
+     */
+    private static Commit decode(String uniqueID, DataInputStream in,
+                                 boolean withManifest) throws IOException {
+        in.skipNBytes(MAGIC.length);
+        byte version = in.readByte();
+        byte[] header = new byte[in.readInt()];
+        in.readFully(header);
+        DataInputStream fields =
+                new DataInputStream(new ByteArrayInputStream(header));
+        int flags = fields.readUnsignedByte();
+        String parent = null, secondParent = null, tree = null;
+        if ((flags & HAS_PARENT) != 0) {
+            parent = readID(fields);
+        }
+        if ((flags & HAS_SECOND_PARENT) != 0) {
+            secondParent = readID(fields);
+        }
+        if ((flags & HAS_TREE) != 0) {
+            tree = readID(fields);
+        }
+        long epochSeconds = fields.readLong();
+        int zoneMinutes = fields.readInt();
+        String message = readString(fields, version);
+        byte[] manifest = null;
+        if (withManifest && tree == null) {
+            manifest = new byte[1 + in.readInt()];
+            manifest[0] = version;
+            in.readFully(manifest, 1, manifest.length - 1);
+        }
+        return new Commit(uniqueID, parent, secondParent,
+                (flags & MERGED) != 0, epochSeconds, zoneMinutes, message,
+                tree, manifest);
+    }
+
+    /**
+     * Returns the files tracked by an encoded MANIFEST section, as kept
+     * by decode after the version of its commit.
+     * @param manifest byte[]
+     * @return HashMap<String, String>
+     */
+    static HashMap<String, String> decodeManifest(byte[] manifest) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    manifest, 1, manifest.length - 1));
+            int count = in.readInt();
+            HashMap<String, String> blobs = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i += 1) {
+                String name = readString(in, manifest[0]);
+                blobs.put(name, readID(in));
+            }
+            return blobs;
+        } catch (IOException excp) {
+            throw Utils.error("Commit manifest is corrupt.");
+        }
+    }
+
+    /**
+     * Writes TEXT to OUT as its length and UTF-8 bytes.
+     * @param out DataOutputStream
+     * @param text String
+     */
+    private static void writeString(DataOutputStream out, String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string from IN, written by a commit of VERSION.
+     * @param in DataInputStream
+     * @param version byte
+     * @return String
+     */
+    private static String readString(DataInputStream in, byte version)
+            throws IOException {
+        if (version == UTF_VERSION) {
+            return in.readUTF();
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a binary object id from IN.
+     * @param in DataInputStream
+     * @return String
+     */
+    private static String readID(DataInputStream in) throws IOException {
+        byte[] id = new byte[Pack.ID_BYTES];
+        in.readFully(id);
+        return Pack.toHex(id);
+    }
+
+    /**
+     * Returns CONTENTS, the stored form of a commit, in the binary commit
+     * format, converting it if it was written by Java serialization.
+     * @param contents byte[]
+     * @return byte[]
+     */
+    static byte[] upgrade(byte[] contents) {
+        if (isEncoded(contents)) {
+            return contents;
+        }
+        return encode(Utils.readObject(new ByteArrayInputStream(contents),
+                Commit.class));
+    }
+
+    /**
+     * Returns true if CONTENTS is in the binary commit format.
+     * @param contents byte[]
+     * @return boolean
+     */
+    private static boolean isEncoded(byte[] contents) {
+        return contents.length > MAGIC.length && Arrays.equals(contents, 0,
+                MAGIC.length, MAGIC, 0, MAGIC.length)
+                && (contents[MAGIC.length] == VERSION
+                || contents[MAGIC.length] == UTF_VERSION);
+    }
+
+    /**
+     * Returns the timestamp at EPOCHSECONDS in the zone ZONEMINUTES east
+     * of UTC, as printed by LOG.
+     * @param epochSeconds long
+     * @param zoneMinutes int
+     * @return String
+     */
+    static String formatTimestamp(long epochSeconds, int zoneMinutes) {
+        if (epochSeconds >= GREGORIAN_SECONDS && Locale.getDefault(
+                Locale.Category.FORMAT).getLanguage().equals("en")) {
+            return formatEnglish(epochSeconds, zoneMinutes);
+        }
+        SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_PATTERN);
+        format.setTimeZone(new SimpleTimeZone(zoneMinutes * 60000, ""));
+        return format.format(new Date(epochSeconds * 1000));
+    }
+
+    /**
+     * Returns what formatTimestamp returns in English locales for a time
+     * on the Gregorian calendar, without SimpleDateFormat, whose locale
+     * data takes longer to load than the rest of LOG takes to run.
+     * @param epochSeconds long
+     * @param zoneMinutes int
+     * @return String
+     */
+    private static String formatEnglish(long epochSeconds, int zoneMinutes) {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(epochSeconds, 0,
+                ZoneOffset.ofTotalSeconds(zoneMinutes * 60));
+        int zone = Math.abs(zoneMinutes);
+        return String.format("%s %s %d %02d:%02d:%02d %04d %c%02d%02d",
+                DAYS[time.getDayOfWeek().ordinal()],
+                MONTHS[time.getMonthValue() - 1], time.getDayOfMonth(),
+                time.getHour(), time.getMinute(), time.getSecond(),
+                time.getYear(), zoneMinutes < 0 ? '-' : '+', zone / 60,
+                zone % 60);
+    }
+
+    /**
+     * Returns the epoch seconds of TIMESTAMP, as printed by LOG.
+     * @param timestamp String
+     * @return long
+     */
+    static long parseEpochSeconds(String timestamp) {
+        try {
+            SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_PATTERN);
+            return Math.floorDiv(format.parse(timestamp).getTime(), 1000);
+        } catch (ParseException excp) {
+            throw Utils.error("Malformed commit timestamp %s.", timestamp);
+        }
+    }
+
+    /**
+     * Returns the zone offset, in minutes east of UTC, of TIMESTAMP.
+     * @param timestamp String
+     * @return int
+     */
+    static int parseZoneMinutes(String timestamp) {
+        String zone = timestamp.substring(timestamp.lastIndexOf(' ') + 1);
+        int sign = zone.startsWith("-") ? -1 : 1;
+        int hhmm = Integer.parseInt(zone.substring(1));
+        return sign * (hhmm / 100 * 60 + hhmm % 100);
+    }
+
+    /** Runs the CONVERT-COMMITS command: rewrites every commit stored by
+     *  Java serialization in the binary format, keeping its id. Loose
+     *  commits are rewritten in place; packed ones by repacking. */
+    public static void convert() {
+        int converted = 0;
+        boolean packed = false;
+        for (String uniqueID: ObjectStore.allIDs(commitHistory())) {
+            byte[] contents = ObjectStore.read(commitHistory(), uniqueID);
+            if (isEncoded(contents)) {
+                continue;
+            }
+            if (ObjectStore.isLoose(commitHistory(), uniqueID)
+                    && !Pack.contains(uniqueID, Pack.COMMIT)) {
+                ObjectStore.replace(commitHistory(), uniqueID,
+                        ObjectStore.COMMIT, upgrade(contents));
+            } else {
+                packed = true;
+            }
+            converted += 1;
+        }
+        if (packed) {
+            Pack.pack();
+        }
+        out().println("Converted " + converted + " commits.");
+    }
+}
@@ -0,0 +1,705 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import static gitlet.Repository.commitHistory;
+import static gitlet.Repository.gitletFolder;
+
+/**
+ * The commit graph: a table of every commit with its parents, time and
+ * message, so that history can be walked and listed without reading
+ * commit objects. The file starts with the magic "GLCG" and a version
+ * int, followed by one fixed-width record per commit in the order the
+ * commits were added, parents before children. A record holds the
+ * binary commit id, the positions of its parent and second parent (or
+ * NONE), its epoch seconds, its generation, the zone offset of its
+ * timestamp and the offset of its message in the heap file, where each
+ * message is stored as a length int and UTF-8 bytes. The generation of
+ * a commit is one more than the largest generation of its parents, so
+ * a commit's ancestors all have smaller generations than it. Positions
+ * are found by id through the sorted table indexFile(), which also
+ * resolves abbreviated ids, and by time through timesFile().
+ * @author Iram Morshed
+ */
+public final class CommitGraph {
+
+    /**
+     * Returns the commit graph file.
+     * @return File
+     */
+    static File graphFile() {
+        return Utils.join(gitletFolder(), "commit-graph");
+    }
+
+    /**
+     * Returns the file of the messages of the commits in the graph.
+     * @return File
+     */
+    static File heapFile() {
+        return Utils.join(gitletFolder(), "commit-messages");
+    }
+
+    /**
+     * Returns the index from commit ids to their positions in the graph.
+     * @return File
+     */
+    static File indexFile() {
+        return Utils.join(gitletFolder(), "commit-index");
+    }
+
+    /**
+     * Returns the index from commit times to their positions in the graph.
+     * @return File
+     */
+    static File timesFile() {
+        return Utils.join(gitletFolder(), "commit-times");
+    }
+
+    /** Parent position of a commit without that parent. */
+    static final int NONE = -1;
+
+    /** First bytes of the graph file. */
+    private static final byte[] MAGIC = {'G', 'L', 'C', 'G'};
+
+    /** Version of the graph file format. */
+    private static final int VERSION = 2;
+
+    /** Bytes before the first record. */
+    private static final int HEADER = 8;
+
+    /** Offsets of the fields within a record. */
+    private static final int PARENT = Pack.ID_BYTES, SECOND_PARENT =
+            PARENT + 4, EPOCH = SECOND_PARENT + 4, GENERATION = EPOCH + 8,
+            ZONE = GENERATION + 4, MESSAGE = ZONE + 4;
+
+    /** Bytes in a record. */
+    private static final int RECORD = MESSAGE + 8;
+
+    /** Not instantiable. */
+    private CommitGraph() {
+    }
+
+    /**
+     * Returns the number of commits in the graph.
+     * @return int
+     */
+    public static int size() {
+        return (graph().limit() - HEADER) / RECORD;
+    }
+
+    /**
+     * Returns the position of commit UNIQUEID, or NONE if it is not in
+     * the graph.
+     * @param uniqueID String
+     * @return int
+     */
+    public static int position(String uniqueID) {
+        for (int pos: index().get(Pack.toBinary(uniqueID))) {
+            if (pos < size() && id(pos).equals(uniqueID)) {
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the ids of the commits in the graph that start with PREFIX,
+     * in order.
+     * @param prefix String
+     * @return List<String>
+     */
+    public static List<String> idsWithPrefix(String prefix) {
+        List<String> ids = new ArrayList<>();
+        if (!Pack.isHex(prefix) || prefix.length() > Utils.UID_LENGTH) {
+            return ids;
+        }
+        String whole = prefix.substring(0, prefix.length() & ~1);
+        for (SortedTable.Entry entry:
+                index().withPrefix(Pack.toBinary(whole))) {
+            String id = Pack.toHex(entry.key());
+            if (id.startsWith(prefix) && entry.value() < size()
+                    && id(entry.value()).equals(id) && !ids.contains(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the position of commit UNIQUEID, rebuilding the graph
+     * first if the commit is missing from it.
+     * @param uniqueID String
+     * @return int
+     */
+    public static int require(String uniqueID) {
+        int pos = graphFile().exists() ? position(uniqueID) : NONE;
+        if (pos == NONE) {
+            locked(() -> {
+                if (!graphFile().exists() || position(uniqueID) == NONE) {
+                    rewrite();
+                }
+            });
+            pos = position(uniqueID);
+            if (pos == NONE) {
+                throw Utils.error("No commit with id %s.", uniqueID);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the id of the commit at POS.
+     * @param pos int
+     * @return String
+     */
+    public static String id(int pos) {
+        byte[] id = new byte[Pack.ID_BYTES];
+        graph().get(offset(pos), id);
+        return Pack.toHex(id);
+    }
+
+    /**
+     * Returns the position of the parent of the commit at POS, or NONE.
+     * @param pos int
+     * @return int
+     */
+    public static int parent(int pos) {
+        return graph().getInt(offset(pos) + PARENT);
+    }
+
+    /**
+     * Returns the position of the second parent of the commit at POS, or
+     * NONE.
+     * @param pos int
+     * @return int
+     */
+    public static int secondParent(int pos) {
+        return graph().getInt(offset(pos) + SECOND_PARENT);
+    }
+
+    /**
+     * Returns the epoch seconds of the commit at POS.
+     * @param pos int
+     * @return long
+     */
+    public static long epochSeconds(int pos) {
+        return graph().getLong(offset(pos) + EPOCH);
+    }
+
+    /**
+     * Returns the generation of the commit at POS.
+     * @param pos int
+     * @return int
+     */
+    public static int generation(int pos) {
+        return graph().getInt(offset(pos) + GENERATION);
+    }
+
+    /**
+     * Returns the zone offset, in minutes east of UTC, of the timestamp
+     * of the commit at POS.
+     * @param pos int
+     * @return int
+     */
+    public static int zoneMinutes(int pos) {
+        return graph().getInt(offset(pos) + ZONE);
+    }
+
+    /**
+     * Returns the timestamp of the commit at POS, as printed by LOG.
+     * @param pos int
+     * @return String
+     */
+    public static String timestamp(int pos) {
+        return CommitCodec.formatTimestamp(epochSeconds(pos),
+                zoneMinutes(pos));
+    }
+
+    /**
+     * Returns the message of the commit at POS.
+     * @param pos int
+     * @return String
+     */
+    public static String message(int pos) {
+        long offset = graph().getLong(offset(pos) + MESSAGE);
+        MappedByteBuffer heap = heap();
+        if (offset + 4 > heap.limit()
+                || offset + 4 + heap.getInt((int) offset) > heap.limit()) {
+            heap = remapHeap();
+        }
+        byte[] message = new byte[heap.getInt((int) offset)];
+        heap.get((int) offset + 4, message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the positions of the commits made from SINCE to UNTIL
+     * seconds since the epoch, inclusive, in order of time.
+     * @param since long
+     * @param until long
+     * @return List<Integer>
+     */
+    public static List<Integer> madeBetween(long since, long until) {
+        List<Integer> positions = new ArrayList<>();
+        if (since > until) {
+            return positions;
+        }
+        byte[] from = timeKey(since);
+        byte[] to = until == Long.MAX_VALUE ? null : timeKey(until + 1);
+        for (SortedTable.Entry entry: times().range(from, to)) {
+            if (entry.value() < size()) {
+                positions.add(entry.value());
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Adds the newly stored COMMIT to the end of the graph. The graph is
+     * rebuilt instead if it is missing or does not hold the parents.
+     * Another process may be adding a commit too, so this is done while
+     * holding the lock of the graph, which reads the position and message
+     * offset of the commit again under it.
+     * @param commit Commit
+     */
+    public static void append(Commit commit) {
+        locked(() -> appendLocked(commit));
+    }
+
+    /**
+     * Runs WORK while holding the LockFile of the graph, which guards the
+     * graph, its heap and the indexes made from it, so that only one
+     * process writes them at a time. The running command takes the lock
+     * once however deeply such work nests, and reads the graph and its
+     * indexes again when it takes it, to see what other processes wrote.
+     * @param work Runnable
+     */
+    static void locked(Runnable work) {
+        State state = state();
+        if (state._locked) {
+            work.run();
+            return;
+        }
+        File lock;
+        try {
+            lock = LockFile.acquire(graphFile(), "the commit graph",
+                    LockFile.timeout());
+        } catch (IOException excp) {
+            throw Utils.error("Could not lock %s: %s", graphFile().getName(),
+                    excp.getMessage());
+        }
+        state._locked = true;
+        try {
+            state._graph = null;
+            state._heap = null;
+            state._index.reload();
+            state._times.reload();
+            MessageIndex.reload();
+            work.run();
+        } finally {
+            state._locked = false;
+            lock.delete();
+        }
+    }
+
+    /**
+     * Adds COMMIT to the graph, as APPEND does, while holding its lock.
+     * @param commit Commit
+     */
+    private static void appendLocked(Commit commit) {
+        if (!graphFile().exists()
+                || (graphFile().length() - HEADER) % RECORD != 0) {
+            rewrite();
+            return;
+        }
+        if (positionOf(commit.getUniqueID()) != NONE) {
+            return;
+        }
+        int parent = positionOf(commit.getParent());
+        int second = positionOf(commit.getSecondParent());
+        if (parent == NONE && commit.getParent() != null
+                || second == NONE && commit.getSecondParent() != null) {
+            rewrite();
+            return;
+        }
+        long message = heapFile().length();
+        ByteBuffer record = record(commit, parent, second,
+                1 + Math.max(generationOf(parent), generationOf(second)),
+                message);
+        int pos = size();
+        try (OutputStream heap = new FileOutputStream(heapFile(), true);
+             OutputStream out = new FileOutputStream(graphFile(), true)) {
+            heap.write(heapEntry(commit.getMessage()));
+            heap.flush();
+            out.write(record.array());
+        } catch (IOException excp) {
+            throw Utils.error("Could not write %s: %s", graphFile().getName(),
+                    excp.getMessage());
+        }
+        state()._graph = null;
+        index().add(Pack.toBinary(commit.getUniqueID()), pos);
+        times().add(timeKey(commit.getEpochSeconds()), pos);
+        MessageIndex.add(pos, commit.getMessage());
+    }
+
+    /** Runs the COMMIT-GRAPH command: rewrites the graph from every
+     *  stored commit. */
+    public static void rebuild() {
+        locked(CommitGraph::rewrite);
+    }
+
+    /** Rewrites the graph from every stored commit, holding its lock.
+     *  Processes that mapped the old graph may still read messages
+     *  through it, so the messages are appended to the heap, leaving the
+     *  old ones where they were, before the new graph is renamed into
+     *  place. Only a graph or heap that is missing starts a new heap. */
+    private static void rewrite() {
+        List<String> order = topologicalOrder();
+        HashMap<String, Integer> positions = new HashMap<>();
+        int[] generations = new int[order.size()];
+        File temp = Utils.join(gitletFolder(), "commit-graph.tmp");
+        File heapTemp = Utils.join(gitletFolder(), "commit-messages.tmp");
+        boolean fresh = !graphFile().exists() || !heapFile().exists();
+        long message = fresh ? 0 : heapFile().length();
+        try (OutputStream out = new FileOutputStream(temp);
+             OutputStream heap = fresh ? new FileOutputStream(heapTemp)
+                     : new FileOutputStream(heapFile(), true)) {
+            out.write(MAGIC);
+            out.write(ByteBuffer.allocate(4).putInt(VERSION).array());
+            for (String uniqueID: order) {
+                Commit commit = Commit.retrieveHeader(uniqueID);
+                int parent = positions.getOrDefault(commit.getParent(), NONE);
+                int second = positions.getOrDefault(commit.getSecondParent(),
+                        NONE);
+                int pos = positions.size();
+                generations[pos] = 1 + Math.max(
+                        parent == NONE ? 0 : generations[parent],
+                        second == NONE ? 0 : generations[second]);
+                out.write(record(commit, parent, second, generations[pos],
+                        message).array());
+                byte[] entry = heapEntry(commit.getMessage());
+                heap.write(entry);
+                message += entry.length;
+                positions.put(uniqueID, pos);
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            heapTemp.delete();
+            throw Utils.error("Could not write %s: %s", graphFile().getName(),
+                    excp.getMessage());
+        }
+        try {
+            if (fresh) {
+                Files.move(heapTemp.toPath(), heapFile().toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(temp.toPath(), graphFile().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            temp.delete();
+            heapTemp.delete();
+            throw Utils.error("Could not replace %s: %s",
+                    graphFile().getName(), excp.getMessage());
+        }
+        state()._graph = null;
+        state()._heap = null;
+        reindex();
+    }
+
+    /** Runs the REINDEX command: rewrites the indexes from commit ids
+     *  and times to graph positions and the message index, which all
+     *  refer to commits by graph position. */
+    public static void reindex() {
+        locked(() -> {
+            rewriteIndex();
+            rewriteTimes();
+            MessageIndex.rebuild();
+        });
+    }
+
+    /** Rewrites the index from commit times to graph positions. */
+    private static void rewriteTimes() {
+        List<SortedTable.Entry> entries = new ArrayList<>();
+        for (int pos = 0; pos < size(); pos += 1) {
+            entries.add(new SortedTable.Entry(timeKey(epochSeconds(pos)),
+                    pos));
+        }
+        state()._times.rewrite(entries);
+    }
+
+    /**
+     * Returns the index from commit times to positions, writing it first
+     * if it is missing.
+     * @return SortedTable
+     */
+    private static SortedTable times() {
+        if (!state()._times.exists()) {
+            locked(() -> {
+                if (!state()._times.exists()) {
+                    rewriteTimes();
+                }
+            });
+        }
+        return state()._times;
+    }
+
+    /**
+     * Returns the key of EPOCHSECONDS in the index of times, which sorts
+     * as unsigned bytes in order of time.
+     * @param epochSeconds long
+     * @return byte[]
+     */
+    private static byte[] timeKey(long epochSeconds) {
+        return ByteBuffer.allocate(8).putLong(epochSeconds ^ Long.MIN_VALUE)
+                .array();
+    }
+
+    /**
+     * Returns MESSAGE as it is stored in the heap.
+     * @param message String
+     * @return byte[]
+     */
+    private static byte[] heapEntry(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length)
+                .put(bytes).array();
+    }
+
+    /** Rewrites the index from commit ids to graph positions. */
+    private static void rewriteIndex() {
+        List<SortedTable.Entry> entries = new ArrayList<>();
+        byte[] id = new byte[Pack.ID_BYTES];
+        MappedByteBuffer graph = graph();
+        for (int pos = 0; pos < size(); pos += 1) {
+            graph.get(offset(pos), id);
+            entries.add(new SortedTable.Entry(id.clone(), pos));
+        }
+        state()._index.rewrite(entries);
+    }
+
+    /**
+     * Returns the index from commit ids to positions, writing it first
+     * if it is missing.
+     * @return SortedTable
+     */
+    private static SortedTable index() {
+        if (!state()._index.exists()) {
+            locked(() -> {
+                if (!state()._index.exists()) {
+                    rewriteIndex();
+                }
+            });
+        }
+        return state()._index;
+    }
+
+    /**
+     * Returns the ids of every stored commit, parents before children.
+     * @return List<String>
+     */
+    private static List<String> topologicalOrder() {
+        List<String> order = new ArrayList<>();
+        HashSet<String> done = new HashSet<>();
+        for (String start: ObjectStore.allIDs(commitHistory())) {
+            ArrayDeque<String> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String uniqueID = stack.peek();
+                if (done.contains(uniqueID)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = Commit.retrieveHeader(uniqueID);
+                boolean ready = true;
+                for (String parent: new String[] {commit.getParent(),
+                    commit.getSecondParent()}) {
+                    if (parent != null && !done.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    done.add(uniqueID);
+                    order.add(uniqueID);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Returns the record of COMMIT with parent positions PARENT and
+     * SECOND, GENERATION and its message at offset MESSAGE of the heap.
+     * @param commit Commit
+     * @param parent int
+     * @param second int
+     * @param generation int
+     * @param message long
+     * @return ByteBuffer
+     */
+    private static ByteBuffer record(Commit commit, int parent, int second,
+                                     int generation, long message) {
+        return ByteBuffer.allocate(RECORD)
+                .put(Pack.toBinary(commit.getUniqueID()))
+                .putInt(parent).putInt(second)
+                .putLong(commit.getEpochSeconds()).putInt(generation)
+                .putInt(commit.getZoneMinutes()).putLong(message);
+    }
+
+    /**
+     * Returns the position of commit UNIQUEID, or NONE if it is null or
+     * not in the graph.
+     * @param uniqueID String
+     * @return int
+     */
+    private static int positionOf(String uniqueID) {
+        return uniqueID == null ? NONE : position(uniqueID);
+    }
+
+    /**
+     * Returns the generation of the commit at POS, or 0 for NONE.
+     * @param pos int
+     * @return int
+     */
+    private static int generationOf(int pos) {
+        return pos == NONE ? 0 : generation(pos);
+    }
+
+    /**
+     * Returns the byte offset of the record at POS.
+     * @param pos int
+     * @return int
+     */
+    private static int offset(int pos) {
+        return HEADER + pos * RECORD;
+    }
+
+    /**
+     * Returns the mapped graph file, mapping it on first use.
+     * @return MappedByteBuffer
+     */
+    private static MappedByteBuffer graph() {
+        State state = state();
+        if (state._graph == null) {
+            if (!graphFile().exists()) {
+                locked(() -> {
+                    if (!graphFile().exists()) {
+                        rewrite();
+                    }
+                });
+            }
+            try (FileChannel channel = FileChannel.open(graphFile().toPath(),
+                    StandardOpenOption.READ)) {
+                long size = channel.size();
+                state._graph = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        size - Math.max(0, size - HEADER) % RECORD);
+            } catch (IOException excp) {
+                throw Utils.error("Could not map %s: %s",
+                        graphFile().getName(), excp.getMessage());
+            }
+            byte[] magic = new byte[MAGIC.length];
+            state._graph.get(0, magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                state._graph = null;
+                throw Utils.error("%s is corrupt; run commit-graph.",
+                        graphFile().getName());
+            } else if (state._graph.getInt(MAGIC.length) != VERSION) {
+                state._graph = null;
+                locked(() -> {
+                    if (!isCurrent()) {
+                        rewrite();
+                    }
+                });
+                return graph();
+            }
+        }
+        return state._graph;
+    }
+
+    /**
+     * Returns true if the graph file exists in the current format.
+     * @return boolean
+     */
+    private static boolean isCurrent() {
+        try (InputStream in = new FileInputStream(graphFile())) {
+            byte[] header = in.readNBytes(HEADER);
+            return header.length == HEADER
+                    && Arrays.equals(Arrays.copyOf(header, MAGIC.length),
+                    MAGIC)
+                    && ByteBuffer.wrap(header).getInt(MAGIC.length) == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the mapped heap of messages, mapping it on first use.
+     * @return MappedByteBuffer
+     */
+    private static MappedByteBuffer heap() {
+        return state()._heap == null ? remapHeap() : state()._heap;
+    }
+
+    /**
+     * Maps the heap of messages again, to see messages added since it
+     * was last mapped.
+     * @return MappedByteBuffer
+     */
+    private static MappedByteBuffer remapHeap() {
+        try (FileChannel channel = FileChannel.open(heapFile().toPath(),
+                StandardOpenOption.READ)) {
+            state()._heap = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw Utils.error("Could not map %s: %s", heapFile().getName(),
+                    excp.getMessage());
+        }
+        return state()._heap;
+    }
+
+    /**
+     * Returns the state of the graph in the current repository.
+     * @return State
+     */
+    private static State state() {
+        return Repository.current().commandState(State.class, State::new);
+    }
+
+    /** The commit graph of a repository, as mapped by this command. */
+    private static final class State {
+
+        /** The index from commit ids to graph positions. */
+        private final SortedTable _index = new SortedTable(indexFile());
+
+        /** The index from commit times to graph positions. */
+        private final SortedTable _times = new SortedTable(timesFile());
+
+        /** The mapped graph file, or null before first use. */
+        private MappedByteBuffer _graph;
+
+        /** The mapped heap of messages, or null before first use. */
+        private MappedByteBuffer _heap;
+
+        /** True while the running command holds the lock of the graph. */
+        private boolean _locked;
+    }
+}
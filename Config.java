@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static gitlet.Repository.gitletFolder;
+
+/**
+ * Repository settings, read from the optional properties file
+ * .gitlet/config. Every setting has a default, so the file only needs
+ * the keys that differ from it.
+ * @author Iram Morshed
+ */
+public final class Config {
+
+    /**
+     * Returns the configuration file of the repository.
+     * @return File
+     */
+    static File configFile() {
+        return Utils.join(gitletFolder(), "config");
+    }
+
+    /** Not instantiable. */
+    private Config() {
+    }
+
+    /**
+     * Returns the setting KEY as a long, or DEFAULTVALUE if it is unset.
+     * @param key String
+     * @param defaultValue long
+     * @return long
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = settings().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Setting %s in %s must be a number.",
+                    key, configFile().getName());
+        }
+    }
+
+    /**
+     * Returns the setting KEY as an int, or DEFAULTVALUE if it is unset.
+     * @param key String
+     * @param defaultValue int
+     * @return int
+     */
+    public static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    /**
+     * Returns the setting KEY as a boolean, or DEFAULTVALUE if it is
+     * unset.
+     * @param key String
+     * @param defaultValue boolean
+     * @return boolean
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = settings().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.trim()) {
+        case "true":
+            return true;
+        case "false":
+            return false;
+        default:
+            throw Utils.error("Setting %s in %s must be true or false.",
+                    key, configFile().getName());
+        }
+    }
+
+    /**
+     * Returns the settings of the current repository, reading its
+     * configuration file once per command.
+     * @return Properties
+     */
+    private static Properties settings() {
+        return Repository.current().commandState(Properties.class,
+                Config::read);
+    }
+
+    /**
+     * Returns the settings in the configuration file, if it exists.
+     * @return Properties
+     */
+    private static Properties read() {
+        Properties settings = new Properties();
+        File file = configFile();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                settings.load(in);
+            } catch (IOException excp) {
+                throw Utils.error("Could not read %s: %s",
+                        file.getName(), excp.getMessage());
+            }
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,526 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * The gitlet daemon: a process that runs commands sent by Client over a
+ * Unix domain socket, so that they do not each pay for starting a JVM,
+ * loading classes and warming up. Its repositories stay open between
+ * commands and keep their caches: decoded commits and trees, the HEAD
+ * and the index with its stat cache, which are read again only after
+ * another process changes them. Each connection runs one command in the
+ * working directory of the client, on a thread of its own; commands on
+ * one repository hold its lock, so they run one at a time. The client
+ * receives the command's output and exit code as the CLI would have
+ * printed and returned them. The daemon closes repositories unused for
+ * its idle timeout and exits once no command has arrived for that long.
+ *
+ * A request is a DataOutputStream of the protocol VERSION, the working
+ * directory of the client, the charset it prints in, the number of
+ * arguments and the arguments, all strings written by writeUTF, followed
+ * by the input of the command up to the end of the stream: the standard
+ * input of the client for BATCH, and nothing for other commands. The
+ * reply is a sequence of frames, each a kind byte followed by a length
+ * and that many bytes for OUT and ERR, or by the exit code for EXIT,
+ * which ends the reply.
+ *
+ * Only the user running the daemon may talk to it. Its socket is in a
+ * folder of that user that no one else may read or write, which the
+ * daemon creates if needed and checks before listening, and the client
+ * checks before connecting; where the system reports the user at the
+ * other end of a connection, each side also checks that it is the same
+ * user. A client that cannot trust the socket runs the command itself.
+ * @author Iram Morshed
+ */
+final class Daemon {
+
+    /** Version of the protocol. */
+    static final int VERSION = 1;
+
+    /** Frame of output to print on the standard output. */
+    static final byte OUT = 1;
+
+    /** Frame of output to print on the standard error. */
+    static final byte ERR = 2;
+
+    /** Last frame of a reply, holding the exit code. */
+    static final byte EXIT = 3;
+
+    /** Default seconds without commands after which the daemon exits. */
+    static final long DEFAULT_IDLE_SECONDS = 600;
+
+    /** Environment variable naming the socket, if not the default. */
+    static final String SOCKET_VARIABLE = "GITLET_SOCKET";
+
+    /** Environment variable naming the folder of the runtime files of
+     *  the user, which holds the socket by default. */
+    static final String RUNTIME_VARIABLE = "XDG_RUNTIME_DIR";
+
+    /** Permissions of the folder of the socket. */
+    private static final Set<PosixFilePermission> FOLDER_PERMISSIONS =
+            PosixFilePermissions.fromString("rwx------");
+
+    /**
+     * A daemon listening on SERVER that exits after IDLEMILLIS without
+     * commands.
+     * @param server ServerSocketChannel
+     * @param idleMillis long
+     */
+    private Daemon(ServerSocketChannel server, long idleMillis) {
+        _server = server;
+        _idleMillis = idleMillis;
+        _lastCommand = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the socket of the daemon: the file named by SOCKET_VARIABLE,
+     * or else daemon.sock in the gitlet folder of the directory named by
+     * RUNTIME_VARIABLE, or of ~/.cache if it is not set.
+     * @return File
+     */
+    static File socketFile() {
+        String path = System.getenv(SOCKET_VARIABLE);
+        if (path != null && !path.isEmpty()) {
+            return new File(path);
+        }
+        String runtime = System.getenv(RUNTIME_VARIABLE);
+        File parent = runtime != null && !runtime.isEmpty()
+                ? new File(runtime)
+                : new File(System.getProperty("user.home"), ".cache");
+        return new File(new File(parent, "gitlet"), "daemon.sock");
+    }
+
+    /**
+     * Returns true if the socket is the default one, whose folder the
+     * daemon creates and both sides check, rather than one named by
+     * SOCKET_VARIABLE, whose folder is left to the user who named it.
+     * @return boolean
+     */
+    private static boolean isDefault() {
+        String path = System.getenv(SOCKET_VARIABLE);
+        return path == null || path.isEmpty();
+    }
+
+    /**
+     * Connects to the daemon listening on SOCKET and returns the
+     * connection, or returns null if there is none or if it cannot be
+     * trusted: if SOCKET or, for the default socket, its folder belongs
+     * to another user or may be used by others, or if another user is
+     * listening.
+     * @param socket File
+     * @return SocketChannel
+     */
+    static SocketChannel connect(File socket) {
+        try {
+            if (!isOwned(socket) || (isDefault()
+                    && !isPrivate(socket.getParentFile()))) {
+                return null;
+            }
+            SocketChannel channel =
+                    SocketChannel.open(UnixDomainSocketAddress.of(
+                            socket.toPath()));
+            if (!isPeerUser(channel)) {
+                channel.close();
+                return null;
+            }
+            return channel;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates FOLDER, the folder of the default socket, with permissions
+     * for the user alone if it does not exist, and returns true if it is
+     * then private to the user.
+     * @param folder File
+     * @return boolean
+     */
+    private static boolean makePrivate(File folder) throws IOException {
+        if (!folder.exists()) {
+            Files.createDirectories(folder.getParentFile().toPath());
+            try {
+                Files.createDirectory(folder.toPath(),
+                        PosixFilePermissions.asFileAttribute(
+                                FOLDER_PERMISSIONS));
+            } catch (UnsupportedOperationException excp) {
+                Files.createDirectory(folder.toPath());
+            } catch (FileAlreadyExistsException excp) {
+                /* Created meanwhile by another daemon; checked below. */
+            }
+        }
+        return isPrivate(folder);
+    }
+
+    /**
+     * Returns true if FOLDER is a directory of the user that, where the
+     * file system has POSIX permissions, no one else may use.
+     * @param folder File
+     * @return boolean
+     */
+    private static boolean isPrivate(File folder) throws IOException {
+        if (!Files.isDirectory(folder.toPath(), LinkOption.NOFOLLOW_LINKS)
+                || !isOwned(folder)) {
+            return false;
+        }
+        try {
+            return FOLDER_PERMISSIONS.containsAll(
+                    Files.getPosixFilePermissions(folder.toPath(),
+                            LinkOption.NOFOLLOW_LINKS));
+        } catch (UnsupportedOperationException excp) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if FILE exists and belongs to the user.
+     * @param file File
+     * @return boolean
+     */
+    private static boolean isOwned(File file) throws IOException {
+        return Files.exists(file.toPath(), LinkOption.NOFOLLOW_LINKS)
+                && Files.getOwner(file.toPath(), LinkOption.NOFOLLOW_LINKS)
+                        .equals(user());
+    }
+
+    /**
+     * Returns true if the process at the other end of CHANNEL runs as the
+     * user, or if the system does not tell.
+     * @param channel SocketChannel
+     * @return boolean
+     */
+    private static boolean isPeerUser(SocketChannel channel)
+            throws IOException {
+        if (!channel.supportedOptions()
+                .contains(ExtendedSocketOptions.SO_PEERCRED)) {
+            return true;
+        }
+        return channel.getOption(ExtendedSocketOptions.SO_PEERCRED).user()
+                .equals(user());
+    }
+
+    /**
+     * Returns the user running this process.
+     * @return UserPrincipal
+     */
+    private static UserPrincipal user() throws IOException {
+        return FileSystems.getDefault().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    /**
+     * Runs the DAEMON command, whose ARGS may give the idle timeout in
+     * seconds: serves commands until it has been idle that long. Returns
+     * the exit status, which is 1 if it could not start, like that of a
+     * command reporting an error.
+     * @param args String[]
+     * @return int
+     */
+    static int serve(String... args) throws IOException {
+        long idleSeconds = DEFAULT_IDLE_SECONDS;
+        if (args.length > 2) {
+            System.out.println("Incorrect operands.");
+            return 1;
+        } else if (args.length == 2) {
+            try {
+                idleSeconds = Long.parseLong(args[1]);
+            } catch (NumberFormatException excp) {
+                System.out.println("Idle timeout must be a number of "
+                        + "seconds.");
+                return 1;
+            }
+        }
+        File socket = socketFile();
+        if (isDefault() && !makePrivate(socket.getParentFile())) {
+            System.out.printf("Cannot listen in %s: it must be a "
+                    + "folder that only you may use.%n",
+                    socket.getParent());
+            return 1;
+        }
+        if (isRunning(socket)) {
+            System.out.println("A gitlet daemon is already running.");
+            return 1;
+        }
+        Files.deleteIfExists(socket.toPath());
+        ServerSocketChannel server =
+                ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+        try {
+            Files.setPosixFilePermissions(socket.toPath(),
+                    PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException excp) {
+            /* Not a POSIX file system; the folder protects it. */
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(socket::delete));
+        new Daemon(server, TimeUnit.SECONDS.toMillis(idleSeconds)).run();
+        socket.delete();
+        return 0;
+    }
+
+    /**
+     * Returns true if a daemon of the user accepts connections on SOCKET.
+     * @param socket File
+     * @return boolean
+     */
+    private static boolean isRunning(File socket) throws IOException {
+        SocketChannel channel = connect(socket);
+        if (channel == null) {
+            return false;
+        }
+        channel.close();
+        return true;
+    }
+
+    /** Accepts connections until the daemon has been idle for its
+     *  timeout, running each on a thread of its own. */
+    private void run() throws IOException {
+        ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "gitlet-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService sweeper =
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "gitlet-idle");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        long period = Math.max(1, _idleMillis / 4);
+        sweeper.scheduleAtFixedRate(this::sweep, period, period,
+                TimeUnit.MILLISECONDS);
+        try {
+            while (true) {
+                SocketChannel client = _server.accept();
+                _running.incrementAndGet();
+                workers.execute(() -> serve(client));
+            }
+        } catch (ClosedChannelException excp) {
+            /* Closed by sweep once idle. */
+        } finally {
+            sweeper.shutdownNow();
+            workers.shutdown();
+        }
+    }
+
+    /** Closes the repositories unused for the idle timeout, and stops
+     *  accepting connections if no command ran in that time. */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Repository, Long> used: _lastUse.entrySet()) {
+            if (now - used.getValue() >= _idleMillis
+                    && _lastUse.remove(used.getKey(), used.getValue())) {
+                used.getKey().close();
+            }
+        }
+        if (_running.get() == 0 && now - _lastCommand >= _idleMillis) {
+            try {
+                _server.close();
+            } catch (IOException excp) {
+                /* Exiting anyway. */
+            }
+        }
+    }
+
+    /**
+     * Reads one request from CLIENT, runs it and sends the reply.
+     * @param client SocketChannel
+     */
+    private void serve(SocketChannel client) {
+        try (client) {
+            if (!isPeerUser(client)) {
+                return;
+            }
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new SocketInput(client)));
+            DataOutputStream reply = new DataOutputStream(
+                    new BufferedOutputStream(new SocketOutput(client)));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            File cwd = new File(in.readUTF());
+            Charset charset = Charset.forName(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = in.readUTF();
+            }
+            PrintStream out = new PrintStream(new BufferedOutputStream(
+                    new FrameStream(reply, OUT)), false, charset);
+            PrintStream err = new PrintStream(new BufferedOutputStream(
+                    new FrameStream(reply, ERR)), false, charset);
+            int code = 0;
+            try {
+                Repository repo = Repository.open(cwd);
+                code = repo.run(in, out, args);
+                _lastUse.put(repo, System.currentTimeMillis());
+            } catch (IOException | RuntimeException | Error excp) {
+                out.flush();
+                err.print("Exception in thread \"main\" ");
+                excp.printStackTrace(err);
+                code = 1;
+            }
+            out.flush();
+            err.flush();
+            reply.writeByte(EXIT);
+            reply.writeInt(code);
+            reply.flush();
+        } catch (IOException excp) {
+            /* The client went away; nothing to report to. */
+        } finally {
+            _lastCommand = System.currentTimeMillis();
+            _running.decrementAndGet();
+        }
+    }
+
+    /** An InputStream reading from a socket. Unlike the streams of
+     *  Channels, it does not hold the lock of the socket while it waits,
+     *  so that another thread can write to the socket meanwhile. */
+    static final class SocketInput extends InputStream {
+
+        /**
+         * Reads from CHANNEL.
+         * @param channel SocketChannel
+         */
+        SocketInput(SocketChannel channel) {
+            _channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return _channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        /** The socket read from. */
+        private final SocketChannel _channel;
+    }
+
+    /** An OutputStream writing to a socket, without holding its lock like
+     *  the streams of Channels. */
+    static final class SocketOutput extends OutputStream {
+
+        /**
+         * Writes to CHANNEL.
+         * @param channel SocketChannel
+         */
+        SocketOutput(SocketChannel channel) {
+            _channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                _channel.write(buffer);
+            }
+        }
+
+        /** The socket written to. */
+        private final SocketChannel _channel;
+    }
+
+    /** An OutputStream sending what is written to it as frames of one
+     *  kind. */
+    private static final class FrameStream extends OutputStream {
+
+        /**
+         * Sends frames of KIND to REPLY.
+         * @param reply DataOutputStream
+         * @param kind byte
+         */
+        FrameStream(DataOutputStream reply, byte kind) {
+            _reply = reply;
+            _kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (_reply) {
+                _reply.writeByte(_kind);
+                _reply.writeInt(len);
+                _reply.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (_reply) {
+                _reply.flush();
+            }
+        }
+
+        /** Where the frames are sent. */
+        private final DataOutputStream _reply;
+
+        /** Kind of the frames. */
+        private final byte _kind;
+    }
+
+    /** The socket connections are accepted on. */
+    private final ServerSocketChannel _server;
+
+    /** Milliseconds without commands after which the daemon exits. */
+    private final long _idleMillis;
+
+    /** Time at which the last command ended. */
+    private volatile long _lastCommand;
+
+    /** Number of connections being served. */
+    private final AtomicInteger _running = new AtomicInteger();
+
+    /** Time at which each open repository last ran a command. */
+    private final ConcurrentHashMap<Repository, Long> _lastUse =
+            new ConcurrentHashMap<>();
+}
@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Delta encoding of one byte sequence against another. A delta holds the
+ * sizes of its base and target followed by instructions that rebuild the
+ * target: a copy (tag 0x80, offset and length into the base) or an insert
+ * (tag 1-127, followed by that many literal bytes). Numbers are written as
+ * little-endian base-128 varints.
+ * @author Iram Morshed
+ */
+public final class Delta {
+
+    /** Length of the blocks of the base that are indexed for matching. */
+    static final int BLOCK = 16;
+
+    /** Tag byte of a copy instruction. */
+    private static final int COPY = 0x80;
+
+    /** Longest run of literal bytes in one insert instruction. */
+    private static final int MAX_INSERT = 0x7f;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** PRIME to the power BLOCK - 1, used to roll the hash forward. */
+    private static final int TOP;
+
+    static {
+        int top = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            top *= PRIME;
+        }
+        TOP = top;
+    }
+
+    /** Not instantiable. */
+    private Delta() {
+    }
+
+    /**
+     * Returns a delta that rebuilds TARGET from BASE.
+     * @param base byte[]
+     * @param target byte[]
+     * @return byte[]
+     */
+    public static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int[] table = index(base);
+        int mask = table.length - 1;
+        int literal = 0, i = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table.length == 0 ? -1 : table[hash & mask] - 1;
+            if (candidate >= 0 && Arrays.equals(base, candidate,
+                    candidate + BLOCK, target, i, i + BLOCK)) {
+                int from = candidate, to = i, length = BLOCK;
+                while (to + length < target.length
+                        && from + length < base.length
+                        && target[to + length] == base[from + length]) {
+                    length += 1;
+                }
+                while (to > literal && from > 0
+                        && target[to - 1] == base[from - 1]) {
+                    to -= 1;
+                    from -= 1;
+                    length += 1;
+                }
+                writeInsert(out, target, literal, to);
+                out.write(COPY);
+                writeVarint(out, from);
+                writeVarint(out, length);
+                i = to + length;
+                literal = i;
+                if (i + BLOCK <= target.length) {
+                    hash = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    hash = (hash - target[i] * TOP) * PRIME
+                            + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        writeInsert(out, target, literal, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the target rebuilt by applying DELTA to BASE.
+     * @param base byte[]
+     * @param delta byte[]
+     * @return byte[]
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("Delta does not apply to this base.");
+        }
+        byte[] target = new byte[(int) readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int tag = delta[pos[0]] & 0xff;
+            pos[0] += 1;
+            if (tag == COPY) {
+                int from = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, from, target, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], target, written, tag);
+                pos[0] += tag;
+                written += tag;
+            }
+        }
+        if (written != target.length) {
+            throw Utils.error("Delta is corrupt.");
+        }
+        return target;
+    }
+
+    /**
+     * Returns a hash table of the aligned blocks of BASE. Slot h holds
+     * one more than the offset of the first block hashing to h, or 0.
+     * @param base byte[]
+     * @return int[]
+     */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        if (blocks == 0) {
+            return new int[0];
+        }
+        int size = Integer.highestOneBit(blocks) << 2;
+        int[] table = new int[size];
+        for (int offset = 0; offset + BLOCK <= base.length;
+             offset += BLOCK) {
+            int slot = hash(base, offset) & (size - 1);
+            if (table[slot] == 0) {
+                table[slot] = offset + 1;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns the rolling hash of the BLOCK bytes of DATA at OFFSET.
+     * @param data byte[]
+     * @param offset int
+     * @return int
+     */
+    private static int hash(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            hash = hash * PRIME + data[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Writes insert instructions for DATA[FROM..TO) to OUT.
+     * @param out ByteArrayOutputStream
+     * @param data byte[]
+     * @param from int
+     * @param to int
+     */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data,
+                                    int from, int to) {
+        while (from < to) {
+            int length = Math.min(MAX_INSERT, to - from);
+            out.write(length);
+            out.write(data, from, length);
+            from += length;
+        }
+    }
+
+    /**
+     * Writes VALUE to OUT as a varint.
+     * @param out ByteArrayOutputStream
+     * @param value long
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a varint from DATA at POS[0], advancing POS[0] past it.
+     * @param data byte[]
+     * @param pos int[]
+     * @return long
+     */
+    static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
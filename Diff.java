@@ -0,0 +1,341 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Commit.findCompleteID;
+import static gitlet.Commit.retrieveCommit;
+import static gitlet.Commit.retrieveHead;
+import static gitlet.Repository.blobObjects;
+import static gitlet.Repository.cwd;
+import static gitlet.Repository.out;
+
+/**
+ * The DIFF command, which prints the changes between the working
+ * directory, the staging area and commits as a unified diff. Files are
+ * first compared by blob id, using the stat cache for files in CWD, so
+ * only the files that differ are read; their lines are then matched by
+ * LineDiff and the changed regions printed with CONTEXT lines around
+ * them as they are found.
+ * @author Iram Morshed
+ */
+final class Diff {
+
+    /** Lines of context around each change. */
+    static final int CONTEXT = 3;
+
+    /** Id printed for a missing side of a file. */
+    private static final String NO_ID = "0000000";
+
+    /** Bytes searched for a NUL to tell binary files. */
+    private static final int BINARY_CHECK = 8000;
+
+    /** Not instantiable. */
+    private Diff() {
+    }
+
+    /**
+     * Runs the DIFF command with ARGS: no options for the working
+     * directory against the head commit, --cached for the staging area
+     * against the head commit, one commit id for the working directory
+     * against that commit, and two commit ids for the first commit
+     * against the second.
+     * @param args String[]
+     */
+    static void diff(String[] args) {
+        Commit head = retrieveCommit(retrieveHead());
+        try {
+            if (args.length == 1) {
+                worktree(head.getBlobs(), head.getBlobs());
+            } else if (args.length == 2 && args[1].equals("--cached")) {
+                manifests(new ManifestDiff(head.getBlobs(),
+                        staged(head.getBlobs())));
+            } else if (args.length == 2) {
+                worktree(commitOf(args[1]).getBlobs(), head.getBlobs());
+            } else if (args.length == 3) {
+                manifests(new ManifestDiff(commitOf(args[1]),
+                        commitOf(args[2])));
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        } finally {
+            output().flush();
+        }
+    }
+
+    /**
+     * Returns the commit ID, which may be abbreviated, failing if it does
+     * not exist.
+     * @param id String
+     * @return Commit
+     */
+    private static Commit commitOf(String id) {
+        String completeID = findCompleteID(id);
+        if (completeID == null) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        return retrieveCommit(completeID);
+    }
+
+    /**
+     * Returns the manifest that committing the staging area on top of a
+     * commit with manifest BLOBS would make.
+     * @param blobs Map<String, String>
+     * @return Map<String, String>
+     */
+    private static Map<String, String> staged(Map<String, String> blobs) {
+        Map<String, String> staged = new TreeMap<>(blobs);
+        for (String file: Stage.stagedForAdd()) {
+            staged.put(file, Stage.entry(file).uniqueID());
+        }
+        for (String file: Stage.stagedForRemove()) {
+            staged.remove(file);
+        }
+        return staged;
+    }
+
+    /**
+     * Prints the changes found by DIFF between two manifests.
+     * @param diff ManifestDiff
+     */
+    private static void manifests(ManifestDiff diff) {
+        TreeSet<String> files = new TreeSet<>(diff.added());
+        files.addAll(diff.removed());
+        files.addAll(diff.modified());
+        for (String file: files) {
+            printFile(file, diff.fromID(file), diff.toID(file), null);
+        }
+    }
+
+    /**
+     * Prints the changes from the commit with manifest BLOBS to the
+     * working directory, for the files tracked by that commit or by the
+     * head commit with manifest TRACKED, or staged for addition.
+     * @param blobs Map<String, String>
+     * @param tracked Map<String, String>
+     */
+    private static void worktree(Map<String, String> blobs,
+                                 Map<String, String> tracked) {
+        TreeSet<String> files = new TreeSet<>(blobs.keySet());
+        files.addAll(tracked.keySet());
+        files.addAll(Stage.stagedForAdd());
+        List<String> present = new ArrayList<>();
+        for (String file: files) {
+            if (Utils.join(cwd(), file).isFile()) {
+                present.add(file);
+            }
+        }
+        Map<String, String> cwdIDs = Stage.worktreeIDs(present);
+        for (String file: files) {
+            String cwdID = cwdIDs.get(file);
+            if (cwdID == null && blobs.get(file) == null) {
+                continue;
+            }
+            if (cwdID == null || !cwdID.equals(blobs.get(file))) {
+                printFile(file, blobs.get(file), cwdID,
+                        cwdID == null ? null : Utils.join(cwd(), file));
+            }
+        }
+    }
+
+    /**
+     * Prints the changes to FILE from the blob OLDID to the blob NEWID,
+     * read from SOURCE if it is not null. A null id is a missing file.
+     * @param file String
+     * @param oldID String
+     * @param newID String
+     * @param source File
+     */
+    private static void printFile(String file, String oldID, String newID,
+                                  File source) {
+        output().println("diff --git a/" + file + " b/" + file);
+        if (oldID == null) {
+            output().println("new file mode " + mode(source));
+        } else if (newID == null) {
+            output().println("deleted file mode 100644");
+        }
+        output().println("index " + abbreviate(oldID) + ".."
+                + abbreviate(newID));
+        byte[] before = oldID == null ? new byte[0]
+                : ObjectStore.read(blobObjects(), oldID);
+        byte[] after = newID == null ? new byte[0]
+                : source != null ? readFile(source)
+                : ObjectStore.read(blobObjects(), newID);
+        if (isBinary(before) || isBinary(after)) {
+            output().println("Binary files " + (oldID == null ? "/dev/null"
+                    : "a/" + file) + " and " + (newID == null ? "/dev/null"
+                    : "b/" + file) + " differ");
+            return;
+        }
+        output().println("--- " + (oldID == null ? "/dev/null" : "a/" + file));
+        output().println("+++ " + (newID == null ? "/dev/null" : "b/" + file));
+        printHunks(output(),
+                LineDiff.lines(new String(before, StandardCharsets.UTF_8)),
+                LineDiff.lines(new String(after, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Prints to OUT the hunks of a unified diff from the lines A to the
+     * lines B, merging changes less than 2 * CONTEXT lines apart into one
+     * hunk.
+     * @param out PrintWriter
+     * @param a List<String>
+     * @param b List<String>
+     */
+    static void printHunks(PrintWriter out, List<String> a, List<String> b) {
+        Map<String, Integer> numbers = new HashMap<>();
+        int[] aNumbers = LineDiff.number(a, numbers),
+                bNumbers = LineDiff.number(b, numbers);
+        List<int[]> changes = LineDiff.changes(
+                LineDiff.matches(aNumbers, bNumbers), b.size());
+        int first = 0;
+        while (first < changes.size()) {
+            int last = first;
+            while (last + 1 < changes.size() && changes.get(last + 1)[0]
+                    - changes.get(last)[1] <= 2 * CONTEXT) {
+                last += 1;
+            }
+            printHunk(out, a, b, changes.subList(first, last + 1));
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Prints to OUT the hunk of CHANGES from the lines A to the lines B.
+     * @param out PrintWriter
+     * @param a List<String>
+     * @param b List<String>
+     * @param changes List<int[]>
+     */
+    private static void printHunk(PrintWriter out, List<String> a,
+                                  List<String> b, List<int[]> changes) {
+        int[] start = changes.get(0), end = changes.get(changes.size() - 1);
+        int aLo = Math.max(0, start[0] - CONTEXT),
+                aHi = Math.min(a.size(), end[1] + CONTEXT);
+        int bLo = start[2] - (start[0] - aLo),
+                bHi = end[3] + (aHi - end[1]);
+        out.println("@@ -" + range(aLo, aHi - aLo) + " +"
+                + range(bLo, bHi - bLo) + " @@");
+        int i = aLo;
+        for (int[] change: changes) {
+            printLines(out, ' ', a, i, change[0]);
+            printLines(out, '-', a, change[0], change[1]);
+            printLines(out, '+', b, change[2], change[3]);
+            i = change[1];
+        }
+        printLines(out, ' ', a, i, aHi);
+    }
+
+    /**
+     * Prints to OUT the LINES from LO to HI, each after PREFIX.
+     * @param out PrintWriter
+     * @param prefix char
+     * @param lines List<String>
+     * @param lo int
+     * @param hi int
+     */
+    private static void printLines(PrintWriter out, char prefix,
+                                   List<String> lines, int lo, int hi) {
+        for (int i = lo; i < hi; i += 1) {
+            String line = lines.get(i);
+            out.print(prefix);
+            if (line.endsWith("\n")) {
+                out.print(line);
+            } else {
+                out.println(line);
+                out.println("\\ No newline at end of file");
+            }
+        }
+    }
+
+    /**
+     * Returns the range of LENGTH lines from line START, counted from
+     * 0, as written in a hunk header.
+     * @param start int
+     * @param length int
+     * @return String
+     */
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /**
+     * Returns the start of UNIQUEID, or NO_ID if it is null.
+     * @param uniqueID String
+     * @return String
+     */
+    private static String abbreviate(String uniqueID) {
+        return uniqueID == null ? NO_ID : uniqueID.substring(0, 7);
+    }
+
+    /**
+     * Returns the mode of the file SOURCE in CWD, or of a plain file if
+     * it is null.
+     * @param source File
+     * @return String
+     */
+    private static String mode(File source) {
+        int mode = source == null ? Stage.MODE_FILE : Stage.modeOf(source);
+        return Integer.toOctalString(mode);
+    }
+
+    /**
+     * Returns true if CONTENTS has a NUL in its first BINARY_CHECK bytes.
+     * @param contents byte[]
+     * @return boolean
+     */
+    private static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, BINARY_CHECK); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the contents of FILE.
+     * @param file File
+     * @return byte[]
+     */
+    private static byte[] readFile(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException excp) {
+            throw Utils.error("Could not read %s: %s", file.getName(),
+                    excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns where the running command prints its diff.
+     * @return PrintWriter
+     */
+    private static PrintWriter output() {
+        return Repository.current().commandState(Output.class,
+                Output::new)._writer;
+    }
+
+    /** Where a command prints its diff. */
+    private static final class Output {
+
+        /** The UTF-8 writer buffering the output of the command. */
+        private final PrintWriter _writer = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(out(),
+                        StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line matching between two texts, by Myers' O(ND) difference algorithm
+ * in its linear-space form: each step finds the middle snake of an
+ * optimal edit path by searching forward from the start and backward
+ * from the end at once, then solves the two halves on either side of it.
+ * Lines are compared as ints, each distinct line getting its own number,
+ * so that comparing two lines takes constant time.
+ * @author Iram Morshed
+ */
+final class LineDiff {
+
+    /** Not instantiable. */
+    private LineDiff() {
+    }
+
+    /**
+     * Returns the lines of TEXT, each with its line terminator, if any.
+     * @param text String
+     * @return List<String>
+     */
+    static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /**
+     * Returns LINES as ints, numbering each distinct line the first time
+     * it is seen in NUMBERS, which is shared by the texts compared.
+     * @param lines List<String>
+     * @param numbers Map<String, Integer>
+     * @return int[]
+     */
+    static int[] number(List<String> lines, Map<String, Integer> numbers) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer n = numbers.putIfAbsent(lines.get(i), numbers.size());
+            result[i] = n == null ? numbers.size() - 1 : n;
+        }
+        return result;
+    }
+
+    /**
+     * Returns, for each line of A, the line of B it is matched with in a
+     * shortest edit script from A to B, or -1 if it is deleted. Matched
+     * lines are in increasing order in both texts.
+     * @param a int[]
+     * @param b int[]
+     * @return int[]
+     */
+    static int[] matches(int[] a, int[] b) {
+        int[] match = new int[a.length];
+        Arrays.fill(match, -1);
+        compare(a, 0, a.length, b, 0, b.length, match);
+        return match;
+    }
+
+    /**
+     * Returns the changed regions of an edit script from a text to one
+     * of BLENGTH lines, given as the MATCH of its lines by matches(), in
+     * order. Each region is {aStart, aEnd, bStart, bEnd}: the lines
+     * aStart to aEnd of the first text are replaced by the lines bStart
+     * to bEnd of the second.
+     * @param match int[]
+     * @param bLength int
+     * @return List<int[]>
+     */
+    static List<int[]> changes(int[] match, int bLength) {
+        List<int[]> changes = new ArrayList<>();
+        int i = 0, j = 0;
+        while (true) {
+            while (i < match.length && j < bLength && match[i] == j) {
+                i += 1;
+                j += 1;
+            }
+            if (i == match.length && j == bLength) {
+                return changes;
+            }
+            int aStart = i, bStart = j;
+            while (i < match.length && match[i] < 0) {
+                i += 1;
+            }
+            j = i < match.length ? match[i] : bLength;
+            changes.add(new int[] {aStart, i, bStart, j});
+        }
+    }
+
+    /**
+     * Matches the lines of A from ALO to AHI with those of B from BLO to
+     * BHI, recording them in MATCH.
+     * @param a int[]
+     * @param aLo int
+     * @param aHi int
+     * @param b int[]
+     * @param bLo int
+     * @param bHi int
+     * @param match int[]
+     */
+    private static void compare(int[] a, int aLo, int aHi,
+                                int[] b, int bLo, int bHi, int[] match) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            match[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            match[aHi - 1] = bHi - 1;
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        long split = middle(a, aLo, aHi, b, bLo, bHi);
+        if (split < 0) {
+            return;
+        }
+        int x = (int) (split >>> 32), y = (int) split;
+        compare(a, aLo, aLo + x, b, bLo, bLo + y, match);
+        compare(a, aLo + x, aHi, b, bLo + y, bHi, match);
+    }
+
+    /**
+     * Returns the point at which the forward and backward searches for a
+     * shortest edit script from A[ALO..AHI) to B[BLO..BHI) first overlap,
+     * as the offsets into A and B packed into the high and low halves of
+     * a long, or -1 if the texts have no line in common.
+     * @param a int[]
+     * @param aLo int
+     * @param aHi int
+     * @param b int[]
+     * @param bLo int
+     * @param bHi int
+     * @return long
+     */
+    private static long middle(int[] a, int aLo, int aHi,
+                               int[] b, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int maxD = (n + m + 1) / 2, offset = maxD, length = 2 * maxD + 2;
+        int[] forward = new int[length], backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int k1Start = 0, k1End = 0, k2Start = 0, k2End = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1 = k1 == -d || (k1 != d
+                        && forward[k1Offset - 1] < forward[k1Offset + 1])
+                        ? forward[k1Offset + 1] : forward[k1Offset - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (odd) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length
+                            && backward[k2Offset] != -1
+                            && x1 >= n - backward[k2Offset]) {
+                        return ((long) x1 << 32) | y1;
+                    }
+                }
+            }
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2 = k2 == -d || (k2 != d
+                        && backward[k2Offset - 1] < backward[k2Offset + 1])
+                        ? backward[k2Offset + 1]
+                        : backward[k2Offset - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m
+                        && a[aHi - 1 - x2] == b[bHi - 1 - y2]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!odd) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length
+                            && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return ((long) x1 << 32) | y1;
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,154 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A three-way merge of the lines of two texts that were both changed
+ * from a common base, as done by diff3. Each text is matched with the
+ * base by LineDiff. Base lines matched in both texts are stable and kept;
+ * between them, a region changed in only one text takes that text's
+ * lines, a region changed the same way in both takes either, and a region
+ * changed differently in both is a conflict, written between markers
+ * with the lines of both texts.
+ * @author Iram Morshed
+ */
+final class LineMerge {
+
+    /** Marker before the lines of the current branch in a conflict. */
+    static final String HEAD_MARKER = "<<<<<<< HEAD";
+
+    /** Marker between the lines of the two branches in a conflict. */
+    static final String DIVIDE_MARKER = "=======";
+
+    /** Marker after the lines of the given branch in a conflict. */
+    static final String END_MARKER = ">>>>>>>";
+
+    /**
+     * The merge of OURS and THEIRS, both changed from BASE.
+     * @param base String
+     * @param ours String
+     * @param theirs String
+     */
+    LineMerge(String base, String ours, String theirs) {
+        Map<String, Integer> numbers = new HashMap<>();
+        List<String> baseLines = LineDiff.lines(base);
+        _ours = LineDiff.lines(ours);
+        _theirs = LineDiff.lines(theirs);
+        int[] o = LineDiff.number(baseLines, numbers),
+                a = LineDiff.number(_ours, numbers),
+                b = LineDiff.number(_theirs, numbers);
+        int[] matchA = LineDiff.matches(o, a), matchB = LineDiff.matches(o, b);
+        int i = 0, j = 0, k = 0;
+        while (i < o.length || j < a.length || k < b.length) {
+            if (i < o.length && matchA[i] == j && matchB[i] == k) {
+                add(baseLines, i, i + 1);
+                i += 1;
+                j += 1;
+                k += 1;
+                continue;
+            }
+            int next = i;
+            while (next < o.length
+                    && (matchA[next] < 0 || matchB[next] < 0)) {
+                next += 1;
+            }
+            int aEnd = next < o.length ? matchA[next] : a.length,
+                    bEnd = next < o.length ? matchB[next] : b.length;
+            resolve(o, i, next, a, j, aEnd, b, k, bEnd);
+            i = next;
+            j = aEnd;
+            k = bEnd;
+        }
+    }
+
+    /**
+     * Returns the merged text.
+     * @return String
+     */
+    String text() {
+        return _text.toString();
+    }
+
+    /**
+     * Returns the number of conflicting regions.
+     * @return int
+     */
+    int conflicts() {
+        return _conflicts;
+    }
+
+    /**
+     * Adds the merge of the region O[OLO..OHI) of the base, A[ALO..AHI)
+     * of our text and B[BLO..BHI) of theirs.
+     * @param o int[]
+     * @param oLo int
+     * @param oHi int
+     * @param a int[]
+     * @param aLo int
+     * @param aHi int
+     * @param b int[]
+     * @param bLo int
+     * @param bHi int
+     */
+    private void resolve(int[] o, int oLo, int oHi, int[] a, int aLo,
+                         int aHi, int[] b, int bLo, int bHi) {
+        if (same(o, oLo, oHi, a, aLo, aHi)) {
+            add(_theirs, bLo, bHi);
+        } else if (same(o, oLo, oHi, b, bLo, bHi)
+                || same(a, aLo, aHi, b, bLo, bHi)) {
+            add(_ours, aLo, aHi);
+        } else {
+            _conflicts += 1;
+            _text.append(HEAD_MARKER).append(System.lineSeparator());
+            add(_ours, aLo, aHi);
+            _text.append(DIVIDE_MARKER).append(System.lineSeparator());
+            add(_theirs, bLo, bHi);
+            _text.append(END_MARKER);
+            if (oHi < o.length) {
+                _text.append(System.lineSeparator());
+            }
+        }
+    }
+
+    /**
+     * Appends LINES[LO..HI) to the merged text.
+     * @param lines List<String>
+     * @param lo int
+     * @param hi int
+     */
+    private void add(List<String> lines, int lo, int hi) {
+        for (int i = lo; i < hi; i += 1) {
+            _text.append(lines.get(i));
+        }
+    }
+
+    /**
+     * Returns true if X[XLO..XHI) and Y[YLO..YHI) are the same lines.
+     * @param x int[]
+     * @param xLo int
+     * @param xHi int
+     * @param y int[]
+     * @param yLo int
+     * @param yHi int
+     * @return boolean
+     */
+    private static boolean same(int[] x, int xLo, int xHi,
+                                int[] y, int yLo, int yHi) {
+        return Arrays.equals(x, xLo, xHi, y, yLo, yHi);
+    }
+
+    /** Lines of our text. */
+    private final List<String> _ours;
+
+    /** Lines of their text. */
+    private final List<String> _theirs;
+
+    /** The merged text. */
+    private final StringBuilder _text = new StringBuilder();
+
+    /** Number of conflicting regions. */
+    private int _conflicts;
+}
@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+
+import static gitlet.Repository.gitletFolder;
+
+/**
+ * Lock files, which keep other gitlet processes from changing a file in
+ * the .gitlet folder while one process does. The lock of a file is
+ * named like it with SUFFIX and is created only if it does not exist, so
+ * one process at a time holds it; the holder deletes it when done, or
+ * writes the new contents of the file into it and renames it over the
+ * file. A process finding a lock held waits up to the refs.lockTimeout
+ * setting for it, then fails.
+ * @author Iram Morshed
+ */
+final class LockFile {
+
+    /** Suffix of the lock file of a file. */
+    static final String SUFFIX = ".lock";
+
+    /** Default milliseconds to wait for a file locked by another
+     *  process. */
+    static final long DEFAULT_TIMEOUT = 1000;
+
+    /** Longest pause between attempts to lock a file, in milliseconds. */
+    private static final long MAX_PAUSE = 64;
+
+    /** Not instantiable. */
+    private LockFile() {
+    }
+
+    /**
+     * Returns the lock file of FILE.
+     * @param file File
+     * @return File
+     */
+    static File of(File file) {
+        return new File(file.getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns the milliseconds to wait for a lock held by another
+     * process, as set by refs.lockTimeout.
+     * @return long
+     */
+    static long timeout() {
+        return Config.getLong("refs.lockTimeout", DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates the lock file of FILE and returns it, trying again for
+     * TIMEOUT milliseconds while another process holds it. WHAT names
+     * FILE in the message of the error if it stays locked.
+     * @param file File
+     * @param what String
+     * @param timeout long
+     * @return File
+     */
+    static File acquire(File file, String what, long timeout)
+            throws IOException {
+        File lock = of(file);
+        long deadline = System.currentTimeMillis() + timeout;
+        long pause = 1;
+        while (true) {
+            try {
+                Files.createFile(lock.toPath());
+                return lock;
+            } catch (FileAlreadyExistsException excp) {
+                if (System.currentTimeMillis() >= deadline) {
+                    throw Utils.error("Could not lock %s: %s exists. "
+                            + "If no other gitlet command is running, "
+                            + "delete it.", what, name(lock));
+                }
+            }
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw Utils.error("Interrupted while locking %s.", what);
+            }
+            pause = Math.min(2 * pause, MAX_PAUSE);
+        }
+    }
+
+    /**
+     * Returns the path of FILE in the .gitlet folder, for messages.
+     * @param file File
+     * @return String
+     */
+    static String name(File file) {
+        return gitletFolder().toPath().relativize(file.toPath()).toString();
+    }
+}
@@ -0,0 +1,307 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The difference between two manifests, the maps from file names to blob
+ * ids of two commits. Files are compared by blob id only, in a single
+ * pass over both manifests in order of name, so the files of the two
+ * commits never have to be read. Commits with trees are compared tree by
+ * tree instead, skipping every subtree with the same id in both, so only
+ * the directories on the paths of changed files are read; the files of
+ * skipped subtrees are only listed if unchanged() is called.
+ * @author Iram Morshed
+ */
+final class ManifestDiff {
+
+    /**
+     * The difference from the manifest FROM to the manifest TO.
+     * @param from Map<String, String>
+     * @param to Map<String, String>
+     */
+    ManifestDiff(Map<String, String> from, Map<String, String> to) {
+        compare(from, to);
+    }
+
+    /**
+     * The difference from the files of commit FROM to those of TO.
+     * @param from Commit
+     * @param to Commit
+     */
+    ManifestDiff(Commit from, Commit to) {
+        if (from.getTree() == null || to.getTree() == null) {
+            compare(from.getBlobs(), to.getBlobs());
+        } else {
+            compare(from.getTree(), to.getTree(), "");
+            Collections.sort(_added);
+            Collections.sort(_removed);
+            Collections.sort(_modified);
+        }
+    }
+
+    /**
+     * Compares the manifest FROM to the manifest TO.
+     * @param from Map<String, String>
+     * @param to Map<String, String>
+     */
+    private void compare(Map<String, String> from, Map<String, String> to) {
+        Iterator<Map.Entry<String, String>> olds =
+                sorted(from).entrySet().iterator(),
+                news = sorted(to).entrySet().iterator();
+        Map.Entry<String, String> old = next(olds), cur = next(news);
+        while (old != null || cur != null) {
+            int cmp = old == null ? 1 : cur == null ? -1
+                    : old.getKey().compareTo(cur.getKey());
+            if (cmp < 0) {
+                removed(old.getKey(), old.getValue());
+                old = next(olds);
+            } else if (cmp > 0) {
+                added(cur.getKey(), cur.getValue());
+                cur = next(news);
+            } else {
+                if (old.getValue().equals(cur.getValue())) {
+                    unchanged(cur.getKey(), cur.getValue());
+                } else {
+                    modified(cur.getKey(), old.getValue(), cur.getValue());
+                }
+                old = next(olds);
+                cur = next(news);
+            }
+        }
+    }
+
+    /**
+     * Compares the tree FROM to the tree TO, whose entries are under the
+     * path PREFIX.
+     * @param from String
+     * @param to String
+     * @param prefix String
+     */
+    private void compare(String from, String to, String prefix) {
+        Iterator<Map.Entry<String, Tree.Entry>> olds =
+                Tree.read(from).entries().entrySet().iterator(),
+                news = Tree.read(to).entries().entrySet().iterator();
+        Map.Entry<String, Tree.Entry> old = next(olds), cur = next(news);
+        while (old != null || cur != null) {
+            int cmp = old == null ? 1 : cur == null ? -1
+                    : old.getKey().compareTo(cur.getKey());
+            if (cmp < 0) {
+                removedAll(prefix + old.getKey(), old.getValue());
+                old = next(olds);
+            } else if (cmp > 0) {
+                addedAll(prefix + cur.getKey(), cur.getValue());
+                cur = next(news);
+            } else {
+                String path = prefix + cur.getKey();
+                Tree.Entry a = old.getValue(), b = cur.getValue();
+                if (a.equals(b) && b.isDirectory()) {
+                    _unchangedTrees.put(path + "/", b.uniqueID());
+                } else if (a.equals(b)) {
+                    unchanged(path, b.uniqueID());
+                } else if (a.isDirectory() && b.isDirectory()) {
+                    compare(a.uniqueID(), b.uniqueID(), path + "/");
+                } else if (!a.isDirectory() && !b.isDirectory()) {
+                    modified(path, a.uniqueID(), b.uniqueID());
+                } else {
+                    removedAll(path, a);
+                    addedAll(path, b);
+                }
+                old = next(olds);
+                cur = next(news);
+            }
+        }
+    }
+
+    /**
+     * Records the files of ENTRY, at PATH, as only in the first manifest.
+     * @param path String
+     * @param entry Tree.Entry
+     */
+    private void removedAll(String path, Tree.Entry entry) {
+        if (!entry.isDirectory()) {
+            removed(path, entry.uniqueID());
+            return;
+        }
+        Map<String, String> files = new TreeMap<>();
+        Tree.flatten(entry.uniqueID(), path + "/", files);
+        for (Map.Entry<String, String> file: files.entrySet()) {
+            removed(file.getKey(), file.getValue());
+        }
+    }
+
+    /**
+     * Records the files of ENTRY, at PATH, as only in the second manifest.
+     * @param path String
+     * @param entry Tree.Entry
+     */
+    private void addedAll(String path, Tree.Entry entry) {
+        if (!entry.isDirectory()) {
+            added(path, entry.uniqueID());
+            return;
+        }
+        Map<String, String> files = new TreeMap<>();
+        Tree.flatten(entry.uniqueID(), path + "/", files);
+        for (Map.Entry<String, String> file: files.entrySet()) {
+            added(file.getKey(), file.getValue());
+        }
+    }
+
+    /**
+     * Records FILE as only in the second manifest, with blob UNIQUEID.
+     * @param file String
+     * @param uniqueID String
+     */
+    private void added(String file, String uniqueID) {
+        _added.add(file);
+        _toIDs.put(file, uniqueID);
+    }
+
+    /**
+     * Records FILE as only in the first manifest, with blob UNIQUEID.
+     * @param file String
+     * @param uniqueID String
+     */
+    private void removed(String file, String uniqueID) {
+        _removed.add(file);
+        _fromIDs.put(file, uniqueID);
+    }
+
+    /**
+     * Records FILE as changed from the blob FROMID to the blob TOID.
+     * @param file String
+     * @param fromID String
+     * @param toID String
+     */
+    private void modified(String file, String fromID, String toID) {
+        _modified.add(file);
+        _fromIDs.put(file, fromID);
+        _toIDs.put(file, toID);
+    }
+
+    /**
+     * Records FILE as the blob UNIQUEID in both manifests.
+     * @param file String
+     * @param uniqueID String
+     */
+    private void unchanged(String file, String uniqueID) {
+        _unchanged.add(file);
+        _fromIDs.put(file, uniqueID);
+        _toIDs.put(file, uniqueID);
+    }
+
+    /**
+     * Returns the files only in the second manifest, in order.
+     * @return List<String>
+     */
+    List<String> added() {
+        return _added;
+    }
+
+    /**
+     * Returns the files only in the first manifest, in order.
+     * @return List<String>
+     */
+    List<String> removed() {
+        return _removed;
+    }
+
+    /**
+     * Returns the files in both manifests with different blobs, in order.
+     * @return List<String>
+     */
+    List<String> modified() {
+        return _modified;
+    }
+
+    /**
+     * Returns the files in both manifests with the same blob, in order.
+     * @return List<String>
+     */
+    List<String> unchanged() {
+        if (!_unchangedTrees.isEmpty()) {
+            for (Map.Entry<String, String> tree: _unchangedTrees.entrySet()) {
+                Map<String, String> files = new TreeMap<>();
+                Tree.flatten(tree.getValue(), tree.getKey(), files);
+                for (Map.Entry<String, String> file: files.entrySet()) {
+                    unchanged(file.getKey(), file.getValue());
+                }
+            }
+            _unchangedTrees.clear();
+            Collections.sort(_unchanged);
+        }
+        return _unchanged;
+    }
+
+    /**
+     * Returns the blob of FILE in the first manifest, or null if it is
+     * not there. Only known for the files listed by this difference.
+     * @param file String
+     * @return String
+     */
+    String fromID(String file) {
+        return _fromIDs.get(file);
+    }
+
+    /**
+     * Returns the blob of FILE in the second manifest, or null if it is
+     * not there. Only known for the files listed by this difference.
+     * @param file String
+     * @return String
+     */
+    String toID(String file) {
+        return _toIDs.get(file);
+    }
+
+    /**
+     * Returns MANIFEST sorted by file name.
+     * @param manifest Map<String, String>
+     * @return SortedMap<String, String>
+     */
+    private static SortedMap<String, String> sorted(
+            Map<String, String> manifest) {
+        if (manifest instanceof SortedMap) {
+            return (SortedMap<String, String>) manifest;
+        }
+        return new TreeMap<>(manifest);
+    }
+
+    /**
+     * Returns the next entry of ENTRIES, or null at the end.
+     * @param entries Iterator<Map.Entry<String, T>>
+     * @param <T> type of the values
+     * @return Map.Entry<String, T>
+     */
+    private static <T> Map.Entry<String, T> next(
+            Iterator<Map.Entry<String, T>> entries) {
+        return entries.hasNext() ? entries.next() : null;
+    }
+
+    /** Files only in the second manifest. */
+    private final List<String> _added = new ArrayList<>();
+
+    /** Files only in the first manifest. */
+    private final List<String> _removed = new ArrayList<>();
+
+    /** Files in both manifests with different blobs. */
+    private final List<String> _modified = new ArrayList<>();
+
+    /** Files in both manifests with the same blob. */
+    private final List<String> _unchanged = new ArrayList<>();
+
+    /** Subtrees with the same id in both commits whose files are not yet
+     *  in _unchanged, by path prefix. */
+    private final Map<String, String> _unchangedTrees = new TreeMap<>();
+
+    /** Blobs in the first manifest of the files listed. */
+    private final Map<String, String> _fromIDs = new HashMap<>();
+
+    /** Blobs in the second manifest of the files listed. */
+    private final Map<String, String> _toIDs = new HashMap<>();
+}
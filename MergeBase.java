@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Finds the merge bases of two commits: their common ancestors that are
+ * not ancestors of another common ancestor. Commits are painted from
+ * both tips down through both parents, highest generation first, so a
+ * commit is only visited once every descendant of it that was reached
+ * has been. The walk stops as soon as every commit still queued is
+ * below a common ancestor already found. Criss-cross histories can have
+ * several merge bases.
+ * @author Iram Morshed
+ */
+public final class MergeBase {
+
+    /** Parents and generations of commits identified by position. */
+    interface History {
+        /**
+         * Returns the position of the parent of POS, or CommitGraph.NONE.
+         * @param pos int
+         * @return int
+         */
+        int parent(int pos);
+
+        /**
+         * Returns the position of the second parent of POS, or
+         * CommitGraph.NONE.
+         * @param pos int
+         * @return int
+         */
+        int secondParent(int pos);
+
+        /**
+         * Returns the generation of POS, which exceeds the generations
+         * of all its ancestors.
+         * @param pos int
+         * @return int
+         */
+        int generation(int pos);
+    }
+
+    /** The history of the repository, read from the commit graph. */
+    static final History GRAPH = new History() {
+        @Override
+        public int parent(int pos) {
+            return CommitGraph.parent(pos);
+        }
+
+        @Override
+        public int secondParent(int pos) {
+            return CommitGraph.secondParent(pos);
+        }
+
+        @Override
+        public int generation(int pos) {
+            return CommitGraph.generation(pos);
+        }
+    };
+
+    /** Paint of commits reached from the first commit. */
+    private static final int ONE = 1;
+
+    /** Paint of commits reached from the second commit. */
+    private static final int TWO = 2;
+
+    /** Paint of commits below a common ancestor already found. */
+    private static final int STALE = 4;
+
+    /** Not instantiable. */
+    private MergeBase() {
+    }
+
+    /**
+     * Returns the id of the merge base of commits FIRST and SECOND, or
+     * null if they have no common ancestor. Of several merge bases, the
+     * one of highest generation, and then the one committed last, is
+     * returned.
+     * @param first String
+     * @param second String
+     * @return String
+     */
+    public static String find(String first, String second) {
+        List<Integer> bases = bases(GRAPH, CommitGraph.require(first),
+                CommitGraph.require(second));
+        if (bases.isEmpty()) {
+            return null;
+        }
+        int best = bases.get(0);
+        for (int base: bases) {
+            if (CommitGraph.generation(base) > CommitGraph.generation(best)
+                    || CommitGraph.generation(base)
+                    == CommitGraph.generation(best)
+                    && CommitGraph.epochSeconds(base)
+                    > CommitGraph.epochSeconds(best)) {
+                best = base;
+            }
+        }
+        return CommitGraph.id(best);
+    }
+
+    /**
+     * Returns the positions of the merge bases of FIRST and SECOND in
+     * HISTORY, highest generation first.
+     * @param history History
+     * @param first int
+     * @param second int
+     * @return List<Integer>
+     */
+    static List<Integer> bases(History history, int first, int second) {
+        List<Integer> result = new ArrayList<>();
+        if (first == second) {
+            result.add(first);
+            return result;
+        }
+        Painter painter = new Painter(history);
+        painter.paint(first, ONE);
+        painter.paint(second, TWO);
+        while (painter.hasUnstale()) {
+            int pos = painter.poll();
+            int paint = painter.paintOf(pos);
+            if ((paint & (ONE | TWO)) == (ONE | TWO)
+                    && (paint & STALE) == 0) {
+                result.add(pos);
+                paint |= STALE;
+            }
+            painter.paint(history.parent(pos), paint);
+            painter.paint(history.secondParent(pos), paint);
+        }
+        if (result.size() > 1) {
+            result = reduce(history, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns BASES without those that are ancestors of another.
+     * @param history History
+     * @param bases List<Integer>
+     * @return List<Integer>
+     */
+    private static List<Integer> reduce(History history,
+                                        List<Integer> bases) {
+        List<Integer> result = new ArrayList<>();
+        for (int base: bases) {
+            boolean redundant = false;
+            for (int other: bases) {
+                if (other != base && isAncestor(history, base, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(base);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if ANCESTOR is a proper ancestor of DESCENDANT.
+     * Commits with generations below ANCESTOR's are not visited.
+     * @param history History
+     * @param ancestor int
+     * @param descendant int
+     * @return boolean
+     */
+    static boolean isAncestor(History history, int ancestor,
+                              int descendant) {
+        int floor = history.generation(ancestor);
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(descendant);
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            for (int parent: new int[] {history.parent(pos),
+                history.secondParent(pos)}) {
+                if (parent == ancestor) {
+                    return true;
+                }
+                if (parent != CommitGraph.NONE
+                        && history.generation(parent) > floor
+                        && seen.add(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** The paint of the commits visited by BASES and the queue of those
+     *  still to visit. */
+    private static class Painter {
+
+        /**
+         * A painter over HISTORY.
+         * @param history History
+         */
+        Painter(History history) {
+            _queue = new TreeSet<>(Comparator.<Integer>comparingInt(
+                    history::generation).thenComparingInt(pos -> pos)
+                    .reversed());
+        }
+
+        /**
+         * Adds PAINT to the commit at POS, queueing it if that changes
+         * its paint. Does nothing if POS is NONE.
+         * @param pos int
+         * @param paint int
+         */
+        void paint(int pos, int paint) {
+            if (pos == CommitGraph.NONE) {
+                return;
+            }
+            int old = paintOf(pos);
+            if ((old | paint) == old) {
+                return;
+            }
+            _paint.put(pos, old | paint);
+            boolean queued = !_queue.add(pos);
+            if (queued && (old & STALE) == 0 && (paint & STALE) != 0) {
+                _unstale -= 1;
+            } else if (!queued && (paint & STALE) == 0
+                    && (old & STALE) == 0) {
+                _unstale += 1;
+            }
+        }
+
+        /**
+         * Returns the paint of the commit at POS.
+         * @param pos int
+         * @return int
+         */
+        int paintOf(int pos) {
+            return _paint.getOrDefault(pos, 0);
+        }
+
+        /**
+         * Removes and returns the queued commit of highest generation.
+         * @return int
+         */
+        int poll() {
+            int pos = _queue.pollFirst();
+            if ((paintOf(pos) & STALE) == 0) {
+                _unstale -= 1;
+            }
+            return pos;
+        }
+
+        /**
+         * Returns true if a queued commit is not stale.
+         * @return boolean
+         */
+        boolean hasUnstale() {
+            return _unstale > 0;
+        }
+
+        /** The paint of each visited commit. */
+        private final HashMap<Integer, Integer> _paint = new HashMap<>();
+
+        /** Commits to visit, highest generation first. */
+        private final TreeSet<Integer> _queue;
+
+        /** Number of queued commits that are not stale. */
+        private int _unstale;
+    }
+}
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+import static gitlet.Repository.gitletFolder;
+
+/**
+ * The index of commit messages used by FIND, a SortedTable from keys to
+ * commit graph positions. Each commit has one key of the form
+ * "M" + message, so that the commits whose message starts with a prefix
+ * are found by a range search, and one key "W" + word for each word of
+ * its message, lower-cased, so that commits are also found by word.
+ * Messages longer than MAX_KEY bytes are indexed by their first MAX_KEY
+ * bytes, and matches of longer prefixes are checked against the messages
+ * in the commit graph.
+ * @author Iram Morshed
+ */
+public final class MessageIndex {
+
+    /**
+     * Returns the message index file.
+     * @return File
+     */
+    static File indexFile() {
+        return Utils.join(gitletFolder(), "message-index");
+    }
+
+    /** Longest message prefix that is indexed, in bytes. */
+    private static final int MAX_KEY = 512;
+
+    /** Not instantiable. */
+    private MessageIndex() {
+    }
+
+    /**
+     * Adds MESSAGE, the message of the commit at graph position POS.
+     * @param pos int
+     * @param message String
+     */
+    static void add(int pos, String message) {
+        SortedTable table = table();
+        for (byte[] key: keys(message)) {
+            table.add(key, pos);
+        }
+    }
+
+    /** Reads the index again when next used, to see commits another
+     *  process has since added. */
+    static void reload() {
+        state()._table.reload();
+    }
+
+    /** Rewrites the index from the commits in the commit graph, which
+     *  must be done holding the lock of the graph. */
+    static void rebuild() {
+        List<SortedTable.Entry> entries = new ArrayList<>();
+        for (int pos = 0; pos < CommitGraph.size(); pos += 1) {
+            for (byte[] key: keys(CommitGraph.message(pos))) {
+                entries.add(new SortedTable.Entry(key, pos));
+            }
+        }
+        state()._table.rewrite(entries);
+    }
+
+    /**
+     * Returns the ids of the commits whose message starts with PREFIX,
+     * in order.
+     * @param prefix String
+     * @return List<String>
+     */
+    public static List<String> withPrefix(String prefix) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        boolean truncated = bytes.length > MAX_KEY;
+        TreeSet<String> ids = new TreeSet<>();
+        for (SortedTable.Entry entry: table().withPrefix(
+                key('M', Arrays.copyOf(bytes, Math.min(bytes.length,
+                        MAX_KEY))))) {
+            if (!truncated
+                    || CommitGraph.message(entry.value()).startsWith(prefix)) {
+                ids.add(CommitGraph.id(entry.value()));
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Returns the ids of the commits whose message contains every word
+     * of WORDS, ignoring case, in order.
+     * @param words String
+     * @return List<String>
+     */
+    public static List<String> withWords(String words) {
+        TreeSet<Integer> found = null;
+        for (String word: words(words)) {
+            TreeSet<Integer> positions = new TreeSet<>(
+                    table().get(key('W', word.getBytes(
+                            StandardCharsets.UTF_8))));
+            if (found == null) {
+                found = positions;
+            } else {
+                found.retainAll(positions);
+            }
+        }
+        TreeSet<String> ids = new TreeSet<>();
+        if (found != null) {
+            for (int pos: found) {
+                ids.add(CommitGraph.id(pos));
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Returns the keys under which MESSAGE is indexed.
+     * @param message String
+     * @return List<byte[]>
+     */
+    private static List<byte[]> keys(String message) {
+        List<byte[]> keys = new ArrayList<>();
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        keys.add(key('M', Arrays.copyOf(bytes, Math.min(bytes.length,
+                MAX_KEY))));
+        for (String word: words(message)) {
+            byte[] wordBytes = word.getBytes(StandardCharsets.UTF_8);
+            if (wordBytes.length <= MAX_KEY) {
+                keys.add(key('W', wordBytes));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the distinct lower-case words of TEXT: its runs of letters
+     * and digits.
+     * @param text String
+     * @return LinkedHashSet<String>
+     */
+    private static LinkedHashSet<String> words(String text) {
+        LinkedHashSet<String> words = new LinkedHashSet<>();
+        for (String word: text.toLowerCase(Locale.ROOT)
+                .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Returns the key made of KIND followed by BYTES.
+     * @param kind char
+     * @param bytes byte[]
+     * @return byte[]
+     */
+    private static byte[] key(char kind, byte[] bytes) {
+        byte[] key = new byte[bytes.length + 1];
+        key[0] = (byte) kind;
+        System.arraycopy(bytes, 0, key, 1, bytes.length);
+        return key;
+    }
+
+    /**
+     * Returns the index, writing it first, under the lock of the commit
+     * graph it is made from, if it is missing.
+     * @return SortedTable
+     */
+    private static SortedTable table() {
+        if (!state()._table.exists()) {
+            CommitGraph.locked(() -> {
+                if (!state()._table.exists()) {
+                    rebuild();
+                }
+            });
+        }
+        return state()._table;
+    }
+
+    /**
+     * Returns the state of the index in the current repository.
+     * @return State
+     */
+    private static State state() {
+        return Repository.current().commandState(State.class, State::new);
+    }
+
+    /** The message index of a repository. */
+    private static final class State {
+
+        /** The index of commit messages. */
+        private final SortedTable _table = new SortedTable(indexFile());
+    }
+}
@@ -0,0 +1,722 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Repository.blobObjects;
+import static gitlet.Repository.commitHistory;
+import static gitlet.Repository.gitletFolder;
+
+/**
+ * Locates objects inside the fan-out object directories. An object with
+ * id ab12... lives in DIR/ab/12..., so a lookup only ever touches the
+ * shard named after the first two hex digits of its id.
+ * Objects are stored zlib-compressed as a header "TYPE SIZE\0" followed
+ * by the contents. Objects written before compression was introduced
+ * hold raw contents and are still read transparently. Objects moved
+ * into a pack by the PACK command are found through {@link Pack}.
+ * @author Iram Morshed
+ */
+public final class ObjectStore {
+
+    /** Number of hex digits used to name a shard directory. */
+    static final int FANOUT_LENGTH = 2;
+
+    /**
+     * Returns the marker file written once both object directories are
+     * sharded.
+     * @return File
+     */
+    static File fanoutMarker() {
+        return Utils.join(gitletFolder(), "fanout");
+    }
+
+    /** Type of objects holding file contents. */
+    static final String BLOB = "blob";
+
+    /** Type of objects holding a serialized commit. */
+    static final String COMMIT = "commit";
+
+    /** Type of objects holding a directory of a commit, stored with
+     *  the blobs. */
+    static final String TREE = "tree";
+
+    /** Type of blobs stored as a list of content-defined chunks, each a
+     *  BLOB of its own; see {@link Chunker}. */
+    static final String CHUNKS = "chunks";
+
+    /** Size of the buffers used when streaming objects. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Longest header we are willing to parse. */
+    private static final int MAX_HEADER = 32;
+
+    /** Not instantiable. */
+    private ObjectStore() {
+    }
+
+    /**
+     * Returns the shard directory of DIR that holds UNIQUEID.
+     * @param dir File
+     * @param uniqueID String
+     * @return File
+     */
+    public static File shardOf(File dir, String uniqueID) {
+        return Utils.join(dir, uniqueID.substring(0, FANOUT_LENGTH));
+    }
+
+    /**
+     * Returns the file in DIR where the object UNIQUEID is stored.
+     * @param dir File
+     * @param uniqueID String
+     * @return File
+     */
+    public static File objectFile(File dir, String uniqueID) {
+        if (uniqueID.length() <= FANOUT_LENGTH) {
+            throw Utils.error("Object id %s is too short.", uniqueID);
+        }
+        return Utils.join(shardOf(dir, uniqueID),
+                uniqueID.substring(FANOUT_LENGTH));
+    }
+
+    /**
+     * Returns the file for UNIQUEID in DIR, creating its shard
+     * directory if needed.
+     * @param dir File
+     * @param uniqueID String
+     * @return File
+     */
+    public static File newObjectFile(File dir, String uniqueID) {
+        File shard = shardOf(dir, uniqueID);
+        if (!shard.isDirectory()) {
+            shard.mkdir();
+        }
+        return objectFile(dir, uniqueID);
+    }
+
+    /**
+     * Returns true if the object UNIQUEID is stored in DIR.
+     * @param dir File
+     * @param uniqueID String
+     * @return boolean
+     */
+    public static boolean contains(File dir, String uniqueID) {
+        return Pack.contains(uniqueID, Pack.typeOf(dir))
+                || isLoose(dir, uniqueID);
+    }
+
+    /**
+     * Returns true if the object UNIQUEID is stored as a loose file in DIR.
+     * @param dir File
+     * @param uniqueID String
+     * @return boolean
+     */
+    public static boolean isLoose(File dir, String uniqueID) {
+        return uniqueID.length() > FANOUT_LENGTH
+                && objectFile(dir, uniqueID).isFile();
+    }
+
+    /**
+     * Returns the ids of all objects in DIR, loose or packed, whose id
+     * starts with PREFIX, in lexicographic order. Prefixes of at least
+     * FANOUT_LENGTH digits only list a single shard.
+     * @param dir File
+     * @param prefix String
+     * @return List<String>
+     */
+    public static List<String> idsWithPrefix(File dir, String prefix) {
+        TreeSet<String> ids = new TreeSet<>(looseIDsWithPrefix(dir, prefix));
+        List<String> packed = new ArrayList<>();
+        Pack.idsWithPrefix(Pack.typeOf(dir), prefix, packed);
+        ids.addAll(packed);
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Returns the ids of the loose objects in DIR whose id starts with
+     * PREFIX, in lexicographic order.
+     * @param dir File
+     * @param prefix String
+     * @return List<String>
+     */
+    private static List<String> looseIDsWithPrefix(File dir, String prefix) {
+        List<String> ids = new ArrayList<>();
+        if (prefix.length() >= FANOUT_LENGTH) {
+            String shard = prefix.substring(0, FANOUT_LENGTH);
+            String rest = prefix.substring(FANOUT_LENGTH);
+            List<String> names = Utils.plainFilenamesIn(Utils.join(dir, shard));
+            if (names != null) {
+                for (String name: names) {
+                    if (isObjectName(name) && name.startsWith(rest)) {
+                        ids.add(shard + name);
+                    }
+                }
+            }
+            return ids;
+        }
+        for (String shard: shardsIn(dir)) {
+            if (shard.startsWith(prefix)) {
+                for (String name: Utils.plainFilenamesIn(
+                        Utils.join(dir, shard))) {
+                    if (isObjectName(name)) {
+                        ids.add(shard + name);
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns true if NAME, a file inside a shard, names an object rather
+     * than a temporary file left behind by an interrupted write.
+     * @param name String
+     * @return boolean
+     */
+    private static boolean isObjectName(String name) {
+        return name.length() == Utils.UID_LENGTH - FANOUT_LENGTH;
+    }
+
+    /**
+     * Returns the ids of every object in DIR in lexicographic order.
+     * @param dir File
+     * @return List<String>
+     */
+    public static List<String> allIDs(File dir) {
+        return idsWithPrefix(dir, "");
+    }
+
+    /**
+     * Returns the ids of every loose object in DIR in lexicographic order.
+     * @param dir File
+     * @return List<String>
+     */
+    public static List<String> looseIDs(File dir) {
+        return looseIDsWithPrefix(dir, "");
+    }
+
+    /**
+     * Returns the names of the shard directories in DIR, sorted.
+     * @param dir File
+     * @return List<String>
+     */
+    private static List<String> shardsIn(File dir) {
+        String[] shards = dir.list((parent, name) ->
+                name.length() == FANOUT_LENGTH
+                        && new File(parent, name).isDirectory());
+        if (shards == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(shards);
+        return Arrays.asList(shards);
+    }
+
+    /** Moves loose objects of a flat (pre fan-out) repository into their
+     *  shards. Runs once per repository; afterwards only the marker file
+     *  is checked. */
+    public static void ensureFanout() {
+        if (fanoutMarker().exists()) {
+            return;
+        }
+        migrate(blobObjects());
+        migrate(commitHistory());
+        Utils.writeContents(fanoutMarker(), "");
+    }
+
+    /**
+     * Moves every flat object file in DIR into its shard.
+     * @param dir File
+     */
+    private static void migrate(File dir) {
+        List<String> flat = Utils.plainFilenamesIn(dir);
+        if (flat == null) {
+            return;
+        }
+        for (String uniqueID: flat) {
+            if (uniqueID.length() != Utils.UID_LENGTH) {
+                continue;
+            }
+            File from = Utils.join(dir, uniqueID);
+            File to = newObjectFile(dir, uniqueID);
+            if (!from.renameTo(to)) {
+                throw Utils.error("Could not move object %s into its shard.",
+                        uniqueID);
+            }
+        }
+    }
+
+    /**
+     * Stores CONTENTS as an object of TYPE with id UNIQUEID in DIR.
+     * Does nothing if the object is already present.
+     * @param dir File
+     * @param uniqueID String
+     * @param type String
+     * @param contents byte[]
+     */
+    public static void write(File dir, String uniqueID, String type,
+                             byte[] contents) {
+        write(dir, uniqueID, type,
+                new ByteArrayInputStream(contents), contents.length);
+    }
+
+    /**
+     * Streams SIZE bytes from IN into DIR as an object of TYPE with id
+     * UNIQUEID. The object is compressed into a temporary file in its
+     * shard and renamed into place, so readers never see half an object.
+     * Does nothing if the object is already present.
+     * @param dir File
+     * @param uniqueID String
+     * @param type String
+     * @param in InputStream
+     * @param size long
+     */
+    public static void write(File dir, String uniqueID, String type,
+                             InputStream in, long size) {
+        if (Pack.contains(uniqueID, Pack.typeOf(dir))) {
+            return;
+        }
+        File object = newObjectFile(dir, uniqueID);
+        if (object.exists()) {
+            return;
+        }
+        File temp = tempFile(object.getParentFile(), object.getName());
+        compress(temp, type, in, size);
+        install(temp, object);
+    }
+
+    /**
+     * Stores CONTENTS as an object of TYPE with id UNIQUEID in DIR,
+     * replacing any loose object already stored under that id.
+     * @param dir File
+     * @param uniqueID String
+     * @param type String
+     * @param contents byte[]
+     */
+    public static void replace(File dir, String uniqueID, String type,
+                               byte[] contents) {
+        File object = newObjectFile(dir, uniqueID);
+        File temp = tempFile(object.getParentFile(), object.getName());
+        compress(temp, type, new ByteArrayInputStream(contents),
+                contents.length);
+        install(temp, object);
+    }
+
+    /**
+     * Copies the packed object UNIQUEID in DIR to a loose object of TYPE,
+     * so that it outlives the pack holding it. Does nothing if it is
+     * already loose.
+     * @param dir File
+     * @param uniqueID String
+     * @param type String
+     */
+    public static void unpack(File dir, String uniqueID, String type) {
+        File object = newObjectFile(dir, uniqueID);
+        if (object.exists()) {
+            return;
+        }
+        File temp = tempFile(object.getParentFile(), object.getName());
+        try (InputStream in = open(dir, uniqueID)) {
+            compress(temp, type, in, size(dir, uniqueID));
+        } catch (IOException excp) {
+            temp.delete();
+            throw Utils.error("Could not read object %s: %s",
+                    uniqueID, excp.getMessage());
+        }
+        install(temp, object);
+    }
+
+    /**
+     * Streams SOURCE into DIR as an object of TYPE and returns its id,
+     * the SHA-1 hash of its contents. SOURCE is read exactly once, in
+     * fixed-size chunks, hashing and compressing as it goes, so memory use
+     * does not depend on its size. Nothing is stored if the object is
+     * already present.
+     * @param dir File
+     * @param type String
+     * @param source File
+     * @return String
+     */
+    public static String writeFile(File dir, String type, File source) {
+        File temp = tempFile(dir, "incoming");
+        MessageDigest digest = Utils.sha1Digest();
+        try (InputStream in = new DigestInputStream(
+                new FileInputStream(source), digest)) {
+            compress(temp, type, in, source.length());
+        } catch (IOException excp) {
+            temp.delete();
+            throw Utils.error("Could not read %s: %s", source.getName(),
+                    excp.getMessage());
+        }
+        String uniqueID = Utils.toHex(digest.digest());
+        if (contains(dir, uniqueID)) {
+            temp.delete();
+        } else {
+            install(temp, newObjectFile(dir, uniqueID));
+        }
+        return uniqueID;
+    }
+
+    /**
+     * Writes TEMP as a compressed object of TYPE holding the SIZE bytes
+     * read from IN.
+     * @param temp File
+     * @param type String
+     * @param in InputStream
+     * @param size long
+     */
+    private static void compress(File temp, String type, InputStream in,
+                                 long size) {
+        try (OutputStream out = compressor(new FileOutputStream(temp))) {
+            out.write(header(type, size));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long copied = 0;
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+                copied += n;
+            }
+            if (copied != size) {
+                throw new IOException("contents changed while being stored");
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw Utils.error("Could not store object: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /**
+     * Renames the finished object TEMP to OBJECT.
+     * @param temp File
+     * @param object File
+     */
+    private static void install(File temp, File object) {
+        if (!temp.renameTo(object)) {
+            temp.delete();
+            if (!object.isFile()) {
+                throw Utils.error("Could not store object %s.",
+                        object.getName());
+            }
+        }
+    }
+
+    /**
+     * Returns a file in DIR, named from PREFIX, that no other writer, in
+     * this process or another, uses at the same time, for an object being
+     * written.
+     * @param dir File
+     * @param prefix String
+     * @return File
+     */
+    private static File tempFile(File dir, String prefix) {
+        return Utils.join(dir, prefix + "-" + ProcessHandle.current().pid()
+                + "-" + System.nanoTime() + ".tmp");
+    }
+
+    /**
+     * Returns a stream over the contents of object UNIQUEID in DIR,
+     * positioned after its header. Packs are searched before loose
+     * files, and chunked blobs are reassembled from their chunks as the
+     * stream is read. The caller must close it.
+     * @param dir File
+     * @param uniqueID String
+     * @return InputStream
+     */
+    public static InputStream open(File dir, String uniqueID) {
+        InputStream packed = Pack.open(uniqueID, Pack.typeOf(dir));
+        if (packed != null) {
+            return packed;
+        }
+        LooseObject loose = openLoose(dir, uniqueID);
+        if (loose._type.equals(CHUNKS)) {
+            return Chunker.reassemble(dir, loose.readChunkList());
+        }
+        return loose._in;
+    }
+
+    /**
+     * Returns the size of the contents of object UNIQUEID in DIR, reading
+     * no more than its header, or its chunk list for a chunked blob.
+     * @param dir File
+     * @param uniqueID String
+     * @return long
+     */
+    public static long size(File dir, String uniqueID) {
+        long packed = Pack.size(uniqueID, Pack.typeOf(dir));
+        if (packed >= 0) {
+            return packed;
+        }
+        LooseObject loose = openLoose(dir, uniqueID);
+        if (loose._type.equals(CHUNKS)) {
+            return Chunker.totalSize(loose.readChunkList());
+        }
+        loose.close();
+        return loose._size;
+    }
+
+    /**
+     * Returns true if UNIQUEID in DIR is stored as a list of chunks.
+     * Chunk lists always stay loose.
+     * @param dir File
+     * @param uniqueID String
+     * @return boolean
+     */
+    public static boolean isChunked(File dir, String uniqueID) {
+        if (!isLoose(dir, uniqueID)) {
+            return false;
+        }
+        LooseObject loose = openLoose(dir, uniqueID);
+        loose.close();
+        return loose._type.equals(CHUNKS);
+    }
+
+    /**
+     * Opens the loose object UNIQUEID in DIR and reads its header. Legacy
+     * objects, written before compression, are reported as BLOB or COMMIT
+     * objects whose size is that of the file. Reading a compressed object
+     * to its end fails if it did not hold the size in its header.
+     * @param dir File
+     * @param uniqueID String
+     * @return LooseObject
+     */
+    private static LooseObject openLoose(File dir, String uniqueID) {
+        if (!isLoose(dir, uniqueID)) {
+            throw Utils.error("Object %s does not exist.", uniqueID);
+        }
+        File object = objectFile(dir, uniqueID);
+        try {
+            InputStream raw = new BufferedInputStream(
+                    new FileInputStream(object), BUFFER_SIZE);
+            if (looksCompressed(raw)) {
+                InputStream in = new InflaterInputStream(raw);
+                try {
+                    String[] header = readHeader(in);
+                    if (header != null) {
+                        long size = Long.parseLong(header[1]);
+                        return new LooseObject(
+                                new SizedStream(in, size, uniqueID),
+                                header[0], size);
+                    }
+                } catch (IOException excp) {
+                    /* Legacy object that happens to start like zlib. */
+                }
+                in.close();
+                raw = new BufferedInputStream(
+                        new FileInputStream(object), BUFFER_SIZE);
+            }
+            return new LooseObject(raw,
+                    dir.equals(commitHistory()) ? COMMIT : BLOB,
+                    object.length());
+        } catch (IOException excp) {
+            throw Utils.error("Could not read object %s: %s",
+                    uniqueID, excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the full contents of object UNIQUEID in DIR.
+     * @param dir File
+     * @param uniqueID String
+     * @return byte[]
+     */
+    public static byte[] read(File dir, String uniqueID) {
+        try (InputStream in = open(dir, uniqueID)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw Utils.error("Could not read object %s: %s",
+                    uniqueID, excp.getMessage());
+        }
+    }
+
+    /**
+     * Wraps OUT so that everything written to it is deflated.
+     * @param out OutputStream
+     * @return OutputStream
+     */
+    static OutputStream compressor(OutputStream out) {
+        return new DeflaterOutputStream(
+                new BufferedOutputStream(out, BUFFER_SIZE),
+                new Deflater(Deflater.DEFAULT_COMPRESSION), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                def.end();
+            }
+        };
+    }
+
+    /**
+     * Returns the encoded header for an object of TYPE holding SIZE bytes.
+     * @param type String
+     * @param size long
+     * @return byte[]
+     */
+    static byte[] header(String type, long size) {
+        return (type + " " + size + "\0").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a header from IN and returns its type and size fields, or
+     * null if IN does not start with a well-formed header.
+     * @param in InputStream
+     * @return String[]
+     */
+    static String[] readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        for (int c = in.read(); c > 0; c = in.read()) {
+            if (header.size() == MAX_HEADER) {
+                return null;
+            }
+            header.write(c);
+        }
+        String[] fields = header.toString(StandardCharsets.UTF_8).split(" ");
+        if (fields.length != 2 || !(fields[0].equals(BLOB)
+                || fields[0].equals(COMMIT) || fields[0].equals(TREE)
+                || fields[0].equals(CHUNKS))) {
+            return null;
+        }
+        for (int i = 0; i < fields[1].length(); i += 1) {
+            if (!Character.isDigit(fields[1].charAt(i))) {
+                return null;
+            }
+        }
+        return fields[1].isEmpty() ? null : fields;
+    }
+
+    /**
+     * Returns true if the next two bytes of IN form a zlib header.
+     * Leaves IN positioned where it was.
+     * @param in InputStream
+     * @return boolean
+     */
+    private static boolean looksCompressed(InputStream in) throws IOException {
+        in.mark(2);
+        int cmf = in.read(), flg = in.read();
+        in.reset();
+        return cmf >= 0 && flg >= 0 && (cmf & 0x0f) == Deflater.DEFLATED
+                && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /** A loose object whose header has been read. */
+    private static class LooseObject {
+
+        /**
+         * An object of TYPE holding SIZE bytes, readable from IN.
+         * @param in InputStream
+         * @param type String
+         * @param size long
+         */
+        LooseObject(InputStream in, String type, long size) {
+            _in = in;
+            _type = type;
+            _size = size;
+        }
+
+        /**
+         * Reads the rest of this object, a chunk list, and closes it.
+         * @return String
+         */
+        String readChunkList() {
+            try (InputStream in = _in) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException excp) {
+                throw Utils.error("Could not read chunk list: %s",
+                        excp.getMessage());
+            }
+        }
+
+        /** Closes this object's stream. */
+        void close() {
+            try {
+                _in.close();
+            } catch (IOException excp) {
+                /* Nothing was written, so nothing can be lost. */
+            }
+        }
+
+        /** The contents, positioned after the header. */
+        private final InputStream _in;
+
+        /** The type recorded in the header. */
+        private final String _type;
+
+        /** The size recorded in the header. */
+        private final long _size;
+    }
+
+    /** The inflated contents of a loose object, which fail once more or,
+     *  at their end, fewer bytes were read than the header recorded. */
+    private static class SizedStream extends FilterInputStream {
+
+        /**
+         * The contents read from IN of object UNIQUEID, which holds SIZE
+         * bytes.
+         * @param in InputStream
+         * @param size long
+         * @param uniqueID String
+         */
+        SizedStream(InputStream in, long size, String uniqueID) {
+            super(in);
+            _remaining = size;
+            _uniqueID = uniqueID;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            counted(c == -1 ? -1 : 1);
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            counted(len == 0 ? 0 : n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            counted(skipped);
+            return skipped;
+        }
+
+        /**
+         * Accounts for N bytes read, where -1 is the end of the contents.
+         * @param n long
+         */
+        private void counted(long n) {
+            if (n != -1) {
+                _remaining -= n;
+            }
+            if (_remaining < 0 || n == -1 && _remaining != 0) {
+                throw Utils.error("Object %s is corrupt.", _uniqueID);
+            }
+        }
+
+        /** Bytes the header says are still to be read. */
+        private long _remaining;
+
+        /** Id of the object. */
+        private final String _uniqueID;
+    }
+}
@@ -0,0 +1,946 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Repository.blobObjects;
+import static gitlet.Repository.commitHistory;
+import static gitlet.Repository.gitletFolder;
+import static gitlet.Repository.out;
+
+/**
+ * A pack file holding many objects, together with its index.
+ * pack-NAME.pack holds a "GLPK" magic, a version and an object count,
+ * followed by one entry per object: a type byte, the size of the
+ * contents and the deflated contents. A DELTA entry instead holds the
+ * id of a base blob and a deflated {@link Delta} against it.
+ * pack-NAME.idx holds a "GLIX" magic, a version, the object count, a
+ * 256-entry fan-out table of cumulative counts by first id byte, the
+ * sorted binary ids, the entry offsets into the pack and the entry types.
+ * Both files are read through memory maps; lookups binary search the ids
+ * within their fan-out bucket.
+ * @author Iram Morshed
+ */
+public final class Pack {
+
+    /**
+     * Returns the directory holding all pack and index files.
+     * @return File
+     */
+    static File packsFolder() {
+        return Utils.join(gitletFolder(), "packs");
+    }
+
+    /** Entry type of a blob. */
+    static final byte BLOB = 1;
+
+    /** Entry type of a commit. */
+    static final byte COMMIT = 2;
+
+    /** Pack entry type of a blob stored as a delta against another blob,
+     *  whose id follows the entry header. Never appears in an index. */
+    static final byte DELTA = 3;
+
+    /** Number of preceding blobs tried as delta bases. */
+    private static final int WINDOW = 10;
+
+    /** Longest chain of deltas a blob may sit at the end of. */
+    private static final int MAX_DEPTH = 10;
+
+    /** Blobs larger than this are streamed into the pack whole rather
+     *  than being held in memory as delta candidates. */
+    private static final long MAX_DELTA_SIZE = 32L << 20;
+
+    /** Bytes of delta bases kept in memory while reading. */
+    private static final long BASE_CACHE_LIMIT = 64L << 20;
+
+    /** Format version of both pack and index files. */
+    private static final int VERSION = 1;
+
+    /** Bytes in a binary object id. */
+    static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Bytes before the deflated contents of an entry: type and size. */
+    private static final int ENTRY_HEADER = 9;
+
+    /** Bytes before the fan-out table of an index file. */
+    private static final int INDEX_HEADER = 12;
+
+    /** Entries in the fan-out table. */
+    private static final int FANOUT = 256;
+
+    /** Default and largest pack.maxSize: a new pack is started once this
+     *  many bytes have been written to the current one, and objects at
+     *  least this large are left loose. As the last object written is
+     *  smaller, a pack stays below 2 GB, the reach of an int offset and
+     *  of a single memory map. */
+    private static final long MAX_PACK_SIZE = 1L << 30;
+
+    /** Offset of the entry count in the header of a pack file. */
+    private static final int COUNT_OFFSET = 8;
+
+    /**
+     * Maps an existing pack and its index.
+     * @param name String, the pack name without extension
+     */
+    private Pack(String name) {
+        _name = name;
+        _pack = map(Utils.join(packsFolder(), name + ".pack"));
+        _index = map(Utils.join(packsFolder(), name + ".idx"));
+        if (_index.getInt(0) != magic("GLIX")
+                || _pack.getInt(0) != magic("GLPK")) {
+            throw Utils.error("Pack %s is corrupt.", name);
+        }
+        _count = _index.getInt(8);
+        _ids = INDEX_HEADER + FANOUT * 4;
+        _offsets = _ids + _count * ID_BYTES;
+        _types = _offsets + _count * 8;
+    }
+
+    /**
+     * Returns the position of UNIQUEID in this pack's index, or -1.
+     * @param uniqueID String
+     * @return int
+     */
+    private int position(String uniqueID) {
+        byte[] key = toBinary(uniqueID);
+        int bucket = key[0] & 0xff;
+        int lo = bucketStart(bucket), hi = bucketEnd(bucket) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of the first id whose first byte is BUCKET.
+     * @param bucket int
+     * @return int
+     */
+    private int bucketStart(int bucket) {
+        return bucket == 0 ? 0 : bucketEnd(bucket - 1);
+    }
+
+    /**
+     * Returns one past the position of the last id whose first byte is
+     * BUCKET.
+     * @param bucket int
+     * @return int
+     */
+    private int bucketEnd(int bucket) {
+        return _index.getInt(INDEX_HEADER + bucket * 4);
+    }
+
+    /**
+     * Compares the id at POSITION with KEY.
+     * @param position int
+     * @param key byte[]
+     * @return int
+     */
+    private int compareAt(int position, byte[] key) {
+        int base = _ids + position * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int a = _index.get(base + i) & 0xff, b = key[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the hex id stored at POSITION.
+     * @param position int
+     * @return String
+     */
+    private String idAt(int position) {
+        byte[] id = new byte[ID_BYTES];
+        _index.get(_ids + position * ID_BYTES, id);
+        return toHex(id);
+    }
+
+    /**
+     * Returns the type stored at POSITION.
+     * @param position int
+     * @return byte
+     */
+    private byte typeAt(int position) {
+        return _index.get(_types + position);
+    }
+
+    /**
+     * Returns the offset in the pack of the entry at POSITION.
+     * @param position int
+     * @return int
+     */
+    private int offsetAt(int position) {
+        return (int) _index.getLong(_offsets + position * 8);
+    }
+
+    /**
+     * Returns the contents of the entry at POSITION as a stream.
+     * @param position int
+     * @return InputStream
+     */
+    private InputStream openAt(int position) {
+        int offset = offsetAt(position);
+        if (_pack.get(offset) == DELTA) {
+            return new ByteArrayInputStream(resolve(offset));
+        }
+        return inflated(offset + ENTRY_HEADER);
+    }
+
+    /**
+     * Returns a stream inflating the pack from OFFSET.
+     * @param offset int
+     * @return InputStream
+     */
+    private InputStream inflated(int offset) {
+        ByteBuffer data = _pack.slice(offset, _pack.limit() - offset);
+        return new InflaterInputStream(new BufferInputStream(data),
+                new Inflater(), ObjectStore.BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the contents of the delta entry at OFFSET, applying its
+     * delta to its base. Bases are kept in a small cache, since the same
+     * base is usually shared by the neighbouring versions of a file.
+     * @param offset int
+     * @return byte[]
+     */
+    private byte[] resolve(int offset) {
+        byte[] baseID = new byte[ID_BYTES];
+        _pack.get(offset + ENTRY_HEADER, baseID);
+        String base = toHex(baseID);
+        byte[] baseContents = cachedBase(base);
+        if (baseContents == null) {
+            baseContents = ObjectStore.read(blobObjects(), base);
+            cacheBase(base, baseContents);
+        }
+        byte[] delta;
+        try (InputStream in = inflated(offset + ENTRY_HEADER + ID_BYTES)) {
+            delta = in.readAllBytes();
+        } catch (IOException excp) {
+            throw Utils.error("Could not read delta in pack %s: %s",
+                    _name, excp.getMessage());
+        }
+        return Delta.apply(baseContents, delta);
+    }
+
+    /**
+     * Returns the size of the contents of the entry at POSITION.
+     * @param position int
+     * @return long
+     */
+    private long sizeAt(int position) {
+        return _pack.getLong(offsetAt(position) + 1);
+    }
+
+    /* STATIC ACCESS TO ALL PACKS. */
+
+    /**
+     * Returns true if some pack holds UNIQUEID with TYPE.
+     * @param uniqueID String
+     * @param type byte
+     * @return boolean
+     */
+    static boolean contains(String uniqueID, byte type) {
+        if (uniqueID.length() != Utils.UID_LENGTH || !isHex(uniqueID)) {
+            return false;
+        }
+        for (Pack pack: packs()) {
+            int position = pack.position(uniqueID);
+            if (position >= 0 && pack.typeAt(position) == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a stream over the contents of UNIQUEID with TYPE, or null if
+     * no pack holds it.
+     * @param uniqueID String
+     * @param type byte
+     * @return InputStream
+     */
+    static InputStream open(String uniqueID, byte type) {
+        if (uniqueID.length() != Utils.UID_LENGTH || !isHex(uniqueID)) {
+            return null;
+        }
+        for (Pack pack: packs()) {
+            int position = pack.position(uniqueID);
+            if (position >= 0 && pack.typeAt(position) == type) {
+                return pack.openAt(position);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the size of the contents of the packed UNIQUEID with TYPE,
+     * or -1 if no pack holds it.
+     * @param uniqueID String
+     * @param type byte
+     * @return long
+     */
+    static long size(String uniqueID, byte type) {
+        if (uniqueID.length() != Utils.UID_LENGTH || !isHex(uniqueID)) {
+            return -1;
+        }
+        for (Pack pack: packs()) {
+            int position = pack.position(uniqueID);
+            if (position >= 0 && pack.typeAt(position) == type) {
+                return pack.sizeAt(position);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds to IDS every packed id of TYPE that starts with PREFIX.
+     * @param type byte
+     * @param prefix String
+     * @param ids List<String>
+     */
+    static void idsWithPrefix(byte type, String prefix, List<String> ids) {
+        if (!isHex(prefix)) {
+            return;
+        }
+        for (Pack pack: packs()) {
+            int start = 0, end = pack._count;
+            if (prefix.length() >= 2) {
+                int bucket = Integer.parseInt(prefix.substring(0, 2), 16);
+                start = pack.bucketStart(bucket);
+                end = pack.bucketEnd(bucket);
+            }
+            for (int i = start; i < end; i += 1) {
+                if (pack.typeAt(i) == type) {
+                    String id = pack.idAt(i);
+                    if (id.startsWith(prefix)) {
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns every pack in the packs folder, mapping them on first use.
+     * @return List<Pack>
+     */
+    private static List<Pack> packs() {
+        State state = state();
+        synchronized (state) {
+            if (state._all == null) {
+                List<Pack> all = new ArrayList<>();
+                List<String> files = Utils.plainFilenamesIn(packsFolder());
+                if (files != null) {
+                    for (String file: files) {
+                        if (file.endsWith(".idx")) {
+                            all.add(new Pack(file.substring(0,
+                                    file.length() - ".idx".length())));
+                        }
+                    }
+                }
+                state._all = all;
+            }
+            return state._all;
+        }
+    }
+
+    /**
+     * Caches CONTENTS of the delta base UNIQUEID, evicting the least
+     * recently used bases beyond BASE_CACHE_LIMIT bytes.
+     * @param uniqueID String
+     * @param contents byte[]
+     */
+    private static void cacheBase(String uniqueID, byte[] contents) {
+        if (contents.length > BASE_CACHE_LIMIT / 4) {
+            return;
+        }
+        State state = state();
+        synchronized (state) {
+            state._baseCache.put(uniqueID, contents);
+            state._baseCacheBytes += contents.length;
+            Iterator<byte[]> eldest = state._baseCache.values().iterator();
+            while (state._baseCacheBytes > BASE_CACHE_LIMIT) {
+                state._baseCacheBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the cached contents of the delta base UNIQUEID, or null.
+     * @param uniqueID String
+     * @return byte[]
+     */
+    private static byte[] cachedBase(String uniqueID) {
+        State state = state();
+        synchronized (state) {
+            return state._baseCache.get(uniqueID);
+        }
+    }
+
+    /** Forgets the packs and the delta bases read from them. */
+    private static void forgetPacks() {
+        State state = state();
+        synchronized (state) {
+            state._all = null;
+            state._baseCache.clear();
+            state._baseCacheBytes = 0;
+        }
+    }
+
+    /**
+     * Returns the packs of the current repository.
+     * @return State
+     */
+    private static State state() {
+        return Repository.current().commandState(State.class, State::new);
+    }
+
+    /* WRITING PACKS. */
+
+    /** Runs the PACK command: rewrites every blob and commit, loose or
+     *  already packed, into new packs, then deletes the loose copies and
+     *  the old packs. Commits come first; blobs follow grouped by the path
+     *  they were committed under and by decreasing size, and each blob is
+     *  delta-encoded against the best of the WINDOW blobs before it.
+     *  Chunk lists stay loose; their chunks are packed like any blob. */
+    public static void pack() {
+        TreeMap<String, Byte> types = new TreeMap<>();
+        List<String> loose = new ArrayList<>();
+        for (String id: ObjectStore.looseIDs(blobObjects())) {
+            if (!ObjectStore.isChunked(blobObjects(), id)) {
+                types.put(id, BLOB);
+                loose.add(id);
+            }
+        }
+        for (String id: ObjectStore.looseIDs(commitHistory())) {
+            types.put(id, COMMIT);
+            loose.add(id);
+        }
+        List<Pack> old = packs();
+        if (loose.isEmpty() && old.size() <= 1) {
+            out().println("No loose objects to pack.");
+            return;
+        }
+        for (Pack pack: old) {
+            for (int i = 0; i < pack._count; i += 1) {
+                types.put(pack.idAt(i), pack.typeAt(i));
+            }
+        }
+        long maxSize = Math.min(MAX_PACK_SIZE,
+                Config.getLong("pack.maxSize", MAX_PACK_SIZE));
+        HashMap<String, Long> sizes = new HashMap<>();
+        for (String id: types.keySet()) {
+            sizes.put(id, ObjectStore.size(dirOf(types.get(id)), id));
+        }
+        for (String id: sizes.keySet()) {
+            if (sizes.get(id) >= maxSize) {
+                byte type = types.remove(id);
+                if (!loose.remove(id)) {
+                    ObjectStore.unpack(dirOf(type), id, type == COMMIT
+                            ? ObjectStore.COMMIT : ObjectStore.BLOB);
+                }
+            }
+        }
+        packsFolder().mkdir();
+        List<String> written = new ArrayList<>();
+        ArrayDeque<String> pending =
+                new ArrayDeque<>(packingOrder(types, sizes));
+        while (!pending.isEmpty()) {
+            written.add(write(pending, maxSize, types, sizes));
+        }
+        for (Pack pack: old) {
+            if (!written.contains(pack._name)) {
+                Utils.join(packsFolder(), pack._name + ".idx").delete();
+                Utils.join(packsFolder(), pack._name + ".pack").delete();
+            }
+        }
+        forgetPacks();
+        for (String id: loose) {
+            File object = ObjectStore.objectFile(dirOf(types.get(id)), id);
+            object.delete();
+            object.getParentFile().delete();
+        }
+        out().println("Packed " + types.size() + " objects.");
+    }
+
+    /**
+     * Returns the ids in TYPES in the order they are written: commits by
+     * id, then blobs by path, decreasing size and id.
+     * @param types TreeMap<String, Byte>
+     * @param sizes HashMap<String, Long>
+     * @return List<String>
+     */
+    private static List<String> packingOrder(TreeMap<String, Byte> types,
+                                             HashMap<String, Long> sizes) {
+        List<String> commits = new ArrayList<>();
+        List<String> blobs = new ArrayList<>();
+        for (String id: types.keySet()) {
+            (types.get(id) == COMMIT ? commits : blobs).add(id);
+        }
+        HashMap<String, String> paths = new HashMap<>();
+        for (String id: commits) {
+            HashMap<String, String> tracked =
+                    Commit.retrieveCommit(id).getBlobs();
+            for (String file: tracked.keySet()) {
+                paths.putIfAbsent(tracked.get(file), file);
+            }
+        }
+        blobs.sort(Comparator
+                .comparing((String id) -> paths.getOrDefault(id, ""))
+                .thenComparing(id -> -sizes.get(id))
+                .thenComparing(id -> id));
+        commits.addAll(blobs);
+        return commits;
+    }
+
+    /**
+     * Writes objects taken from the front of PENDING, whose types and
+     * sizes are in TYPES and SIZES, to one pack, until MAXSIZE bytes have
+     * been written, and returns the pack's name.
+     * @param pending ArrayDeque<String>
+     * @param maxSize long
+     * @param types TreeMap<String, Byte>
+     * @param sizes HashMap<String, Long>
+     * @return String
+     */
+    private static String write(ArrayDeque<String> pending, long maxSize,
+                                TreeMap<String, Byte> types,
+                                HashMap<String, Long> sizes) {
+        TreeMap<String, Long> offsets = new TreeMap<>();
+        File packTemp = Utils.join(packsFolder(), "incoming-"
+                + ProcessHandle.current().pid() + "-" + System.nanoTime()
+                + ".pack.tmp");
+        ArrayDeque<DeltaBase> window = new ArrayDeque<>();
+        try (CountingOutputStream counter = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(packTemp),
+                        ObjectStore.BUFFER_SIZE));
+             DataOutputStream out = new DataOutputStream(counter)) {
+            out.writeInt(magic("GLPK"));
+            out.writeInt(VERSION);
+            out.writeInt(0);
+            while (!pending.isEmpty() && counter.count() < maxSize) {
+                String id = pending.removeFirst();
+                byte type = types.get(id);
+                offsets.put(id, counter.count());
+                if (sizes.get(id) > MAX_DELTA_SIZE) {
+                    out.writeByte(type);
+                    out.writeLong(sizes.get(id));
+                    try (InputStream in = ObjectStore.open(dirOf(type), id)) {
+                        deflate(out, in);
+                    }
+                    continue;
+                }
+                byte[] contents = ObjectStore.read(dirOf(type), id);
+                if (type == COMMIT) {
+                    contents = CommitCodec.upgrade(contents);
+                }
+                DeltaBase base = null;
+                byte[] delta = null;
+                if (type == BLOB) {
+                    for (DeltaBase candidate: window) {
+                        byte[] attempt = candidate.deltaTo(contents);
+                        if (attempt != null && (delta == null
+                                || attempt.length < delta.length)) {
+                            base = candidate;
+                            delta = attempt;
+                        }
+                    }
+                }
+                if (delta == null) {
+                    out.writeByte(type);
+                    out.writeLong(contents.length);
+                    deflate(out, contents);
+                } else {
+                    out.writeByte(DELTA);
+                    out.writeLong(contents.length);
+                    out.write(toBinary(base._id));
+                    deflate(out, delta);
+                }
+                if (type == BLOB) {
+                    window.addLast(new DeltaBase(id, contents,
+                            base == null ? 0 : base._depth + 1));
+                    if (window.size() > WINDOW) {
+                        window.removeFirst();
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            packTemp.delete();
+            throw Utils.error("Could not write pack: %s", excp.getMessage());
+        }
+        try (RandomAccessFile file = new RandomAccessFile(packTemp, "rw")) {
+            file.seek(COUNT_OFFSET);
+            file.writeInt(offsets.size());
+        } catch (IOException excp) {
+            packTemp.delete();
+            throw Utils.error("Could not write pack: %s", excp.getMessage());
+        }
+        String name = "pack-" + Utils.sha1(String.join("", offsets.keySet()));
+        File packFile = Utils.join(packsFolder(), name + ".pack");
+        File indexFile = Utils.join(packsFolder(), name + ".idx");
+        File indexTemp = Utils.join(packsFolder(), name + ".idx.tmp");
+        writeIndex(indexTemp, offsets, types);
+        if (!packTemp.renameTo(packFile) || !indexTemp.renameTo(indexFile)) {
+            throw Utils.error("Could not install pack %s.", name);
+        }
+        return name;
+    }
+
+    /**
+     * Writes CONTENTS deflated to OUT, leaving OUT open.
+     * @param out OutputStream
+     * @param contents byte[]
+     */
+    private static void deflate(OutputStream out, byte[] contents)
+            throws IOException {
+        deflate(out, new ByteArrayInputStream(contents));
+    }
+
+    /**
+     * Writes everything in IN deflated to OUT, leaving OUT open.
+     * @param out OutputStream
+     * @param in InputStream
+     */
+    private static void deflate(OutputStream out, InputStream in)
+            throws IOException {
+        Deflater deflater = new Deflater();
+        DeflaterOutputStream deflated = new DeflaterOutputStream(
+                new NonClosing(out), deflater, ObjectStore.BUFFER_SIZE);
+        in.transferTo(deflated);
+        deflated.finish();
+        deflater.end();
+    }
+
+    /**
+     * Writes to FILE the index of a pack whose entries for each id are
+     * at OFFSETS.
+     * @param file File
+     * @param offsets TreeMap<String, Long>
+     * @param types TreeMap<String, Byte>
+     */
+    private static void writeIndex(File file, TreeMap<String, Long> offsets,
+                                   TreeMap<String, Byte> types) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(magic("GLIX"));
+            out.writeInt(VERSION);
+            out.writeInt(offsets.size());
+            int[] fanout = new int[FANOUT];
+            for (String id: offsets.keySet()) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            int total = 0;
+            for (int count: fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String id: offsets.keySet()) {
+                out.write(toBinary(id));
+            }
+            for (long offset: offsets.values()) {
+                out.writeLong(offset);
+            }
+            for (String id: offsets.keySet()) {
+                out.writeByte(types.get(id));
+            }
+        } catch (IOException excp) {
+            file.delete();
+            throw Utils.error("Could not write pack index: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /* HELPERS. */
+
+    /**
+     * Returns the loose object directory for entries of TYPE.
+     * @param type byte
+     * @return File
+     */
+    static File dirOf(byte type) {
+        return type == COMMIT ? commitHistory() : blobObjects();
+    }
+
+    /**
+     * Returns the entry type of objects stored loose in DIR.
+     * @param dir File
+     * @return byte
+     */
+    static byte typeOf(File dir) {
+        return dir.equals(commitHistory()) ? COMMIT : BLOB;
+    }
+
+    /**
+     * Maps FILE read-only into memory.
+     * @param file File
+     * @return MappedByteBuffer
+     */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw Utils.error("Could not map %s: %s", file.getName(),
+                    excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the four ASCII characters of WORD as an int.
+     * @param word String
+     * @return int
+     */
+    private static int magic(String word) {
+        return ByteBuffer.wrap(word.getBytes(StandardCharsets.US_ASCII))
+                .getInt();
+    }
+
+    /**
+     * Returns true if S consists of lower-case hex digits only.
+     * @param s String
+     * @return boolean
+     */
+    static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the binary form of the hex id UNIQUEID, or of any other
+     * hex string of even length.
+     * @param uniqueID String
+     * @return byte[]
+     */
+    static byte[] toBinary(String uniqueID) {
+        byte[] result = new byte[uniqueID.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    uniqueID.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hex form of the binary id ID.
+     * @param id byte[]
+     * @return String
+     */
+    static String toHex(byte[] id) {
+        StringBuilder result = new StringBuilder(Utils.UID_LENGTH);
+        for (byte b: id) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** A recently written blob that later blobs may be deltas against. */
+    private static class DeltaBase {
+
+        /**
+         * A base with id ID holding CONTENTS, itself at the end of a
+         * chain of DEPTH deltas.
+         * @param id String
+         * @param contents byte[]
+         * @param depth int
+         */
+        DeltaBase(String id, byte[] contents, int depth) {
+            _id = id;
+            _contents = contents;
+            _depth = depth;
+        }
+
+        /**
+         * Returns a delta from this base to TARGET, or null if the chain
+         * would grow too deep or the delta would not save at least half
+         * of TARGET.
+         * @param target byte[]
+         * @return byte[]
+         */
+        byte[] deltaTo(byte[] target) {
+            if (_depth >= MAX_DEPTH || target.length < Delta.BLOCK
+                    || _contents.length > 2L * target.length + Delta.BLOCK
+                    || target.length > 2L * _contents.length + Delta.BLOCK) {
+                return null;
+            }
+            byte[] delta = Delta.create(_contents, target);
+            return delta.length < target.length / 2 ? delta : null;
+        }
+
+        /** Id of this base. */
+        private final String _id;
+
+        /** Contents of this base. */
+        private final byte[] _contents;
+
+        /** Length of the delta chain ending at this base. */
+        private final int _depth;
+    }
+
+    /** An input stream reading the remaining bytes of a buffer. */
+    private static class BufferInputStream extends InputStream {
+
+        /**
+         * A stream over BUFFER.
+         * @param buffer ByteBuffer
+         */
+        BufferInputStream(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return _buffer.hasRemaining() ? _buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, _buffer.remaining());
+            _buffer.get(b, off, n);
+            return n;
+        }
+
+        /** The bytes left to read. */
+        private final ByteBuffer _buffer;
+    }
+
+    /** An output stream counting the bytes written through it. */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        /**
+         * Counts what is written to OUT.
+         * @param out OutputStream
+         */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _count += len;
+        }
+
+        /** Returns the number of bytes written so far.
+         * @return long */
+        long count() {
+            return _count;
+        }
+
+        /** Bytes written so far. */
+        private long _count;
+    }
+
+    /** Shields a stream from being closed by a wrapper. */
+    private static class NonClosing extends FilterOutputStream {
+
+        /**
+         * Wraps OUT.
+         * @param out OutputStream
+         */
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /** The packs of a repository, as read by one command. Packs are
+     *  read by the checkout workers at once, so its fields are only used
+     *  while holding its lock. */
+    private static final class State {
+
+        /** Every pack in the packs folder, or null before first use. */
+        private List<Pack> _all;
+
+        /** Recently used delta bases, least recently used first. */
+        private final LinkedHashMap<String, byte[]> _baseCache =
+                new LinkedHashMap<>(16, 0.75f, true);
+
+        /** Total size of the bases in _baseCache. */
+        private long _baseCacheBytes;
+    }
+
+    /** Name of this pack, without extension. */
+    private final String _name;
+
+    /** The mapped pack file. */
+    private final MappedByteBuffer _pack;
+
+    /** The mapped index file. */
+    private final MappedByteBuffer _index;
+
+    /** Number of objects in this pack. */
+    private final int _count;
+
+    /** Offset of the id table in the index. */
+    private final int _ids;
+
+    /** Offset of the entry offset table in the index. */
+    private final int _offsets;
+
+    /** Offset of the entry type table in the index. */
+    private final int _types;
+}
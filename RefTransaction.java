@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static gitlet.Repository.currentBranchFile;
+
+/**
+ * A change to refs, the files that name commits and branches: HEAD,
+ * current_branch and the files in the branches folder. Each ref holds one
+ * line of text, or nothing before INIT has written it. A transaction
+ * lists the value each ref must have now and the value to give it; COMMIT
+ * makes all of the changes or none of them. It takes the LockFile of
+ * each ref, waiting up to the refs.lockTimeout setting while another
+ * process holds it; checks every
+ * ref still has the value the command read; writes each new value to the
+ * lock file and renames it over the ref. A command that reads a ref,
+ * then loses the race to another command updating it, thus fails and can
+ * be run again, instead of overwriting the other command's update.
+ * @author Iram Morshed
+ */
+final class RefTransaction {
+
+    /** Suffix of the lock file of a ref. */
+    static final String LOCK_SUFFIX = LockFile.SUFFIX;
+
+    /**
+     * Returns the value of the ref REF, or null if it does not exist.
+     * Refs saved by older versions are Java serialized: HEAD as a String
+     * and branches as Branch objects, whose name current_branch holds.
+     * @param ref File
+     * @return String
+     */
+    static String read(File ref) {
+        byte[] contents;
+        try {
+            contents = Files.readAllBytes(ref.toPath());
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw Utils.error("Could not read %s: %s", LockFile.name(ref),
+                    excp.getMessage());
+        }
+        if (!Utils.isSerialized(contents)) {
+            return new String(contents, StandardCharsets.UTF_8).trim();
+        }
+        Serializable value = Utils.readObject(
+                new ByteArrayInputStream(contents), Serializable.class);
+        if (value instanceof Branch) {
+            Branch branch = (Branch) value;
+            return ref.equals(currentBranchFile()) ? branch.getBranchName()
+                    : branch.getCurrentNode();
+        }
+        return (String) value;
+    }
+
+    /**
+     * Changes REF from OLDVALUE to NEWVALUE, where null is a ref that
+     * does not exist.
+     * @param ref File
+     * @param oldValue String
+     * @param newValue String
+     * @return RefTransaction
+     */
+    RefTransaction update(File ref, String oldValue, String newValue) {
+        if (_updates.put(ref, new String[] {oldValue, newValue}) != null) {
+            throw Utils.error("Ref %s is updated twice.",
+                    LockFile.name(ref));
+        }
+        return this;
+    }
+
+    /**
+     * Creates REF, which must not exist, with VALUE.
+     * @param ref File
+     * @param value String
+     * @return RefTransaction
+     */
+    RefTransaction create(File ref, String value) {
+        return update(ref, null, value);
+    }
+
+    /**
+     * Deletes REF, which must have VALUE.
+     * @param ref File
+     * @param value String
+     * @return RefTransaction
+     */
+    RefTransaction delete(File ref, String value) {
+        return update(ref, value, null);
+    }
+
+    /** Makes the changes of this transaction, or, if a ref no longer has
+     *  its old value, none of them. */
+    void commit() {
+        List<File> locks = new ArrayList<>();
+        try {
+            long timeout = LockFile.timeout();
+            for (File ref: _updates.keySet()) {
+                locks.add(LockFile.acquire(ref, "ref " + LockFile.name(ref),
+                        timeout));
+            }
+            for (File ref: _updates.keySet()) {
+                if (!Objects.equals(read(ref), _updates.get(ref)[0])) {
+                    throw Utils.error("Ref %s was changed by another "
+                            + "command; run this command again.",
+                            LockFile.name(ref));
+                }
+            }
+            for (File ref: _updates.keySet()) {
+                String value = _updates.get(ref)[1];
+                if (value != null) {
+                    Utils.writeContents(lockFile(ref), value, "\n");
+                }
+            }
+            for (File ref: _updates.keySet()) {
+                File lock = lockFile(ref);
+                if (_updates.get(ref)[1] == null) {
+                    Files.deleteIfExists(ref.toPath());
+                    lock.delete();
+                } else {
+                    Files.move(lock.toPath(), ref.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+                locks.remove(lock);
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            throw Utils.error("Could not update refs: %s",
+                    excp.getMessage());
+        } finally {
+            /* Only locks still held: one already renamed may since have
+             * been taken by another process. */
+            for (File lock: locks) {
+                lock.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the lock file of REF.
+     * @param ref File
+     * @return File
+     */
+    static File lockFile(File ref) {
+        return LockFile.of(ref);
+    }
+
+    /**
+     * Returns true if NAME is the name of a lock file, which is not a
+     * valid branch name.
+     * @param name String
+     * @return boolean
+     */
+    static boolean isLockFile(String name) {
+        return name.endsWith(LOCK_SUFFIX);
+    }
+
+    /** The old and new value of each ref changed, in the order the refs
+     *  are locked, which is the same for every transaction so that two
+     *  transactions never wait for each other. */
+    private final TreeMap<File, String[]> _updates = new TreeMap<>();
+}
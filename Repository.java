@@ -0,0 +1,866 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static gitlet.Commit.*;
+import static gitlet.Stage.*;
+
+/**
+ * A Gitlet repository: a working directory and the .gitlet folder in it,
+ * which holds the object store, the refs and the staging area. Opening a
+ * directory always returns the same Repository, which owns everything
+ * commands read and keep about it: its paths, the state the command
+ * classes cache between commands, such as the index and the decoded
+ * commits, and the stream commands print to. A command runs with its
+ * repository bound to the calling thread, where the command classes find
+ * it through current(), and holds the repository's lock, so commands on
+ * one repository run one at a time while any number of repositories are
+ * used concurrently.
+ * @author Iram Morshed
+ */
+public final class Repository {
+
+    /**
+     * A repository in the working directory ROOT.
+     * @param root File
+     */
+    private Repository(File root) {
+        _root = root;
+        _gitletFolder = Utils.join(root, ".gitlet");
+        _blobObjects = Utils.join(_gitletFolder, "blobs");
+        _commitHistory = Utils.join(_gitletFolder, "commits_made");
+        _head = Utils.join(_gitletFolder, "HEAD");
+        _branchesFolder = Utils.join(_gitletFolder, "branches");
+        _currentBranch = Utils.join(_gitletFolder, "current_branch");
+    }
+
+    /**
+     * Returns the repository in the working directory ROOT, which need
+     * not be initialized yet.
+     * @param root File
+     * @return Repository
+     */
+    public static Repository open(File root) {
+        File canonical;
+        try {
+            canonical = root.getCanonicalFile();
+        } catch (IOException excp) {
+            throw Utils.error("Could not open %s: %s", root.getPath(),
+                    excp.getMessage());
+        }
+        return OPEN.computeIfAbsent(canonical, Repository::new);
+    }
+
+    /**
+     * Returns the repository the running command works on.
+     * @return Repository
+     */
+    static Repository current() {
+        Repository current = CURRENT.get();
+        if (current == null) {
+            throw new IllegalStateException("No repository is open.");
+        }
+        return current;
+    }
+
+    /**
+     * Returns the working directory of the current repository.
+     * @return File
+     */
+    static File cwd() {
+        return current()._root;
+    }
+
+    /**
+     * Returns the hidden gitlet folder of the current repository.
+     * @return File
+     */
+    static File gitletFolder() {
+        return current()._gitletFolder;
+    }
+
+    /**
+     * Returns the folder storing all blobs made.
+     * @return File
+     */
+    static File blobObjects() {
+        return current()._blobObjects;
+    }
+
+    /**
+     * Returns the folder storing the history of all commits made.
+     * @return File
+     */
+    static File commitHistory() {
+        return current()._commitHistory;
+    }
+
+    /**
+     * Returns the file storing the HEAD.
+     * @return File
+     */
+    static File headFile() {
+        return current()._head;
+    }
+
+    /**
+     * Returns the folder storing all branches initialized.
+     * @return File
+     */
+    static File branchesFolder() {
+        return current()._branchesFolder;
+    }
+
+    /**
+     * Returns the file storing the current branch.
+     * @return File
+     */
+    static File currentBranchFile() {
+        return current()._currentBranch;
+    }
+
+    /**
+     * Returns the stream the running command reads its input from.
+     * @return InputStream
+     */
+    static InputStream in() {
+        return current()._in;
+    }
+
+    /**
+     * Returns the stream the running command prints to.
+     * @return PrintStream
+     */
+    static PrintStream out() {
+        return current()._out;
+    }
+
+    /**
+     * Returns a file in the working directory named by PATH, which is
+     * relative to the working directory unless it is absolute.
+     * @param path String
+     * @return File
+     */
+    static File worktreeFile(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : Utils.join(cwd(), path);
+    }
+
+    /**
+     * Returns the state of KIND kept for as long as this repository is
+     * open, made by CREATE on first use. Each command class keeps its
+     * state in a class of its own; this is for caches of objects, which
+     * never change once written.
+     * @param kind Class<T>
+     * @param create Supplier<T>
+     * @param <T> type of the state
+     * @return T
+     */
+    <T> T state(Class<T> kind, Supplier<T> create) {
+        return kind.cast(_states.computeIfAbsent(kind, k -> create.get()));
+    }
+
+    /**
+     * Returns the state of KIND kept until the running command ends, made
+     * by CREATE on first use. This is for what is read from files that
+     * other processes may change between commands, such as the index,
+     * the commit graph and the list of packs.
+     * @param kind Class<T>
+     * @param create Supplier<T>
+     * @param <T> type of the state
+     * @return T
+     */
+    <T> T commandState(Class<T> kind, Supplier<T> create) {
+        return kind.cast(_commandStates.computeIfAbsent(kind,
+                k -> create.get()));
+    }
+
+    /**
+     * Returns the state of KIND read from FILE, made by CREATE when it is
+     * first used or when FILE has changed since. It is kept across
+     * commands, so that a process running many commands, such as the
+     * daemon, reads FILE again only after it has been written. Whether
+     * FILE has changed is checked once per command, by its inode, size
+     * and modification time; files modified less than RACY_MILLIS ago
+     * always count as changed, since a write within the same clock tick
+     * can keep all three. State changed by a command that fails is
+     * dropped, as its changes were never written.
+     * @param kind Class<T>
+     * @param file File
+     * @param create Supplier<T>
+     * @param <T> type of the state
+     * @return T
+     */
+    <T> T fileState(Class<T> kind, File file, Supplier<T> create) {
+        FileState state = _fileStates.get(kind);
+        if (state != null && state._command == _command) {
+            return kind.cast(state._value);
+        }
+        Object stamp = stamp(file);
+        if (state == null || !stamp.equals(state._stamp)) {
+            state = new FileState(create.get(), stamp);
+            _fileStates.put(kind, state);
+        }
+        state._command = _command;
+        return kind.cast(state._value);
+    }
+
+    /**
+     * Records that the state of KIND is now that of FILE, which the
+     * running command wrote and is about to move in place of the file
+     * the state was read from. Moving a file keeps its inode and times.
+     * @param kind Class<?>
+     * @param file File
+     */
+    void restamp(Class<?> kind, File file) {
+        FileState state = _fileStates.get(kind);
+        if (state != null) {
+            state._stamp = stamp(file);
+        }
+    }
+
+    /**
+     * Drops the state of KIND kept by fileState, after the running
+     * command replaced the file it was read from.
+     * @param kind Class<?>
+     */
+    void forget(Class<?> kind) {
+        _fileStates.remove(kind);
+    }
+
+    /**
+     * Returns what identifies the contents of FILE without reading it:
+     * its inode, size and modification time, or an object equal to no
+     * other if it is missing or was modified too recently to tell.
+     * @param file File
+     * @return Object
+     */
+    private static Object stamp(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(
+                    file.toPath(), BasicFileAttributes.class);
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (System.currentTimeMillis() - modified < RACY_MILLIS) {
+                return new Object();
+            }
+            return Arrays.asList(attributes.fileKey(), attributes.size(),
+                    attributes.lastModifiedTime());
+        } catch (IOException excp) {
+            return new Object();
+        }
+    }
+
+    /**
+     * Returns the working directory of this repository.
+     * @return File
+     */
+    public File root() {
+        return _root;
+    }
+
+    /**
+     * Returns true if this repository has been initialized.
+     * @return boolean
+     */
+    public boolean exists() {
+        return _gitletFolder.exists();
+    }
+
+    /** Drops the caches of this repository, so that a service working on
+     *  many repositories only keeps those of the ones in use. Opening its
+     *  directory again returns a new Repository. */
+    public void close() {
+        _lock.lock();
+        try {
+            _closed = true;
+            OPEN.remove(_root, this);
+            _states.clear();
+            _fileStates.clear();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the command ARGS, as given to the command line, printing its
+     * output and the message of any error it reports to OUT. Returns the
+     * exit status of the command: 0, or 1 if it reported an error.
+     * @param out PrintStream
+     * @param args String[]
+     * @return int
+     */
+    public int run(PrintStream out, String... args) throws IOException {
+        return run(InputStream.nullInputStream(), out, args);
+    }
+
+    /**
+     * Runs the command ARGS, as given to the command line, reading any
+     * input it takes, such as the commands of BATCH, from IN and printing
+     * its output and the message of any error it reports to OUT. A
+     * command run by another command on this repository shares its state
+     * and leaves writing the index to it, and an error it reports makes
+     * that command fail too. Returns the exit status of the command: 0,
+     * or 1 if it reported an error.
+     * @param in InputStream
+     * @param out PrintStream
+     * @param args String[]
+     * @return int
+     */
+    public int run(InputStream in, PrintStream out, String... args)
+            throws IOException {
+        _lock.lock();
+        if (_closed) {
+            _lock.unlock();
+            return open(_root).run(in, out, args);
+        }
+        Repository outer = CURRENT.get();
+        InputStream outerIn = _in;
+        PrintStream outerOut = _out;
+        CURRENT.set(this);
+        _in = in;
+        _out = out;
+        if (outer != this) {
+            _command += 1;
+            _failed = false;
+        }
+        boolean completed = false, failed = false;
+        try {
+            dispatch(args);
+            if (exists() && outer != this) {
+                Stage.flush();
+            }
+            completed = true;
+        } catch (GitletException excp) {
+            out.println(excp.getMessage());
+            failed = true;
+            _failed = true;
+        } finally {
+            out.flush();
+            if (outer != this) {
+                failed = _failed;
+                if (!completed) {
+                    _fileStates.clear();
+                }
+                _commandStates.clear();
+            }
+            _in = outerIn;
+            _out = outerOut;
+            CURRENT.set(outer);
+            _lock.unlock();
+        }
+        return failed ? 1 : 0;
+    }
+
+    /** Makes the running top-level command exit with status 1, as if it
+     *  had reported an error, such as BATCH when one of its commands
+     *  cannot be parsed. */
+    void markFailed() {
+        _failed = true;
+    }
+
+    /**
+     * Runs the command ARGS and returns what it printed.
+     * @param args String[]
+     * @return String
+     */
+    public String execute(String... args) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output, false,
+                StandardCharsets.UTF_8);
+        run(out, args);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs INIT, returning its output.
+     * @return String
+     */
+    public String init() throws IOException {
+        return execute("init");
+    }
+
+    /**
+     * Runs ADD of FILE, returning its output.
+     * @param file String
+     * @return String
+     */
+    public String add(String file) throws IOException {
+        return execute("add", file);
+    }
+
+    /**
+     * Runs COMMIT with MESSAGE, returning its output.
+     * @param message String
+     * @return String
+     */
+    public String commit(String message) throws IOException {
+        return execute("commit", message);
+    }
+
+    /**
+     * Runs RM of FILE, returning its output.
+     * @param file String
+     * @return String
+     */
+    public String rm(String file) throws IOException {
+        return execute("rm", file);
+    }
+
+    /**
+     * Runs LOG, returning its output.
+     * @return String
+     */
+    public String log() throws IOException {
+        return execute("log");
+    }
+
+    /**
+     * Runs STATUS, returning its output.
+     * @return String
+     */
+    public String status() throws IOException {
+        return execute("status");
+    }
+
+    /**
+     * Runs CHECKOUT with the operands ARGS, returning its output.
+     * @param args String[]
+     * @return String
+     */
+    public String checkout(String... args) throws IOException {
+        String[] command = new String[args.length + 1];
+        command[0] = "checkout";
+        System.arraycopy(args, 0, command, 1, args.length);
+        return execute(command);
+    }
+
+    /**
+     * Runs BRANCH with NAME, returning its output.
+     * @param name String
+     * @return String
+     */
+    public String branch(String name) throws IOException {
+        return execute("branch", name);
+    }
+
+    /**
+     * Runs RESET to the commit ID, returning its output.
+     * @param id String
+     * @return String
+     */
+    public String reset(String id) throws IOException {
+        return execute("reset", id);
+    }
+
+    /**
+     * Runs MERGE of the branch NAME, returning its output.
+     * @param name String
+     * @return String
+     */
+    public String merge(String name) throws IOException {
+        return execute("merge", name);
+    }
+
+    /**
+     * Returns how many times a commit was found already decoded in the
+     * commit cache of this repository, which it keeps until it is closed.
+     * @return long
+     */
+    public long commitCacheHits() {
+        _lock.lock();
+        try {
+            return bound(Commit::cacheHits);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many times a commit had to be read and decoded because
+     * the commit cache of this repository did not hold it.
+     * @return long
+     */
+    public long commitCacheMisses() {
+        _lock.lock();
+        try {
+            return bound(Commit::cacheMisses);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Runs ACTION with this repository bound to the calling thread, for
+     * work a command hands to other threads.
+     * @param action Supplier<T>
+     * @param <T> type of the result
+     * @return T
+     */
+    <T> T bound(Supplier<T> action) {
+        Repository outer = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            CURRENT.set(outer);
+        }
+    }
+
+    /** Runs the command ARGS.
+     * @param args <String[]></> */
+    private static void dispatch(String... args) throws IOException {
+        if (args.length == 0) {
+            throw Utils.error("Please enter a command.");
+        }
+        if (args[0].equals("init")) {
+            initCommand();
+            return;
+        }
+        if (args[0].equals("batch")) {
+            Batch.batch(args);
+            return;
+        }
+        if (!current().exists()) {
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        ObjectStore.ensureFanout();
+        switch (args[0]) {
+        case "add":
+            numArgs(args, 2);
+            if (args[1] == null) {
+                throw Utils.error("Must have a file to add.");
+            }
+            File addFile = worktreeFile(args[1]);
+            if (!addFile.exists()) {
+                throw Utils.error("File does not exist.");
+            }
+            Commit.add(addFile);
+            break;
+        case "commit":
+            numArgs(args, 2);
+            if (args[1] == null) {
+                throw Utils.error("Must have a message to commit.");
+            }
+            Commit.commit(args[1], null, false);
+            break;
+        case "log":
+            Commit.log();
+            break;
+        case "checkout":
+            Checkout.checkout(args);
+            break;
+        case "rm":
+            numArgs(args, 2);
+            if (args[1] == null) {
+                throw Utils.error("Must have a file to remove.");
+            }
+            File rmFile = worktreeFile(args[1]);
+            if (!rmFile.exists()) {
+                remove(Utils.relativePath(cwd(), rmFile));
+                break;
+            }
+            remove(rmFile);
+            break;
+        default:
+            dispatchTwo(args);
+        }
+    }
+
+    /** Second dispatch method since first was too long.
+     * @param args */
+    private static void dispatchTwo(String[] args) throws IOException {
+        switch (args[0]) {
+        case "global-log":
+            globalLogCommand(args);
+            break;
+        case "branch":
+            numArgs(args, 2);
+            Branch.branch(args[1]);
+            break;
+        case "status":
+            numArgs(args, 1);
+            statusCommand();
+            break;
+        case "find":
+            if (args.length == 3 && args[1].equals("--word")) {
+                findWords(args[2]);
+                break;
+            }
+            numArgs(args, 2);
+            find(args[1]);
+            break;
+        case "rm-branch":
+            numArgs(args, 2);
+            Branch.rmBranch(args[1]);
+            break;
+        case "reset":
+            numArgs(args, 2);
+            Checkout.reset(args[1]);
+            break;
+        case "merge":
+            numArgs(args, 2);
+            Branch.merge(args[1]);
+            break;
+        case "pack":
+            numArgs(args, 1);
+            Pack.pack();
+            break;
+        case "convert-commits":
+            numArgs(args, 1);
+            CommitCodec.convert();
+            break;
+        case "commit-graph":
+            numArgs(args, 1);
+            CommitGraph.rebuild();
+            break;
+        case "reindex":
+            numArgs(args, 1);
+            CommitGraph.reindex();
+            break;
+        case "diff":
+            Diff.diff(args);
+            break;
+        default:
+            throw Utils.error("No command with that name exists.");
+        }
+
+    }
+
+    /** Runs GLOBAL-LOG with the options in ARGS: --since TIME and
+     *  --until TIME, each at most once.
+     * @param args <String[]></> */
+    private static void globalLogCommand(String[] args) {
+        if (args.length == 1) {
+            globallog();
+            return;
+        }
+        long since = Long.MIN_VALUE, until = Long.MAX_VALUE;
+        if (args.length % 2 == 0) {
+            throw Utils.error("Incorrect operands.");
+        }
+        for (int i = 1; i < args.length; i += 2) {
+            if (args[i].equals("--since")) {
+                since = parseTime(args[i + 1], false);
+            } else if (args[i].equals("--until")) {
+                until = parseTime(args[i + 1], true);
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+        globallog(since, until);
+    }
+
+    /** Runs the INIT command. */
+    private static void initCommand() throws IOException {
+        Repository repo = current();
+        if (repo.exists()) {
+            throw Utils.error("A Gitlet version-control system "
+                    + "already exists in the current directory.");
+        }
+        repo._root.mkdirs();
+        repo._gitletFolder.mkdir();
+        repo._commitHistory.mkdir();
+        repo._blobObjects.mkdir();
+        repo._branchesFolder.mkdir();
+        repo._currentBranch.createNewFile();
+        repo._head.createNewFile();
+        ObjectStore.fanoutMarker().createNewFile();
+        new Stage(); new Commit();
+        new Branch("master", true, retrieveHead());
+    }
+
+    /** Runs the STATUS command. */
+    private static void statusCommand() {
+        List<String> branches = Branch.branchNames();
+        out().println("=== Branches ===");
+        String active = Branch.activeBranchName();
+        for (String branch: branches) {
+            if (branch.equals(active)) {
+                out().println("*" + branch);
+            } else {
+                out().println(branch);
+            }
+        }
+        out().println();
+        printStage();
+        out().println("=== Modifications Not Staged For Commit ===");
+        modNotStaged();
+        out().println();
+        out().println("=== Untracked Files ===");
+        untracked();
+        out().println();
+    }
+
+    /** Helper function for STATUS. Files in CWD are compared by blob
+     *  id, using the stat cache of the index to avoid reading them. */
+    private static void modNotStaged() {
+        Commit current = retrieveCommit(retrieveHead());
+        HashMap<String, String> currentBlobs = current.getBlobs();
+        List<String> modified = new ArrayList<>();
+        Set<String> cwd = new HashSet<>(Utils.plainFilenamesUnder(cwd()));
+        List<String> tracked = new ArrayList<>();
+        for (String file: cwd) {
+            if (currentBlobs.containsKey(file) && !stagedForRemove(file)) {
+                tracked.add(file);
+            }
+        }
+        Map<String, String> cwdIDs = Stage.worktreeIDs(tracked);
+        for (String file: tracked) {
+            String expected = stagedForAdd(file)
+                    ? Stage.entry(file).uniqueID() : currentBlobs.get(file);
+            if (!cwdIDs.get(file).equals(expected)) {
+                modified.add(file + " (modified)");
+            }
+        }
+        for (String file: Stage.stagedForAdd()) {
+            if (!cwd.contains(file)) {
+                modified.add(file + " (deleted)");
+            }
+        }
+
+        for (String file: currentBlobs.keySet()) {
+            if (!stagedForRemove(file) && !cwd.contains(file)) {
+                modified.add(file + " (deleted)");
+            }
+        }
+        Collections.sort(modified);
+        for (String file: modified) {
+            out().println(file);
+        }
+    }
+
+    /** Helper function for printing UNTRACKED files. */
+    private static void untracked() {
+        Commit current = retrieveCommit(retrieveHead());
+        HashMap<String, String> currentBlobs = current.getBlobs();
+        List<String> untracked = new ArrayList<>();
+        for (String file: Utils.plainFilenamesUnder(cwd())) {
+            if (!stagedForAdd(file) && !currentBlobs.containsKey(file)) {
+                untracked.add(file);
+            }
+        }
+        Collections.sort(untracked);
+        for (String file: untracked) {
+            out().println(file);
+        }
+    }
+
+    /** Validates number of arguments.
+     * @param num <int></>
+     * @param args <String[]></>
+     * */
+    static void numArgs(String[] args, int num) {
+        if (args.length != num) {
+            throw Utils.error("Must have " + num + " argument(s).");
+        }
+    }
+
+    /** The repositories opened by this process, by working directory. */
+    private static final ConcurrentHashMap<File, Repository> OPEN =
+            new ConcurrentHashMap<>();
+
+    /** The repository bound to each thread running a command. */
+    private static final ThreadLocal<Repository> CURRENT =
+            new ThreadLocal<>();
+
+    /** Working directory. */
+    private final File _root;
+
+    /** Hidden gitlet folder. */
+    private final File _gitletFolder;
+
+    /** Stores all Blobs made. */
+    private final File _blobObjects;
+
+    /** Stores the history of all commits made. */
+    private final File _commitHistory;
+
+    /** Stores the HEAD. */
+    private final File _head;
+
+    /** Stores the list of all branches initialized. */
+    private final File _branchesFolder;
+
+    /** Stores the current branch. */
+    private final File _currentBranch;
+
+    /** Held by the command running on this repository. */
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /** The state of each command class kept while this repository is
+     *  open. */
+    private final ConcurrentHashMap<Class<?>, Object> _states =
+            new ConcurrentHashMap<>();
+
+    /** The state of each command class kept for the running command. */
+    private final ConcurrentHashMap<Class<?>, Object> _commandStates =
+            new ConcurrentHashMap<>();
+
+    /** Where the running command reads its input. */
+    private InputStream _in;
+
+    /** Where the running command prints. */
+    private PrintStream _out;
+
+    /** True once this repository is closed; commands run on it go to
+     *  the Repository its directory opens to instead. */
+    private volatile boolean _closed;
+
+    /** The state of each command class read from a file, kept while the
+     *  file is unchanged. */
+    private final ConcurrentHashMap<Class<?>, FileState> _fileStates =
+            new ConcurrentHashMap<>();
+
+    /** True if the running top-level command, or a command it ran,
+     *  reported an error. */
+    private boolean _failed;
+
+    /** Number of commands run on this repository, which tells fileState
+     *  whether its file was checked by the running command. */
+    private long _command;
+
+    /** Files modified less than this many milliseconds ago may change
+     *  again without changing their stamp. */
+    private static final long RACY_MILLIS = 2000;
+
+    /** State read from a file, with the stamp of that file. */
+    private static final class FileState {
+
+        /**
+         * State VALUE read from a file with STAMP.
+         * @param value Object
+         * @param stamp Object
+         */
+        FileState(Object value, Object stamp) {
+            _value = value;
+            _stamp = stamp;
+        }
+
+        /** The state. */
+        private final Object _value;
+
+        /** The stamp of the file it was read from. */
+        private Object _stamp;
+
+        /** The last command that checked the stamp. */
+        private long _command;
+    }
+}
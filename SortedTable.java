@@ -0,0 +1,427 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A persistent multimap from byte-string keys to ints, kept in a sorted
+ * file that is searched by binary search through a memory map. New
+ * entries are appended to a journal beside the file, which is merged
+ * into it once it holds JOURNAL_LIMIT entries, so adding an entry does
+ * not rewrite the table. The sorted file starts with the magic "GLST",
+ * a version int and the entry count, followed by the offset of every
+ * entry in key order and then the entries themselves: a key length
+ * short, the key bytes and the value int. The journal holds entries in
+ * the same form, in the order they were added. Tables are written only
+ * under the lock of the commit graph they index, so merging the journal
+ * cannot drop entries that another process appends to it.
+ * @author Iram Morshed
+ */
+final class SortedTable {
+
+    /** An entry of a table. */
+    static final class Entry implements Comparable<Entry> {
+
+        /**
+         * An entry from KEY to VALUE.
+         * @param key byte[]
+         * @param value int
+         */
+        Entry(byte[] key, int value) {
+            _key = key;
+            _value = value;
+        }
+
+        /**
+         * Returns the key.
+         * @return byte[]
+         */
+        byte[] key() {
+            return _key;
+        }
+
+        /**
+         * Returns the value.
+         * @return int
+         */
+        int value() {
+            return _value;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int cmp = Arrays.compareUnsigned(_key, other._key);
+            return cmp != 0 ? cmp : Integer.compare(_value, other._value);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && compareTo((Entry) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(_key) * 31 + _value;
+        }
+
+        /** The key. */
+        private final byte[] _key;
+
+        /** The value. */
+        private final int _value;
+    }
+
+    /** First bytes of a sorted table file. */
+    private static final byte[] MAGIC = {'G', 'L', 'S', 'T'};
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Bytes before the entry offsets. */
+    private static final int HEADER = 12;
+
+    /** Journal entries at which the journal is merged into the table. */
+    static final int JOURNAL_LIMIT = 1024;
+
+    /**
+     * A table stored in FILE, with its journal in FILE.journal.
+     * @param file File
+     */
+    SortedTable(File file) {
+        _file = file;
+        _journalFile = new File(file.getPath() + ".journal");
+    }
+
+    /**
+     * Returns true if the table has been written.
+     * @return boolean
+     */
+    boolean exists() {
+        return _file.exists();
+    }
+
+    /**
+     * Returns the values of the entries whose key is KEY, in increasing
+     * order and without duplicates.
+     * @param key byte[]
+     * @return List<Integer>
+     */
+    List<Integer> get(byte[] key) {
+        TreeSet<Integer> values = new TreeSet<>();
+        for (Entry entry: withPrefix(key)) {
+            if (entry.key().length == key.length) {
+                values.add(entry.value());
+            }
+        }
+        return new ArrayList<>(values);
+    }
+
+    /**
+     * Returns the entries whose key starts with PREFIX, in order and
+     * without duplicates.
+     * @param prefix byte[]
+     * @return List<Entry>
+     */
+    List<Entry> withPrefix(byte[] prefix) {
+        TreeSet<Entry> result = new TreeSet<>();
+        MappedByteBuffer table = table();
+        int count = count(table);
+        for (int i = lowerBound(table, prefix); i < count; i += 1) {
+            byte[] key = keyAt(table, i);
+            if (!startsWith(key, prefix)) {
+                break;
+            }
+            result.add(new Entry(key, valueAt(table, i)));
+        }
+        for (Entry entry: journal()) {
+            if (startsWith(entry.key(), prefix)) {
+                result.add(entry);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Returns the entries whose key is at least FROM and less than TO,
+     * in order and without duplicates. TO may be null for no limit.
+     * @param from byte[]
+     * @param to byte[]
+     * @return List<Entry>
+     */
+    List<Entry> range(byte[] from, byte[] to) {
+        TreeSet<Entry> result = new TreeSet<>();
+        MappedByteBuffer table = table();
+        int end = to == null ? count(table) : lowerBound(table, to);
+        for (int i = lowerBound(table, from); i < end; i += 1) {
+            result.add(new Entry(keyAt(table, i), valueAt(table, i)));
+        }
+        for (Entry entry: journal()) {
+            if (Arrays.compareUnsigned(entry.key(), from) >= 0
+                    && (to == null
+                    || Arrays.compareUnsigned(entry.key(), to) < 0)) {
+                result.add(entry);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Drops the table and journal as read, so that they are read again
+     *  with any entries another process has since added. */
+    void reload() {
+        _table = null;
+        _journal = null;
+    }
+
+    /**
+     * Adds an entry from KEY to VALUE, merging the journal into the
+     * table once it is full.
+     * @param key byte[]
+     * @param value int
+     */
+    void add(byte[] key, int value) {
+        Entry entry = new Entry(key, value);
+        journal();
+        try (OutputStream out = new FileOutputStream(_journalFile, true)) {
+            out.write(encode(entry));
+        } catch (IOException excp) {
+            throw Utils.error("Could not write %s: %s",
+                    _journalFile.getName(), excp.getMessage());
+        }
+        _journal.add(entry);
+        if (_journal.size() >= JOURNAL_LIMIT) {
+            TreeSet<Entry> all = new TreeSet<>(_journal);
+            all.addAll(withPrefix(new byte[0]));
+            rewrite(all);
+        }
+    }
+
+    /**
+     * Replaces the contents of the table with ENTRIES.
+     * @param entries Collection<Entry>
+     */
+    void rewrite(Collection<Entry> entries) {
+        TreeSet<Entry> sorted = new TreeSet<>(entries);
+        File temp;
+        try {
+            temp = Files.createTempFile(_file.getParentFile().toPath(),
+                    _file.getName(), ".tmp").toFile();
+        } catch (IOException excp) {
+            throw Utils.error("Could not write %s: %s", _file.getName(),
+                    excp.getMessage());
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            int offset = HEADER + sorted.size() * 4;
+            for (Entry entry: sorted) {
+                out.writeInt(offset);
+                offset += 2 + entry.key().length + 4;
+            }
+            for (Entry entry: sorted) {
+                out.write(encode(entry));
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw Utils.error("Could not write %s: %s", _file.getName(),
+                    excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), _file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            temp.delete();
+            throw Utils.error("Could not replace %s: %s", _file.getName(),
+                    excp.getMessage());
+        }
+        _journalFile.delete();
+        _table = null;
+        _journal = new ArrayList<>();
+    }
+
+    /**
+     * Returns ENTRY as it is stored.
+     * @param entry Entry
+     * @return byte[]
+     */
+    private static byte[] encode(Entry entry) {
+        if (entry.key().length > Short.MAX_VALUE) {
+            throw Utils.error("Key of %d bytes is too long to index.",
+                    entry.key().length);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(entry.key().length);
+            out.write(entry.key());
+            out.writeInt(entry.value());
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding entry.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the number of entries in TABLE, which may be null.
+     * @param table MappedByteBuffer
+     * @return int
+     */
+    private static int count(MappedByteBuffer table) {
+        return table == null ? 0 : table.getInt(HEADER - 4);
+    }
+
+    /**
+     * Returns the index of the first entry of TABLE whose key is at
+     * least KEY.
+     * @param table MappedByteBuffer
+     * @param key byte[]
+     * @return int
+     */
+    private static int lowerBound(MappedByteBuffer table, byte[] key) {
+        int lo = 0, hi = count(table);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(keyAt(table, mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the key of entry I of TABLE.
+     * @param table MappedByteBuffer
+     * @param i int
+     * @return byte[]
+     */
+    private static byte[] keyAt(MappedByteBuffer table, int i) {
+        int offset = table.getInt(HEADER + i * 4);
+        byte[] key = new byte[table.getShort(offset)];
+        table.get(offset + 2, key);
+        return key;
+    }
+
+    /**
+     * Returns the value of entry I of TABLE.
+     * @param table MappedByteBuffer
+     * @param i int
+     * @return int
+     */
+    private static int valueAt(MappedByteBuffer table, int i) {
+        int offset = table.getInt(HEADER + i * 4);
+        return table.getInt(offset + 2 + table.getShort(offset));
+    }
+
+    /**
+     * Returns true if KEY starts with PREFIX.
+     * @param key byte[]
+     * @param prefix byte[]
+     * @return boolean
+     */
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length && Arrays.equals(key, 0,
+                prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * Returns the mapped table file, or null if it does not exist.
+     * @return MappedByteBuffer
+     */
+    private MappedByteBuffer table() {
+        if (_table == null && _file.exists()) {
+            try (FileChannel channel = FileChannel.open(_file.toPath(),
+                    StandardOpenOption.READ)) {
+                _table = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException excp) {
+                throw Utils.error("Could not map %s: %s", _file.getName(),
+                        excp.getMessage());
+            }
+            byte[] magic = new byte[MAGIC.length];
+            if (_table.limit() >= HEADER) {
+                _table.get(0, magic);
+            }
+            if (!Arrays.equals(magic, MAGIC)
+                    || _table.getInt(MAGIC.length) != VERSION) {
+                _table = null;
+                throw Utils.error("%s is corrupt; run reindex.",
+                        _file.getName());
+            }
+        }
+        return _table;
+    }
+
+    /**
+     * Returns the entries of the journal, reading it on first use. A
+     * partly written last entry is cut off.
+     * @return List<Entry>
+     */
+    private List<Entry> journal() {
+        if (_journal == null) {
+            _journal = new ArrayList<>();
+            if (_journalFile.exists()) {
+                ByteBuffer in = ByteBuffer.wrap(
+                        Utils.readContents(_journalFile));
+                while (in.remaining() >= 2) {
+                    int length = in.getShort(in.position());
+                    if (in.remaining() < 2 + length + 4) {
+                        break;
+                    }
+                    in.getShort();
+                    byte[] key = new byte[length];
+                    in.get(key);
+                    _journal.add(new Entry(key, in.getInt()));
+                }
+                if (in.hasRemaining()) {
+                    truncateJournal(in.position());
+                }
+            }
+        }
+        return _journal;
+    }
+
+    /**
+     * Cuts the journal file off after its first LENGTH bytes.
+     * @param length long
+     */
+    private void truncateJournal(long length) {
+        try (FileChannel channel = FileChannel.open(_journalFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        } catch (IOException excp) {
+            throw Utils.error("Could not repair %s: %s",
+                    _journalFile.getName(), excp.getMessage());
+        }
+    }
+
+    /** The sorted table file. */
+    private final File _file;
+
+    /** The journal of entries added since the table was written. */
+    private final File _journalFile;
+
+    /** The mapped table file, or null before first use. */
+    private MappedByteBuffer _table;
+
+    /** The entries of the journal, or null before first use. */
+    private List<Entry> _journal;
+}
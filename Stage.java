@@ -1,86 +1,324 @@
 package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import static gitlet.Main.GITLET_FOLDER;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static gitlet.Repository.cwd;
+import static gitlet.Repository.gitletFolder;
+import static gitlet.Repository.out;
 
 /**
+ * The STAGING AREA, kept in the binary index file .gitlet/index. The index is
+ * read once per command into a map sorted by file name and written back
+ * atomically by flush() if the command changed it. It starts with the
+ * magic "GLSI", a version int and the number of entries, followed by
+ * the entries in order of name: the name, the file mode, size,
+ * modification time in nanoseconds and inode when it was last hashed,
+ * the binary blob id and the stage flags. Files staged for addition are
+ * stored as blobs when they are added; files staged for removal keep the
+ * id of the removed blob.
+ *
+ * Entries without stage flags are a stat cache: they remember the blob
+ * id of a file in CWD together with its stat data, so that STATUS does
+ * not have to read files whose stat data has not changed. A file
+ * modified within the same clock tick as the index was written could
+ * still have the stat data of its entry; such racy entries are written
+ * with a size of -1 so that the file is hashed again next time.
+ *
+ * flush() holds the LockFile of the index, index.lock, while it reads
+ * the index again, writes the new index into the lock and renames it
+ * over the index. If another process wrote the index since this command
+ * read it, only the entries this command changed replace theirs.
  * @author Iram Morshed
  */
 public final class Stage implements Serializable {
-    /** STAGING AREA for added files using ADD command. */
-    static final File STAGED_FOR_ADDITION =
-            Utils.join(GITLET_FOLDER, "staged_for_addition");
 
-    /** STAGING AREA for removed files using RM command. */
-    static final File STAGED_FOR_REMOVAL =
-            Utils.join(GITLET_FOLDER, "staged_for_removal");
+    /**
+     * Returns the index file holding the STAGING AREA.
+     * @return File
+     */
+    static File indexFile() {
+        return Utils.join(gitletFolder(), "index");
+    }
+
+    /**
+     * Returns the STAGING AREA for added files of older versions, which
+     * kept a copy of each staged file. Migrated into the index on first
+     * use.
+     * @return File
+     */
+    static File stagedForAdditionFolder() {
+        return Utils.join(gitletFolder(), "staged_for_addition");
+    }
+
+    /**
+     * Returns the STAGING AREA for removed files of older versions.
+     * @return File
+     */
+    static File stagedForRemovalFolder() {
+        return Utils.join(gitletFolder(), "staged_for_removal");
+    }
+
+    /** Stage flag of a file staged for addition. */
+    static final int ADDED = 1;
+
+    /** Stage flag of a file staged for removal. */
+    static final int REMOVED = 2;
+
+    /** Mode of a plain file. */
+    static final int MODE_FILE = 0100644;
+
+    /** Mode of an executable file. */
+    static final int MODE_EXECUTABLE = 0100755;
+
+    /** Fewest files that are hashed in parallel; fewer are hashed
+     *  without starting the threads of a parallel stream. */
+    private static final int PARALLEL_MIN = 16;
+
+    /** First bytes of the index file. */
+    private static final byte[] MAGIC = {'G', 'L', 'S', 'I'};
+
+    /** Version of the index format. */
+    private static final int VERSION = 2;
+
+    /** Size of an entry whose stat data must not be trusted. */
+    private static final long SMUDGED = -1;
+
+    /** An entry of the index. */
+    static final class Entry {
+
+        /**
+         * An entry for the blob UNIQUEID with FLAGS, hashed from a file
+         * with MODE, SIZE, MTIME and INODE.
+         * @param mode int
+         * @param size long
+         * @param mtime long
+         * @param inode long
+         * @param uniqueID String
+         * @param flags int
+         */
+        Entry(int mode, long size, long mtime, long inode, String uniqueID,
+              int flags) {
+            _mode = mode;
+            _size = size;
+            _mtime = mtime;
+            _inode = inode;
+            _uniqueID = uniqueID;
+            _flags = flags;
+        }
+
+        /**
+         * Returns the mode of the staged file.
+         * @return int
+         */
+        int mode() {
+            return _mode;
+        }
+
+        /**
+         * Returns the size of the staged file.
+         * @return long
+         */
+        long size() {
+            return _size;
+        }
+
+        /**
+         * Returns the modification time in nanoseconds of the staged
+         * file.
+         * @return long
+         */
+        long mtime() {
+            return _mtime;
+        }
+
+        /**
+         * Returns the inode of the staged file, or 0 if it is unknown.
+         * @return long
+         */
+        long inode() {
+            return _inode;
+        }
+
+        /**
+         * Returns the id of the staged blob.
+         * @return String
+         */
+        String uniqueID() {
+            return _uniqueID;
+        }
+
+        /**
+         * Returns the stage flags.
+         * @return int
+         */
+        int flags() {
+            return _flags;
+        }
+
+        /**
+         * Returns this entry with FLAGS.
+         * @param flags int
+         * @return Entry
+         */
+        Entry withFlags(int flags) {
+            return new Entry(_mode, _size, _mtime, _inode, _uniqueID, flags);
+        }
+
+        /**
+         * Returns true if this entry has the stat data of OTHER and may
+         * be trusted.
+         * @param other Entry
+         * @return boolean
+         */
+        boolean sameStat(Entry other) {
+            return _size != SMUDGED && _size == other._size
+                    && _mtime == other._mtime && _inode == other._inode
+                    && _mode == other._mode;
+        }
+
+        /**
+         * Returns true if this entry, as read from the index, is OTHER
+         * as written to it, where a racy size is written as SMUDGED.
+         * @param other Entry
+         * @return boolean
+         */
+        boolean writtenFrom(Entry other) {
+            return (_size == SMUDGED || _size == other._size)
+                    && _mtime == other._mtime && _inode == other._inode
+                    && _mode == other._mode && _flags == other._flags
+                    && _uniqueID.equals(other._uniqueID);
+        }
 
-    /** Declares the directory for STAGE ADD and STAGE REMOVE. */
+        /** Mode of the staged file. */
+        private final int _mode;
+
+        /** Size of the staged file. */
+        private final long _size;
+
+        /** Modification time of the staged file. */
+        private final long _mtime;
+
+        /** Inode of the staged file. */
+        private final long _inode;
+
+        /** Id of the staged blob. */
+        private final String _uniqueID;
+
+        /** Stage flags. */
+        private final int _flags;
+    }
+
+    /** Creates the empty STAGING AREA of a new repository. */
     public Stage() {
-        STAGED_FOR_ADDITION.mkdir();
-        STAGED_FOR_REMOVAL.mkdir();
+        state()._entries = new TreeMap<>();
+        state()._dirty = true;
+        flush();
     }
 
-    /** Clears the staging area. */
-    public static void clearStage() {
-        List<String> filesStageAdd =
-                Utils.plainFilenamesIn(STAGED_FOR_ADDITION);
-        List<String> filesStageRemove =
-                Utils.plainFilenamesIn(STAGED_FOR_REMOVAL);
+    /**
+     * Stages SOURCE for addition as the file NAME, storing its contents
+     * as a blob.
+     * @param name String
+     * @param source File
+     */
+    static void stageForAdd(String name, File source) {
+        Entry stat = stat(source, null, ADDED);
+        String uniqueID = new Blob(name, source).getBlobID();
+        entries().put(name, new Entry(stat.mode(), stat.size(),
+                stat.mtime(), stat.inode(), uniqueID, ADDED));
+        state()._dirty = true;
+    }
 
-        for (String file: filesStageAdd) {
-            File delete = Utils.join(STAGED_FOR_ADDITION, file);
-            if (!delete.exists()) {
-                throw Utils.error("File does not "
-                        + "exist in STAGE ADD even "
-                        + "though in list of filenames.");
-            }
-            delete.delete();
+    /**
+     * Stages the file NAME, tracked as the blob UNIQUEID, for removal.
+     * @param name String
+     * @param uniqueID String
+     */
+    static void stageForRemove(String name, String uniqueID) {
+        entries().put(name,
+                new Entry(MODE_FILE, SMUDGED, 0, 0, uniqueID, REMOVED));
+        state()._dirty = true;
+    }
+
+    /**
+     * Removes NAME from the STAGING AREA.
+     * @param name String
+     */
+    static void unstage(String name) {
+        if (entries().remove(name) != null) {
+            state()._dirty = true;
         }
+    }
 
-        for (String file: filesStageRemove) {
-            File delete = Utils.join(STAGED_FOR_REMOVAL, file);
-            if (!delete.exists()) {
-                throw Utils.error("File does not exist in STAGE REMOVE "
-                        + "even though in list of filenames.");
+    /** Clears the staging area. The entries of files staged for
+     *  addition are kept as stat cache entries. */
+    public static void clearStage() {
+        Iterator<Map.Entry<String, Entry>> iterator =
+                entries().entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> item = iterator.next();
+            if (item.getValue().flags() == REMOVED) {
+                iterator.remove();
+                state()._dirty = true;
+            } else if (item.getValue().flags() != 0) {
+                item.setValue(item.getValue().withFlags(0));
+                state()._dirty = true;
             }
-            delete.delete();
         }
     }
 
     /** Prints the files inside the STAGING AREA;
      * used for STATUS. */
     public static void printStage() {
-        List<String> filesStageAdd =
-                Utils.plainFilenamesIn(STAGED_FOR_ADDITION);
-        List<String> filesStageRemove =
-                Utils.plainFilenamesIn(STAGED_FOR_REMOVAL);
-
-        System.out.println("=== Staged Files ===");
-        for (String file: filesStageAdd) {
-            System.out.println(file);
+        out().println("=== Staged Files ===");
+        for (String file: stagedForAdd()) {
+            out().println(file);
         }
 
-        System.out.println();
+        out().println();
 
-        System.out.println("=== Removed Files ===");
-        for (String file: filesStageRemove) {
-            System.out.println(file);
+        out().println("=== Removed Files ===");
+        for (String file: stagedForRemove()) {
+            out().println(file);
         }
 
-        System.out.println();
+        out().println();
     }
 
     /** Returns true if STAGING AREA is clear. */
     public static boolean isStageClear() {
-        return Utils.plainFilenamesIn(STAGED_FOR_ADDITION).isEmpty()
-                && Utils.plainFilenamesIn(STAGED_FOR_REMOVAL).isEmpty();
+        for (Entry entry: entries().values()) {
+            if (entry.flags() != 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /** Returns true if FILE is in STAGEADD. */
     public static boolean stagedForAdd(String file) {
-        return Utils.plainFilenamesIn(STAGED_FOR_ADDITION).contains(file);
+        Entry entry = entries().get(file);
+        return entry != null && entry.flags() == ADDED;
     }
 
     /**
@@ -89,7 +327,374 @@ public final class Stage implements Serializable {
      * @return boolean
      */
     public static boolean stagedForRemove(String file) {
-        return Utils.plainFilenamesIn(STAGED_FOR_REMOVAL).contains(file);
+        Entry entry = entries().get(file);
+        return entry != null && entry.flags() == REMOVED;
+    }
+
+    /**
+     * Returns the names of the files staged for addition, in order.
+     * @return List<String>
+     */
+    public static List<String> stagedForAdd() {
+        return namesWith(ADDED);
+    }
+
+    /**
+     * Returns the names of the files staged for removal, in order.
+     * @return List<String>
+     */
+    public static List<String> stagedForRemove() {
+        return namesWith(REMOVED);
     }
 
+    /**
+     * Returns the index entry of FILE, or null if it is not staged.
+     * @param file String
+     * @return Entry
+     */
+    static Entry entry(String file) {
+        return entries().get(file);
+    }
+
+    /**
+     * Returns the blob ids of the contents of the files NAMES in CWD,
+     * which must exist. Files whose stat data matches their entry are
+     * not read; the others are hashed, in parallel if there are at least
+     * PARALLEL_MIN of them, and their ids kept in the stat cache. Stat
+     * cache entries of other files are dropped.
+     * @param names Collection<String>
+     * @return Map<String, String>
+     */
+    static Map<String, String> worktreeIDs(Collection<String> names) {
+        Map<String, String> ids = new TreeMap<>();
+        Map<String, Entry> suspicious = new TreeMap<>();
+        for (String name: names) {
+            Entry cached = entries().get(name);
+            Entry current = stat(Utils.join(cwd(), name), null, 0);
+            if (cached != null && cached.flags() != REMOVED
+                    && cached.sameStat(current)) {
+                ids.put(name, cached.uniqueID());
+            } else {
+                suspicious.put(name, current);
+            }
+        }
+        File cwd = cwd();
+        Map<String, String> hashed = new HashMap<>();
+        if (suspicious.size() < PARALLEL_MIN) {
+            for (String name: suspicious.keySet()) {
+                hashed.put(name, Utils.sha1(Utils.join(cwd, name)));
+            }
+        } else {
+            hashed = suspicious.keySet().parallelStream()
+                    .collect(Collectors.toConcurrentMap(name -> name,
+                            name -> Utils.sha1(Utils.join(cwd, name))));
+        }
+        for (Map.Entry<String, Entry> item: suspicious.entrySet()) {
+            String name = item.getKey(), uniqueID = hashed.get(name);
+            ids.put(name, uniqueID);
+            Entry cached = entries().get(name);
+            if (cached == null || cached.flags() == 0) {
+                Entry stat = item.getValue();
+                entries().put(name, new Entry(stat.mode(), stat.size(),
+                        stat.mtime(), stat.inode(), uniqueID, 0));
+                state()._dirty = true;
+            }
+        }
+        Iterator<Map.Entry<String, Entry>> iterator =
+                entries().entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> item = iterator.next();
+            if (item.getValue().flags() == 0
+                    && !ids.containsKey(item.getKey())) {
+                iterator.remove();
+                state()._dirty = true;
+            }
+        }
+        return ids;
+    }
+
+    /** Writes the index back to the index file if it was changed, replacing the
+     *  old index atomically. The index is locked while it is read again
+     *  and written, and if another process wrote it since this command
+     *  read it, the entries this command changed are merged into the
+     *  ones written by the other process. */
+    public static void flush() {
+        State state = state();
+        if (!state._dirty) {
+            return;
+        }
+        File lock;
+        try {
+            lock = LockFile.acquire(indexFile(), "the index",
+                    LockFile.timeout());
+        } catch (IOException excp) {
+            throw Utils.error("Could not lock the index: %s",
+                    excp.getMessage());
+        }
+        boolean moved = false;
+        try {
+            byte[] current = indexFile().isFile()
+                    ? Utils.readContents(indexFile()) : null;
+            if (!Arrays.equals(current, state._contents)) {
+                state._entries = merge(state._contents, current,
+                        state._entries);
+            }
+            byte[] contents = encode(state._entries);
+            Files.write(lock.toPath(), contents);
+            Repository.current().restamp(State.class, lock);
+            Files.move(lock.toPath(), indexFile().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+            state._contents = contents;
+        } catch (IOException excp) {
+            throw Utils.error("Could not replace the index: %s",
+                    excp.getMessage());
+        } finally {
+            if (!moved) {
+                lock.delete();
+            }
+        }
+        state._dirty = false;
+    }
+
+    /**
+     * Returns the entries of the index with contents CURRENT, or null
+     * if it does not exist, with the changes that made OURS from the
+     * index with contents BASE applied to them.
+     * @param base byte[]
+     * @param current byte[]
+     * @param ours TreeMap<String, Entry>
+     * @return TreeMap<String, Entry>
+     */
+    private static TreeMap<String, Entry> merge(byte[] base, byte[] current,
+                                                TreeMap<String, Entry> ours) {
+        TreeMap<String, Entry> old = new TreeMap<>(),
+                merged = new TreeMap<>();
+        if (base != null) {
+            read(base, old);
+        }
+        if (current != null) {
+            read(current, merged);
+        }
+        for (Map.Entry<String, Entry> item: old.entrySet()) {
+            if (!ours.containsKey(item.getKey())) {
+                merged.remove(item.getKey());
+            }
+        }
+        for (Map.Entry<String, Entry> item: ours.entrySet()) {
+            Entry read = old.get(item.getKey());
+            if (read == null || !read.writtenFrom(item.getValue())) {
+                merged.put(item.getKey(), item.getValue());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Returns ENTRIES as they are stored in the index file.
+     * @param entries TreeMap<String, Entry>
+     * @return byte[]
+     */
+    private static byte[] encode(TreeMap<String, Entry> entries) {
+        long racy = TimeUnit.SECONDS.toNanos(
+                TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item: entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeInt(entry.mode());
+                out.writeLong(entry.mtime() >= racy ? SMUDGED : entry.size());
+                out.writeLong(entry.mtime());
+                out.writeLong(entry.inode());
+                out.write(Pack.toBinary(entry.uniqueID()));
+                out.writeByte(entry.flags());
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding the index.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the names of the entries with FLAGS, in order.
+     * @param flags int
+     * @return List<String>
+     */
+    private static List<String> namesWith(int flags) {
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Entry> item: entries().entrySet()) {
+            if (item.getValue().flags() == flags) {
+                names.add(item.getKey());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the mode of FILE.
+     * @param file File
+     * @return int
+     */
+    static int modeOf(File file) {
+        return file.canExecute() ? MODE_EXECUTABLE : MODE_FILE;
+    }
+
+    /**
+     * Returns an entry with the stat data of FILE, the id UNIQUEID and
+     * FLAGS.
+     * @param file File
+     * @param uniqueID String
+     * @param flags int
+     * @return Entry
+     */
+    static Entry stat(File file, String uniqueID, int flags) {
+        Path path = file.toPath();
+        try {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(path, BasicFileAttributes.class);
+            return new Entry(modeOf(file), attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    inodeOf(path), uniqueID, flags);
+        } catch (IOException excp) {
+            throw Utils.error("Could not stat %s: %s", file.getName(),
+                    excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the inode of the file at PATH, or 0 where inodes are not
+     * available.
+     * @param path Path
+     * @return long
+     */
+    private static long inodeOf(Path path) {
+        try {
+            return ((Number) Files.getAttribute(path, "unix:ino"))
+                    .longValue();
+        } catch (UnsupportedOperationException | IllegalArgumentException
+                 | IOException excp) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the entries of the index, reading the index file on first use.
+     * @return TreeMap<String, Entry>
+     */
+    private static TreeMap<String, Entry> entries() {
+        State state = state();
+        if (state._entries == null) {
+            state._entries = new TreeMap<>();
+            if (indexFile().exists()) {
+                state._contents = Utils.readContents(indexFile());
+                read(state._contents, state._entries);
+            }
+            if (stagedForAdditionFolder().isDirectory()
+                    || stagedForRemovalFolder().isDirectory()) {
+                migrate();
+            }
+        }
+        return state._entries;
+    }
+
+    /**
+     * Reads the entries of the index with CONTENTS into ENTRIES.
+     * @param contents byte[]
+     * @param entries TreeMap<String, Entry>
+     */
+    private static void read(byte[] contents,
+                             TreeMap<String, Entry> entries) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(contents))) {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            int version = Arrays.equals(magic, MAGIC) ? in.readInt() : 0;
+            if (version != 1 && version != VERSION) {
+                throw Utils.error("The index is corrupt.");
+            }
+            int count = in.readInt();
+            byte[] id = new byte[Pack.ID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                String name = in.readUTF();
+                int mode = in.readInt();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = 0;
+                if (version == 1) {
+                    size = SMUDGED;
+                } else {
+                    inode = in.readLong();
+                }
+                in.readFully(id);
+                int flags = in.readUnsignedByte();
+                entries.put(name, new Entry(mode, size, mtime, inode,
+                        Pack.toHex(id), flags));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read the index: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Moves the files staged by older versions, which kept copies of
+     *  them in the staged_for_addition and staged_for_removal folders,
+     *  into the index and removes those directories. */
+    private static void migrate() {
+        File added = stagedForAdditionFolder();
+        File removed = stagedForRemovalFolder();
+        for (String name: legacyFilesIn(added)) {
+            stageForAdd(name, Utils.join(added, name));
+        }
+        for (String name: legacyFilesIn(removed)) {
+            stageForRemove(name, Utils.sha1(Utils.join(removed, name)));
+        }
+        state()._dirty = true;
+        flush();
+        for (File dir: new File[] {added, removed}) {
+            for (String name: legacyFilesIn(dir)) {
+                Utils.join(dir, name).delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Returns the files in the old staging directory DIR, if it exists.
+     * @param dir File
+     * @return List<String>
+     */
+    private static List<String> legacyFilesIn(File dir) {
+        List<String> files = Utils.plainFilenamesIn(dir);
+        return files == null ? new ArrayList<>() : files;
+    }
+
+    /**
+     * Returns the STAGING AREA of the current repository, which is kept
+     * across commands until the index file changes.
+     * @return State
+     */
+    private static State state() {
+        return Repository.current().fileState(State.class, indexFile(),
+                State::new);
+    }
+
+    /** The STAGING AREA of a repository, as read from its index file. */
+    private static final class State {
+
+        /** The entries of the index by file name, or null before first
+         *  use. */
+        private TreeMap<String, Entry> _entries;
+
+        /** True if _entries was changed since the index was read. */
+        private boolean _dirty;
+
+        /** The contents of the index when it was read or last written,
+         *  or null if it did not exist. */
+        private byte[] _contents;
+
+    }
 }
@@ -0,0 +1,334 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Repository.blobObjects;
+
+/**
+ * A directory of a commit: the files and subdirectories it holds, by
+ * name, each with the id of its blob or of its own tree. A tree starts
+ * with the magic "GLT" and a version byte, followed by the number of
+ * entries and, sorted by name, each entry's kind, name and binary id.
+ * Its id is the SHA-1 hash of that encoding, so directories with the
+ * same contents have the same id wherever and whenever they occur.
+ * A commit only writes the trees on the paths of the files it changed
+ * and reuses every other subtree of its parent by id, and comparing two
+ * commits can skip any subtree whose id is the same in both. Trees are
+ * stored with the blobs, under the type tree, and packed like them.
+ * @author Iram Morshed
+ */
+final class Tree {
+
+    /** Kind of an entry holding a file. */
+    static final byte FILE = 0;
+
+    /** Kind of an entry holding a subdirectory. */
+    static final byte DIRECTORY = 1;
+
+    /** First bytes of every encoded tree. */
+    private static final byte[] MAGIC = {'G', 'L', 'T', 1};
+
+    /** Most decoded trees kept in the cache. */
+    private static final int CACHE_SIZE = 1024;
+
+    /** An entry of a tree. */
+    static final class Entry {
+
+        /**
+         * An entry of KIND for the object UNIQUEID.
+         * @param kind byte
+         * @param uniqueID String
+         */
+        Entry(byte kind, String uniqueID) {
+            _kind = kind;
+            _uniqueID = uniqueID;
+        }
+
+        /**
+         * Returns the kind of this entry, FILE or DIRECTORY.
+         * @return byte
+         */
+        byte kind() {
+            return _kind;
+        }
+
+        /**
+         * Returns the id of the blob or tree of this entry.
+         * @return String
+         */
+        String uniqueID() {
+            return _uniqueID;
+        }
+
+        /**
+         * Returns true if this entry is a subdirectory.
+         * @return boolean
+         */
+        boolean isDirectory() {
+            return _kind == DIRECTORY;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Entry && ((Entry) other)._kind == _kind
+                    && ((Entry) other)._uniqueID.equals(_uniqueID);
+        }
+
+        @Override
+        public int hashCode() {
+            return _uniqueID.hashCode() * 2 + _kind;
+        }
+
+        /** Kind of this entry. */
+        private final byte _kind;
+
+        /** Id of the blob or tree of this entry. */
+        private final String _uniqueID;
+    }
+
+    /**
+     * A tree with ENTRIES by name.
+     * @param entries SortedMap<String, Entry>
+     */
+    private Tree(SortedMap<String, Entry> entries) {
+        _entries = Collections.unmodifiableSortedMap(entries);
+    }
+
+    /**
+     * Returns the entries of this tree by name, in order.
+     * @return SortedMap<String, Entry>
+     */
+    SortedMap<String, Entry> entries() {
+        return _entries;
+    }
+
+    /**
+     * Returns the tree UNIQUEID.
+     * @param uniqueID String
+     * @return Tree
+     */
+    static Tree read(String uniqueID) {
+        Tree cached;
+        Cache cache = cache();
+        synchronized (cache) {
+            cached = cache._trees.get(uniqueID);
+        }
+        if (cached != null) {
+            return cached;
+        }
+        if (!ObjectStore.contains(blobObjects(), uniqueID)) {
+            throw Utils.error("Tree %s does not exist.", uniqueID);
+        }
+        return cache(uniqueID,
+                decode(ObjectStore.read(blobObjects(), uniqueID)));
+    }
+
+    /**
+     * Returns the id of the tree holding the files of MANIFEST, the map
+     * from paths to blob ids of a commit, writing the trees it needs.
+     * @param manifest Map<String, String>
+     * @return String
+     */
+    static String of(Map<String, String> manifest) {
+        return update(null, new TreeMap<>(manifest));
+    }
+
+    /**
+     * Returns the id of the tree UNIQUEID, or of an empty tree if it is
+     * null, with CHANGES made to it: each path is set to its blob id, or
+     * removed if that is null. Only the trees on the changed paths are
+     * written again; directories left empty are dropped.
+     * @param uniqueID String
+     * @param changes SortedMap<String, String>
+     * @return String
+     */
+    static String update(String uniqueID, SortedMap<String, String> changes) {
+        String updated = updateDirectory(uniqueID, changes);
+        return updated == null ? write(new TreeMap<>()) : updated;
+    }
+
+    /**
+     * Returns the id of the tree UNIQUEID, which may be null, with
+     * CHANGES made to it, or null if it is left empty.
+     * @param uniqueID String
+     * @param changes SortedMap<String, String>
+     * @return String
+     */
+    private static String updateDirectory(String uniqueID,
+                                          SortedMap<String, String> changes) {
+        SortedMap<String, Entry> old = uniqueID == null
+                ? Collections.emptySortedMap() : read(uniqueID).entries();
+        TreeMap<String, Entry> entries = new TreeMap<>(old);
+        TreeMap<String, TreeMap<String, String>> nested = new TreeMap<>();
+        for (Map.Entry<String, String> change: changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                nested.computeIfAbsent(path.substring(0, slash),
+                        name -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() != null) {
+                entries.put(path, new Entry(FILE, change.getValue()));
+            } else if (entries.containsKey(path)
+                    && !entries.get(path).isDirectory()) {
+                entries.remove(path);
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> directory
+                : nested.entrySet()) {
+            String name = directory.getKey();
+            Entry entry = entries.get(name);
+            boolean wasDirectory = entry != null && entry.isDirectory();
+            String subtree = updateDirectory(
+                    wasDirectory ? entry.uniqueID() : null,
+                    directory.getValue());
+            if (subtree != null) {
+                entries.put(name, new Entry(DIRECTORY, subtree));
+            } else if (wasDirectory) {
+                entries.remove(name);
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        } else if (uniqueID != null && entries.equals(old)) {
+            return uniqueID;
+        }
+        return write(entries);
+    }
+
+    /**
+     * Adds the files of the tree UNIQUEID to MANIFEST, each under its
+     * path after PREFIX.
+     * @param uniqueID String
+     * @param prefix String
+     * @param manifest Map<String, String>
+     */
+    static void flatten(String uniqueID, String prefix,
+                        Map<String, String> manifest) {
+        for (Map.Entry<String, Entry> item: read(uniqueID).entries()
+                .entrySet()) {
+            Entry entry = item.getValue();
+            if (entry.isDirectory()) {
+                flatten(entry.uniqueID(), prefix + item.getKey() + "/",
+                        manifest);
+            } else {
+                manifest.put(prefix + item.getKey(), entry.uniqueID());
+            }
+        }
+    }
+
+    /**
+     * Stores the tree with ENTRIES and returns its id.
+     * @param entries SortedMap<String, Entry>
+     * @return String
+     */
+    private static String write(SortedMap<String, Entry> entries) {
+        byte[] contents = encode(entries);
+        String uniqueID = Utils.sha1(contents);
+        ObjectStore.write(blobObjects(), uniqueID, ObjectStore.TREE,
+                contents);
+        cache(uniqueID, new Tree(entries));
+        return uniqueID;
+    }
+
+    /**
+     * Returns ENTRIES in the tree format.
+     * @param entries SortedMap<String, Entry>
+     * @return byte[]
+     */
+    private static byte[] encode(SortedMap<String, Entry> entries) {
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(result);
+            out.write(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item: entries.entrySet()) {
+                out.writeByte(item.getValue().kind());
+                out.writeUTF(item.getKey());
+                out.write(Pack.toBinary(item.getValue().uniqueID()));
+            }
+            return result.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding tree.");
+        }
+    }
+
+    /**
+     * Returns the tree encoded in CONTENTS.
+     * @param contents byte[]
+     * @return Tree
+     */
+    private static Tree decode(byte[] contents) {
+        try {
+            DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(contents));
+            if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC)) {
+                throw Utils.error("Tree is corrupt.");
+            }
+            int count = in.readInt();
+            TreeMap<String, Entry> entries = new TreeMap<>();
+            byte[] id = new byte[Pack.ID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                byte kind = in.readByte();
+                String name = in.readUTF();
+                in.readFully(id);
+                entries.put(name, new Entry(kind, Pack.toHex(id)));
+            }
+            return new Tree(entries);
+        } catch (IOException excp) {
+            throw Utils.error("Tree is corrupt.");
+        }
+    }
+
+    /**
+     * Adds TREE, with id UNIQUEID, to the cache of decoded trees,
+     * evicting the least recently used one once it holds CACHE_SIZE.
+     * @param uniqueID String
+     * @param tree Tree
+     * @return Tree
+     */
+    private static Tree cache(String uniqueID, Tree tree) {
+        Cache cache = cache();
+        synchronized (cache) {
+            cache._trees.put(uniqueID, tree);
+            if (cache._trees.size() > CACHE_SIZE) {
+                Iterator<Tree> eldest = cache._trees.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Returns the cache of decoded trees of the current repository.
+     * Trees never change once written, so it is kept for as long as the
+     * repository is open.
+     * @return Cache
+     */
+    private static Cache cache() {
+        return Repository.current().state(Cache.class, Cache::new);
+    }
+
+    /** The entries of this tree by name. */
+    private final SortedMap<String, Entry> _entries;
+
+    /** The decoded trees of a repository. */
+    private static final class Cache {
+
+        /** Recently decoded trees by id, least recently used first. */
+        private final LinkedHashMap<String, Tree> _trees =
+                new LinkedHashMap<>(16, 0.75f, true);
+    }
+}
@@ -1,10 +1,32 @@
 package gitlet;
 
 import ucb.junit.textui;
+import org.junit.After;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 
@@ -19,6 +41,25 @@ public class UnitTest {
         System.exit(textui.runClasses(UnitTest.class));
     }
 
+    /** Deletes the directories made by newDirectory and closes the
+     *  repositories opened in them. */
+    @After
+    public void cleanUp() throws IOException {
+        for (Repository repo: _repositories) {
+            repo.close();
+        }
+        _repositories.clear();
+        for (File dir: _directories) {
+            try (Stream<Path> files = Files.walk(dir.toPath())) {
+                for (Path file: files.sorted(Comparator.reverseOrder())
+                        .collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        _directories.clear();
+    }
+
     /** A dummy test to avoid complaint. */
     @Test
     public void placeholderTest() {
@@ -40,6 +81,737 @@ public class UnitTest {
         System.out.println(commitstwo);
     }
 
-}
+    @Test
+    public void deltaRoundTrip() {
+        Random random = new Random(61);
+        byte[] base = new byte[5000];
+        random.nextBytes(base);
+        byte[] target = new byte[5200];
+        random.nextBytes(target);
+        System.arraycopy(base, 0, target, 0, 2000);
+        System.arraycopy(base, 2500, target, 2700, 2500);
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertTrue(delta.length < target.length / 4);
+
+        byte[] empty = new byte[0];
+        byte[] text = "short".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(text, Delta.apply(empty,
+                Delta.create(empty, text)));
+        assertArrayEquals(empty, Delta.apply(text,
+                Delta.create(text, empty)));
+    }
+
+    @Test
+    public void chunkBoundariesFollowContent() {
+        Random random = new Random(62);
+        byte[] data = new byte[1 << 20];
+        random.nextBytes(data);
+        byte[] shifted = new byte[data.length + 100];
+        random.nextBytes(shifted);
+        System.arraycopy(data, 0, shifted, 100, data.length);
+        List<Integer> cuts = cutPoints(data, 0);
+        List<Integer> shiftedCuts = cutPoints(shifted, 100);
+        assertTrue(cuts.size() > 8);
+        shiftedCuts.retainAll(cuts);
+        assertTrue(shiftedCuts.size() >= cuts.size() - 2);
+    }
+
+    @Test
+    public void mergeBasesFollowBothParents() {
+        int[][] parents = {{-1, -1}, {0, -1}, {0, -1}, {1, 2}, {2, 1},
+            {3, -1}, {4, -1}, {5, -1}};
+        int[] generations = {1, 2, 2, 3, 3, 4, 4, 5};
+        MergeBase.History history = new MergeBase.History() {
+            public int parent(int pos) {
+                return parents[pos][0];
+            }
+            public int secondParent(int pos) {
+                return parents[pos][1];
+            }
+            public int generation(int pos) {
+                return generations[pos];
+            }
+        };
+        List<Integer> crissCross = MergeBase.bases(history, 7, 6);
+        assertEquals(2, crissCross.size());
+        assertTrue(crissCross.containsAll(List.of(1, 2)));
+        assertEquals(List.of(3), MergeBase.bases(history, 3, 7));
+        assertEquals(List.of(2), MergeBase.bases(history, 2, 4));
+        assertEquals(List.of(0), MergeBase.bases(history, 1, 2));
+        assertTrue(MergeBase.isAncestor(history, 2, 7));
+        assertFalse(MergeBase.isAncestor(history, 6, 7));
+    }
+
+    @Test
+    public void manifestDiffComparesBlobIds() {
+        HashMap<String, String> from = new HashMap<>(), to = new HashMap<>();
+        from.put("a", "1");
+        from.put("b", "2");
+        from.put("c", "3");
+        to.put("b", "2");
+        to.put("c", "4");
+        to.put("d", "5");
+        ManifestDiff diff = new ManifestDiff(from, to);
+        assertEquals(List.of("d"), diff.added());
+        assertEquals(List.of("a"), diff.removed());
+        assertEquals(List.of("c"), diff.modified());
+        assertEquals(List.of("b"), diff.unchanged());
+    }
+
+    @Test
+    public void lineMergeMarksOnlyConflictingLines() {
+        LineMerge clean = new LineMerge("a\nb\nc\nd\n", "a\nB\nc\nd\n",
+                "a\nb\nc\nD\n");
+        assertEquals("a\nB\nc\nD\n", clean.text());
+        assertEquals(0, clean.conflicts());
+        LineMerge conflict = new LineMerge("a\nb\nc\n", "a\nX\nc\n",
+                "a\nY\nc\n");
+        assertEquals(1, conflict.conflicts());
+        String nl = System.lineSeparator();
+        assertEquals("a\n<<<<<<< HEAD" + nl + "X\n=======" + nl + "Y\n"
+                + ">>>>>>>" + nl + "c\n", conflict.text());
+    }
+
+    @Test
+    public void hunksMergeNearbyChangesAndMarkMissingNewlines() {
+        StringBuilder ten = new StringBuilder(), twenty = new StringBuilder();
+        for (int i = 1; i <= 20; i += 1) {
+            (i <= 10 ? ten : twenty).append(i).append("\n");
+        }
+        String nl = System.lineSeparator();
+        List<String> a = LineDiff.lines(ten.toString());
+        assertEquals("@@ -1,10 +1,10 @@" + nl + " 1\n-2\n+two\n 3\n 4\n 5\n"
+                + " 6\n 7\n 8\n-9\n+nine\n 10\n", hunks(a, LineDiff.lines(
+                ten.toString().replace("2\n", "two\n")
+                        .replace("9\n", "nine\n"))));
+
+        String all = ten.toString() + twenty;
+        String far = hunks(LineDiff.lines(all), LineDiff.lines(
+                all.replace("\n2\n", "\ntwo\n").replace("19\n", "x\n")));
+        assertTrue(far.startsWith("@@ -1,5 +1,5 @@" + nl));
+        assertTrue(far.contains("@@ -16,5 +16,5 @@" + nl));
+
+        assertEquals("@@ -1 +1,2 @@" + nl + " x\n+y" + nl
+                + "\\ No newline at end of file" + nl,
+                hunks(LineDiff.lines("x\n"), LineDiff.lines("x\ny")));
+        assertEquals("", hunks(a, a));
+    }
+
+    @Test
+    public void diffSkipsBinaryLinesAndFilesWithNoVersion()
+            throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, "b.bin"), new byte[] {1, 0, 2});
+        repo.add("b.bin");
+        repo.commit("binary");
+        Utils.writeContents(new File(dir, "b.bin"), new byte[] {1, 0, 3});
+        Utils.writeContents(new File(dir, "gone.txt"), "gone");
+        repo.add("gone.txt");
+        new File(dir, "gone.txt").delete();
+        String diff = repo.execute("diff");
+        assertTrue(diff.contains("Binary files a/b.bin and b/b.bin differ"));
+        assertFalse(diff.contains("---"));
+        assertFalse(diff.contains("\0"));
+        assertFalse(diff.contains("gone.txt"));
+    }
+
+    @Test
+    public void relativePathsUseSlashes() {
+        File root = new File("repo");
+        assertEquals("a/b.txt", Utils.relativePath(root,
+                new File(new File(root, "a"), "b.txt")));
+        assertEquals("b.txt", Utils.relativePath(root,
+                new File(root, "a/../b.txt")));
+        assertThrows(GitletException.class,
+            () -> Utils.relativePath(root, new File("elsewhere")));
+    }
+
+    @Test
+    public void repositoriesInOneProcessAreIndependent() throws IOException {
+        File a = newDirectory(), b = newDirectory();
+        Repository one = openRepository(a), two = openRepository(b);
+        assertSame(one, Repository.open(new File(a, ".")));
+        one.init();
+        two.init();
+        Utils.writeContents(new File(a, "f.txt"), "one");
+        assertEquals("", one.add("f.txt"));
+        assertEquals("", one.commit("only in one"));
+        assertTrue(one.log().contains("only in one"));
+        assertFalse(two.log().contains("only in one"));
+        assertEquals("No changes added to the commit."
+                + System.lineSeparator(), two.commit("nothing"));
+    }
+
+    @Test
+    public void failedCommandsExitWithStatusOne() throws IOException {
+        Repository repo = openRepository(newDirectory());
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        assertEquals(0, repo.run(out, "init"));
+        assertEquals(0, repo.run(out, "status"));
+        assertEquals(1, repo.run(out, "reset", "abcdef"));
+        assertEquals(1, repo.run(out, "rm-branch", "none"));
+        assertEquals(0, repo.run(out, "branch", "side"));
+        byte[] commands = "branch other\nmerge none\nstatus\n"
+                .getBytes(StandardCharsets.UTF_8);
+        assertEquals(1, repo.run(new ByteArrayInputStream(commands), out,
+                "batch"));
+        assertTrue(repo.execute("status").contains("other"));
+        assertEquals(0, repo.run(new ByteArrayInputStream(
+                "status\n".getBytes(StandardCharsets.UTF_8)), out, "batch"));
+    }
+
+    @Test
+    public void fileStateIsKeptUntilItsFileChanges() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        File file = new File(dir, "state");
+        long old = System.currentTimeMillis() - 10000;
+        Utils.writeContents(file, "a");
+        file.setLastModified(old);
+        Object first = repo.fileState(Object.class, file, Object::new);
+        repo.status();
+        assertSame(first, repo.fileState(Object.class, file, Object::new));
+        Utils.writeContents(file, "bb");
+        file.setLastModified(old + 1000);
+        assertSame(first, repo.fileState(Object.class, file, Object::new));
+        repo.status();
+        assertNotSame(first,
+                repo.fileState(Object.class, file, Object::new));
+    }
+
+    @Test
+    public void batchCommandsSplitLikeAShell() {
+        assertEquals(List.of("commit", "a message", "it's"),
+                Batch.words("  commit \"a message\"\tit\\'s "));
+        assertEquals(List.of("add", "a b.txt", ""),
+                Batch.words("add 'a b.txt' ''"));
+        assertEquals(List.of("commit", "two\nlines"),
+                Batch.words("commit \"two\nlines\""));
+        assertNull(Batch.words("commit 'unterminated"));
+    }
+
+    @Test
+    public void commitCacheCountsHitsAndEvictsLeastRecentlyUsed()
+            throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "cache.commits=2\n");
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i += 1) {
+            Utils.writeContents(new File(dir, "f.txt"), "v" + i);
+            repo.add("f.txt");
+            repo.commit("version " + i);
+            ids.add(Utils.readContentsAsString(
+                    new File(dir, ".gitlet/HEAD")).trim());
+        }
+        repo.close();
+        Repository reopened = openRepository(dir);
+        for (int i: new int[] {0, 1, 0, 2, 0, 1}) {
+            reopened.bound(() -> Commit.retrieveCommit(ids.get(i)));
+        }
+        assertEquals(2, reopened.commitCacheHits());
+        assertEquals(4, reopened.commitCacheMisses());
+    }
+
+    @Test
+    public void checkoutRestoresUnchangedFilesOnlyWhenAsked()
+            throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        new File(dir, "lib").mkdir();
+        Utils.writeContents(new File(dir, "lib/a.txt"), "a");
+        Utils.writeContents(new File(dir, "f.txt"), "master");
+        repo.add("lib/a.txt");
+        repo.add("f.txt");
+        repo.commit("master");
+        repo.branch("other");
+        repo.checkout("other");
+        Utils.writeContents(new File(dir, "f.txt"), "other");
+        repo.add("f.txt");
+        repo.commit("other");
+
+        Utils.writeContents(new File(dir, "lib/a.txt"), "local");
+        repo.checkout("master");
+        assertEquals("master",
+                Utils.readContentsAsString(new File(dir, "f.txt")));
+        assertEquals("local",
+                Utils.readContentsAsString(new File(dir, "lib/a.txt")));
+
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                Checkout.RESTORE_KEY + "=true\n");
+        repo.checkout("other");
+        assertEquals("other",
+                Utils.readContentsAsString(new File(dir, "f.txt")));
+        assertEquals("a",
+                Utils.readContentsAsString(new File(dir, "lib/a.txt")));
+    }
 
+    @Test
+    public void messagesLongerThan64KRoundTrip() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        String message = "\u00e9".repeat(40000);
+        Utils.writeContents(new File(dir, "f.txt"), "f");
+        repo.add("f.txt");
+        assertEquals("", repo.commit(message));
+        String head = Utils.readContentsAsString(
+                new File(dir, ".gitlet/HEAD")).trim();
+        repo.close();
+        Repository reopened = openRepository(dir);
+        assertEquals(message, reopened.bound(() ->
+                Commit.retrieveCommit(head).getMessage()));
+        assertTrue(reopened.log().contains(message));
+    }
+
+    @Test
+    public void indexRoundTripsAndReplacesTheStagingFolders()
+            throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, "a.txt"), "a");
+        Utils.writeContents(new File(dir, "b.txt"), "b");
+        repo.add("a.txt");
+        repo.add("b.txt");
+        repo.commit("two files");
+        Utils.writeContents(new File(dir, "c.txt"), "c");
+        repo.add("c.txt");
+        repo.rm("b.txt");
+        byte[] index = Utils.readContents(new File(dir, ".gitlet/index"));
+        assertEquals("GLSI", new String(index, 0, 4,
+                StandardCharsets.US_ASCII));
+        repo.close();
+
+        Repository reopened = openRepository(dir);
+        assertEquals(List.of("c.txt"), reopened.bound(Stage::stagedForAdd));
+        assertEquals(List.of("b.txt"),
+                reopened.bound(Stage::stagedForRemove));
+        assertEquals(reopened.bound(() -> Utils.sha1(
+                Utils.readContents(new File(dir, "c.txt")))),
+                reopened.bound(() -> Stage.entry("c.txt").uniqueID()));
+
+        File added = new File(dir, ".gitlet/staged_for_addition");
+        File removed = new File(dir, ".gitlet/staged_for_removal");
+        added.mkdir();
+        removed.mkdir();
+        Utils.writeContents(new File(added, "d.txt"), "d");
+        Utils.writeContents(new File(removed, "a.txt"), "a");
+        reopened.close();
+        reopened = openRepository(dir);
+        assertEquals(List.of("c.txt", "d.txt"),
+                reopened.bound(Stage::stagedForAdd));
+        assertEquals(List.of("a.txt", "b.txt"),
+                reopened.bound(Stage::stagedForRemove));
+        assertFalse(added.exists());
+        assertFalse(removed.exists());
+        assertEquals("", reopened.commit("migrated"));
+        assertTrue(reopened.bound(Stage::isStageClear));
+    }
 
+    @Test
+    public void racyIndexEntriesAreSmudged() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        File racy = new File(dir, "racy.txt"), old = new File(dir, "old.txt");
+        long future = System.currentTimeMillis() + 60000;
+        Utils.writeContents(racy, "aaa");
+        racy.setLastModified(future);
+        Utils.writeContents(old, "old");
+        old.setLastModified(System.currentTimeMillis() - 60000);
+        repo.add("racy.txt");
+        repo.add("old.txt");
+        repo.commit("racy");
+        repo.close();
+
+        Repository reopened = openRepository(dir);
+        assertEquals(-1, (long) reopened.bound(() ->
+                Stage.entry("racy.txt").size()));
+        assertEquals(3, (long) reopened.bound(() ->
+                Stage.entry("old.txt").size()));
+        Utils.writeContents(racy, "bbb");
+        racy.setLastModified(future);
+        assertTrue(reopened.status().contains("racy.txt (modified)"));
+    }
+
+    @Test
+    public void worktreeUpdatesReportFailuresInOrderOfName()
+            throws IOException {
+        for (int workers: new int[] {1, 4}) {
+            Repository repo = newRepository();
+            File dir = repo.root();
+            Utils.writeContents(new File(dir, ".gitlet/config"),
+                    WorktreeUpdate.WORKERS_KEY + "=" + workers + "\n");
+            Utils.writeContents(new File(dir, "x.txt"), "x");
+            repo.add("x.txt");
+            String id = repo.bound(() -> Stage.entry("x.txt").uniqueID());
+            GitletException error = repo.bound(() -> assertThrows(
+                GitletException.class, () -> {
+                    WorktreeUpdate update = new WorktreeUpdate();
+                    for (int i = 0; i < 20; i += 1) {
+                        update.write(String.format("f%02d.txt", i), id);
+                    }
+                    update.delete("z.txt");
+                    update.delete("m.txt");
+                    update.delete("a.txt");
+                    update.run();
+                }));
+            assertEquals("Could not update a.txt: could not delete file "
+                    + "(and 2 more files)", error.getMessage());
+            for (int i = 0; i < 20; i += 1) {
+                assertEquals("x", Utils.readContentsAsString(new File(dir,
+                        String.format("f%02d.txt", i))));
+            }
+        }
+    }
+
+    @Test
+    public void abbreviatedIdsMustBeUnambiguous() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 17; i += 1) {
+            Utils.writeContents(new File(dir, "f.txt"), "v" + i);
+            repo.add("f.txt");
+            repo.commit("version " + i);
+            ids.add(Utils.readContentsAsString(
+                    new File(dir, ".gitlet/HEAD")).trim());
+        }
+        String shared = null;
+        HashMap<String, Integer> firsts = new HashMap<>();
+        for (String id: ids) {
+            if (firsts.merge(id.substring(0, 1), 1, Integer::sum) == 2) {
+                shared = id.substring(0, 1);
+            }
+        }
+        assertNotNull(shared);
+        assertTrue(repo.reset(shared).startsWith("Commit id " + shared
+                + " is ambiguous; it matches "));
+        assertEquals(ids.get(16), Utils.readContentsAsString(
+                new File(dir, ".gitlet/HEAD")).trim());
+
+        assertEquals("", repo.reset(ids.get(3).substring(0, 10)));
+        assertEquals("v3", Utils.readContentsAsString(new File(dir,
+                "f.txt")));
+        assertEquals("No commit with that id exists."
+                + System.lineSeparator(), repo.reset("g0"));
+    }
+
+    @Test
+    public void looseObjectsMustHoldTheSizeInTheirHeader()
+            throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, "f.txt"), "abc");
+        repo.add("f.txt");
+        String id = repo.bound(() -> Stage.entry("f.txt").uniqueID());
+        File object = repo.bound(() -> ObjectStore.objectFile(
+                Repository.blobObjects(), id));
+        assertEquals("abc", new String(repo.bound(() -> ObjectStore.read(
+                Repository.blobObjects(), id)), StandardCharsets.UTF_8));
+        for (int size: new int[] {2, 5}) {
+            object.setWritable(true);
+            try (OutputStream out = ObjectStore.compressor(
+                    new FileOutputStream(object))) {
+                out.write(ObjectStore.header(ObjectStore.BLOB, size));
+                out.write("abc".getBytes(StandardCharsets.UTF_8));
+            }
+            GitletException error = repo.bound(() -> assertThrows(
+                GitletException.class,
+                () -> ObjectStore.read(Repository.blobObjects(), id)));
+            assertEquals("Object " + id + " is corrupt.",
+                    error.getMessage());
+        }
+    }
+
+    @Test
+    public void packsAreCutAtTheirMaximumSize() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "pack.maxSize=400\n");
+        Random random = new Random(3);
+        HashMap<String, byte[]> files = new HashMap<>();
+        for (int i = 0; i < 8; i += 1) {
+            byte[] contents = new byte[150];
+            random.nextBytes(contents);
+            files.put("f" + i, contents);
+            Utils.writeContents(new File(dir, "f" + i), contents);
+            repo.add("f" + i);
+        }
+        repo.commit("random");
+        assertTrue(repo.execute("pack").startsWith("Packed"));
+        File[] packs = new File(dir, ".gitlet/packs").listFiles(
+            (folder, name) -> name.endsWith(".pack"));
+        assertTrue(packs.length > 1);
+        for (File pack: packs) {
+            assertTrue(pack.length() < 400 + 200);
+        }
+        for (String name: files.keySet()) {
+            Utils.writeContents(new File(dir, name), "changed");
+            assertEquals("", repo.execute("checkout", "--", name));
+            assertArrayEquals(files.get(name),
+                    Utils.readContents(new File(dir, name)));
+        }
+    }
+
+    @Test
+    public void packedObjectsOverANewMaximumStayStored() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        byte[] big = new byte[2000];
+        new Random(4).nextBytes(big);
+        Utils.writeContents(new File(dir, "big.bin"), big);
+        repo.add("big.bin");
+        repo.commit("big");
+        assertTrue(repo.execute("pack").startsWith("Packed"));
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "pack.maxSize=500\n");
+        Utils.writeContents(new File(dir, "small.txt"), "small");
+        repo.add("small.txt");
+        repo.commit("small");
+        assertTrue(repo.execute("pack").startsWith("Packed"));
+        Utils.writeContents(new File(dir, "big.bin"), "changed");
+        assertEquals("", repo.execute("checkout", "--", "big.bin"));
+        assertArrayEquals(big, Utils.readContents(new File(dir, "big.bin")));
+    }
+
+    @Test
+    public void findMatchesWordsAndRebuildsItsIndex() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        String[] messages = {"Fix the parser", "parser cleanup", "other"};
+        for (int i = 0; i < messages.length; i += 1) {
+            Utils.writeContents(new File(dir, "f.txt"), messages[i]);
+            repo.add("f.txt");
+            repo.commit(messages[i]);
+        }
+        assertEquals(2, repo.execute("find", "--word", "PARSER")
+                .split(System.lineSeparator()).length);
+        String fix = repo.execute("find", "--word", "parser fix");
+        assertEquals(1, fix.split(System.lineSeparator()).length);
+        assertEquals(fix, repo.execute("find", "Fix the"));
+        assertTrue(repo.execute("find", "--word", "missing")
+                .startsWith("Found no commit with that message."));
+
+        File index = new File(dir, ".gitlet/message-index");
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "refs.lockTimeout=0\n");
+        Utils.writeContents(new File(dir, ".gitlet/commit-graph.lock"), "");
+        index.delete();
+        repo.close();
+        repo = openRepository(dir);
+        assertTrue(repo.execute("find", "--word", "fix")
+                .startsWith("Could not lock the commit graph"));
+        assertFalse(index.exists());
+        new File(dir, ".gitlet/commit-graph.lock").delete();
+        assertEquals(fix, repo.execute("find", "--word", "fix"));
+        assertTrue(index.exists());
+    }
+
+    @Test
+    public void commitGraphIsRewrittenUnderItsLock() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, "f.txt"), "f");
+        repo.add("f.txt");
+        repo.commit("recent");
+        assertTrue(repo.execute("global-log", "--until", "2000-01-01")
+                .contains("initial commit"));
+        String recent = repo.execute("global-log", "--since", "2000-01-01");
+        assertTrue(recent.contains("recent"));
+        assertFalse(recent.contains("initial commit"));
+
+        File heap = new File(dir, ".gitlet/commit-messages");
+        long length = heap.length();
+        assertEquals("", repo.execute("commit-graph"));
+        assertTrue(heap.length() > length);
+        assertEquals(recent, repo.execute("global-log", "--since",
+                "2000-01-01"));
+
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "refs.lockTimeout=0\n");
+        File lock = new File(dir, ".gitlet/commit-graph.lock");
+        Utils.writeContents(lock, "");
+        assertTrue(repo.execute("commit-graph")
+                .startsWith("Could not lock the commit graph"));
+        lock.delete();
+        assertEquals("", repo.execute("commit-graph"));
+        assertFalse(lock.exists());
+    }
+
+    @Test
+    public void refTransactionsCheckAndLockTheirRefs() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "refs.lockTimeout=0\n");
+        File head = repo.bound(Repository::headFile);
+        File side = repo.bound(() ->
+                Utils.join(Repository.branchesFolder(), "side"));
+        String initial = Utils.readContentsAsString(head).trim();
+        repo.bound(() -> assertThrows(GitletException.class,
+            () -> new RefTransaction().create(side, initial)
+                    .update(head, "0".repeat(40), initial).commit()));
+        assertFalse(side.exists());
+        assertFalse(RefTransaction.lockFile(side).exists());
+
+        Utils.writeContents(new File(dir, "f.txt"), "f");
+        repo.add("f.txt");
+        Utils.writeContents(RefTransaction.lockFile(head), "");
+        assertTrue(repo.commit("locked").startsWith("Could not lock ref"));
+        assertEquals(initial, Utils.readContentsAsString(head).trim());
+        RefTransaction.lockFile(head).delete();
+        assertEquals("", repo.commit("unlocked"));
+        assertNotEquals(initial, Utils.readContentsAsString(head).trim());
+    }
+
+    @Test
+    public void refusedRefUpdatesExitWithStatusOne() throws Exception {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "refs.lockTimeout=0\n");
+        File head = repo.bound(Repository::headFile);
+        File lock = RefTransaction.lockFile(head);
+        String initial = Utils.readContentsAsString(head).trim();
+        Utils.writeContents(new File(dir, "f.txt"), "f");
+        repo.add("f.txt");
+        Utils.writeContents(lock, "");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output, true,
+                StandardCharsets.UTF_8);
+        assertEquals(1, repo.run(out, "commit", "locked"));
+        assertTrue(output.toString(StandardCharsets.UTF_8)
+                .startsWith("Could not lock ref HEAD"));
+        lock.delete();
+        assertEquals(0, repo.run(out, "commit", "first"));
+
+        Utils.writeContents(new File(dir, "f.txt"), "g");
+        repo.add("f.txt");
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "refs.lockTimeout=10000\n");
+        Utils.writeContents(lock, "");
+        output.reset();
+        int[] code = new int[1];
+        Thread command = new Thread(() -> {
+            try {
+                code[0] = repo.run(out, "commit", "raced");
+            } catch (IOException excp) {
+                code[0] = -1;
+            }
+        });
+        command.start();
+        while (command.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue(command.isAlive());
+            Thread.onSpinWait();
+        }
+        Utils.writeContents(head, initial, "\n");
+        lock.delete();
+        command.join();
+        assertEquals(1, code[0]);
+        assertTrue(output.toString(StandardCharsets.UTF_8)
+                .startsWith("Ref HEAD was changed by another command"));
+        assertEquals(initial, Utils.readContentsAsString(head).trim());
+    }
+
+    @Test
+    public void indexIsWrittenUnderItsLock() throws IOException {
+        Repository repo = newRepository();
+        File dir = repo.root();
+        Utils.writeContents(new File(dir, ".gitlet/config"),
+                "refs.lockTimeout=0\n");
+        File index = repo.bound(Stage::indexFile);
+        byte[] before = Utils.readContents(index);
+        Utils.writeContents(new File(dir, "f.txt"), "f");
+        Utils.writeContents(LockFile.of(index), "");
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        assertEquals(1, repo.run(out, "add", "f.txt"));
+        assertTrue(repo.add("f.txt").startsWith("Could not lock the index"));
+        assertArrayEquals(before, Utils.readContents(index));
+        LockFile.of(index).delete();
+        assertEquals("", repo.add("f.txt"));
+        assertFalse(LockFile.of(index).exists());
+        assertTrue(repo.status().contains("f.txt"));
+    }
+
+    @Test
+    public void timestampsFormatLikeSimpleDateFormat() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        Locale.setDefault(Locale.Category.FORMAT, Locale.US);
+        try {
+            Random random = new Random(24);
+            for (int i = 0; i < 1000; i += 1) {
+                long seconds = random.nextLong() % 40000000000L;
+                int zone = (random.nextInt(27 * 60) - 12 * 60) / 15 * 15;
+                SimpleDateFormat format = new SimpleDateFormat(
+                        CommitCodec.TIMESTAMP_PATTERN, Locale.US);
+                format.setTimeZone(new SimpleTimeZone(zone * 60000, ""));
+                assertEquals(format.format(new Date(seconds * 1000)),
+                        CommitCodec.formatTimestamp(seconds, zone));
+            }
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, locale);
+        }
+    }
+
+    /**
+     * Returns the hunks Diff prints from the lines A to the lines B.
+     * @param a List<String>
+     * @param b List<String>
+     * @return String
+     */
+    private static String hunks(List<String> a, List<String> b) {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        Diff.printHunks(out, a, b);
+        out.flush();
+        return text.toString();
+    }
+
+    /** Returns the offsets, less SHIFT, after which a chunker with 16K
+     *  chunks cuts DATA. */
+    private static List<Integer> cutPoints(byte[] data, int shift) {
+        Chunker chunker = new Chunker(1 << 14);
+        List<Integer> cuts = new ArrayList<>();
+        for (int i = 0; i < data.length; i += 1) {
+            if (chunker.next(data[i])) {
+                cuts.add(i - shift);
+            }
+        }
+        return cuts;
+    }
+
+    /** Returns a new temporary directory, deleted after the test.
+     * @return File */
+    private File newDirectory() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        _directories.add(dir);
+        return dir;
+    }
+
+    /** Returns the repository in DIR, closed after the test.
+     * @param dir <File></>
+     * @return Repository */
+    private Repository openRepository(File dir) {
+        Repository repo = Repository.open(dir);
+        _repositories.add(repo);
+        return repo;
+    }
+
+    /** Returns a new initialized repository in a directory of its own,
+     *  both cleaned up after the test.
+     * @return Repository */
+    private Repository newRepository() throws IOException {
+        Repository repo = openRepository(newDirectory());
+        repo.init();
+        return repo;
+    }
+
+    /** Directories made by the running test. */
+    private final List<File> _directories = new ArrayList<>();
+
+    /** Repositories opened by the running test. */
+    private final List<Repository> _repositories = new ArrayList<>();
+}
@@ -6,15 +6,23 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
 
@@ -29,30 +37,62 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the chunks in which files are hashed and copied. */
+    static final int CHUNK_SIZE = 1 << 16;
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, which is read in
+     *  CHUNK_SIZE pieces so that memory use does not depend on its size.
+     *  Throws IllegalArgumentException in case of problems. */
+    static String sha1(File file) {
+        MessageDigest md = sha1Digest();
+        try (FileChannel channel =
+                 FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
             }
-            return result.toString();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns a new SHA-1 message digest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns DIGEST as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -132,6 +172,29 @@ class Utils {
         }
     }
 
+    /** Copy the contents of FROM to TO, creating or overwriting TO as
+     *  needed, without holding the contents in memory.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void copyContents(File from, File to) {
+        try {
+            Files.copy(from.toPath(), to.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write everything remaining in IN to FILE, creating or overwriting
+     *  it as needed, and close IN.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static void writeContents(File file, InputStream in) {
+        try (in) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems.
      * @return*/
@@ -149,6 +212,26 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from IN, casting it to
+     *  EXPECTEDCLASS, and close IN.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static <T extends Serializable> T readObject(InputStream in,
+                                                 Class<T> expectedClass) {
+        try (ObjectInputStream objects = new ObjectInputStream(in)) {
+            return expectedClass.cast(objects.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true if CONTENTS start with the magic number of Java
+     *  serialization, as the refs written by older versions do. */
+    static boolean isSerialized(byte[] contents) {
+        return contents.length >= 2 && contents[0] == (byte) 0xac
+                && contents[1] == (byte) 0xed;
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -185,6 +268,68 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the paths, relative to DIR and separated by '/', of all
+     *  plain files in DIR and its subdirectories, in lexicographic order
+     *  as Java Strings.  Directories named .gitlet are skipped.  Returns
+     *  null if DIR does not denote a directory. */
+    static List<String> plainFilenamesUnder(File dir) {
+        if (!dir.isDirectory()) {
+            return null;
+        }
+        List<String> files = new ArrayList<>();
+        addPlainFilenames(dir, "", files);
+        Collections.sort(files);
+        return files;
+    }
+
+    /** Adds the paths of the plain files under DIR to FILES, each after
+     *  PREFIX. */
+    private static void addPlainFilenames(File dir, String prefix,
+                                          List<String> files) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File file = new File(dir, name);
+            if (file.isFile()) {
+                files.add(prefix + name);
+            } else if (file.isDirectory() && !name.equals(".gitlet")) {
+                addPlainFilenames(file, prefix + name + "/", files);
+            }
+        }
+    }
+
+    /** Returns the path of FILE relative to the directory DIR, with its
+     *  names separated by '/'.  Throws a GitletException if FILE is not
+     *  inside DIR. */
+    static String relativePath(File dir, File file) {
+        Path root = dir.toPath().toAbsolutePath().normalize();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw error("%s is outside the repository.", file.getPath());
+        }
+        StringBuilder result = new StringBuilder();
+        for (Path name : root.relativize(path)) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(name);
+        }
+        return result.toString();
+    }
+
+    /** Deletes the directories containing FILE that have become empty,
+     *  from the innermost up to, but not including, DIR. */
+    static void deleteEmptyParents(File dir, File file) {
+        Path root = dir.toPath().toAbsolutePath().normalize();
+        Path parent = file.toPath().toAbsolutePath().normalize().getParent();
+        while (parent != null && parent.startsWith(root)
+                && !parent.equals(root) && parent.toFile().delete()) {
+            parent = parent.getParent();
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -230,7 +375,7 @@ class Utils {
     /** Print a message composed from MSG and ARGS as for the String.format
      *  method, followed by a newline. */
     static void message(String msg, Object... args) {
-        System.out.printf(msg, args);
-        System.out.println();
+        Repository.out().printf(msg, args);
+        Repository.out().println();
     }
 }
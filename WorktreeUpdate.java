@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import static gitlet.Repository.cwd;
+
+/**
+ * A set of changes to the files in CWD, made by checkout and reset: files
+ * to write from blobs and files to delete. The changes are independent,
+ * so they are made by a bounded pool of WORKERS threads; with one worker,
+ * or when there are few changes, they are made in order on the calling
+ * thread. Changes that fail do not stop the others. Once every change has
+ * been tried, directories emptied by deletions are removed, and the
+ * failures are reported in order of file name, so that the error does
+ * not depend on how the changes were scheduled.
+ * @author Iram Morshed
+ */
+final class WorktreeUpdate {
+
+    /** Configuration key of the number of workers. */
+    static final String WORKERS_KEY = "checkout.workers";
+
+    /** Default number of workers. */
+    static final int DEFAULT_WORKERS =
+            Math.min(8, Runtime.getRuntime().availableProcessors());
+
+    /** Fewest changes that are made in parallel. */
+    private static final int PARALLEL_MIN = 16;
+
+    /** An empty update. */
+    WorktreeUpdate() {
+    }
+
+    /**
+     * Adds writing the blob UNIQUEID to the file NAME.
+     * @param name String
+     * @param uniqueID String
+     */
+    void write(String name, String uniqueID) {
+        _changes.put(name, uniqueID);
+    }
+
+    /**
+     * Adds deleting the file NAME.
+     * @param name String
+     */
+    void delete(String name) {
+        _changes.put(name, null);
+    }
+
+    /** Makes every change, then reports any failures. */
+    void run() {
+        int workers = Math.max(1, Config.getInt(WORKERS_KEY,
+                DEFAULT_WORKERS));
+        Map<String, String> failures;
+        if (workers == 1 || _changes.size() < PARALLEL_MIN) {
+            failures = new TreeMap<>();
+            for (String name: _changes.keySet()) {
+                String failure = apply(name);
+                if (failure != null) {
+                    failures.put(name, failure);
+                }
+            }
+        } else {
+            failures = runParallel(Math.min(workers, _changes.size()));
+        }
+        for (Map.Entry<String, String> change: _changes.entrySet()) {
+            if (change.getValue() == null) {
+                Utils.deleteEmptyParents(cwd(),
+                        Utils.join(cwd(), change.getKey()));
+            }
+        }
+        if (!failures.isEmpty()) {
+            Map.Entry<String, String> first =
+                    failures.entrySet().iterator().next();
+            String more = failures.size() == 1 ? ""
+                    : String.format(" (and %d more files)",
+                    failures.size() - 1);
+            throw Utils.error("Could not update %s: %s%s", first.getKey(),
+                    first.getValue(), more);
+        }
+    }
+
+    /**
+     * Makes every change with WORKERS threads, returning the failures by
+     * file name.
+     * @param workers int
+     * @return Map<String, String>
+     */
+    private Map<String, String> runParallel(int workers) {
+        ExecutorService pool = Executors.newFixedThreadPool(workers,
+                DAEMONS);
+        Repository repo = Repository.current();
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (String name: _changes.keySet()) {
+            tasks.add(() -> repo.bound(() -> apply(name)));
+        }
+        Map<String, String> failures = new TreeMap<>();
+        try {
+            List<String> results = new ArrayList<>();
+            for (Future<String> result: pool.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+            int i = 0;
+            for (String name: _changes.keySet()) {
+                if (results.get(i) != null) {
+                    failures.put(name, results.get(i));
+                }
+                i += 1;
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while updating files.");
+        } catch (ExecutionException excp) {
+            throw Utils.error("Internal error updating files: %s",
+                    excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return failures;
+    }
+
+    /**
+     * Makes the change to the file NAME, returning a description of the
+     * failure, or null if it succeeded.
+     * @param name String
+     * @return String
+     */
+    private String apply(String name) {
+        String uniqueID = _changes.get(name);
+        try {
+            if (uniqueID == null) {
+                if (!Utils.join(cwd(), name).delete()) {
+                    return "could not delete file";
+                }
+            } else {
+                Blob.copyToFile(uniqueID, Utils.join(cwd(), name));
+            }
+            return null;
+        } catch (RuntimeException excp) {
+            return String.valueOf(excp.getMessage());
+        }
+    }
+
+    /** Makes the daemon threads of the pool, which never keep the
+     *  command running. */
+    private static final ThreadFactory DAEMONS = runnable -> {
+        Thread thread = new Thread(runnable, "gitlet-checkout");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    /** The changes by file name: the blob to write, or null to delete. */
+    private final TreeMap<String, String> _changes = new TreeMap<>();
+}
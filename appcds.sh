@@ -0,0 +1,73 @@
+#!/bin/sh
+# Usage: appcds.sh [CLASSES]
+# Builds the startup-optimized gitlet CLI in build/ from the compiled
+# classes in CLASSES/gitlet, by default the directory above this one, where
+# the classes of this package are compiled to:
+#   build/gitlet.jar  the compiled classes,
+#   build/gitlet.jsa  an Application Class-Data Sharing archive of every
+#                     class a run of each command loads, already parsed
+#                     and verified, so the JVM maps them instead,
+#   build/gitlet      a launcher running gitlet.Client with the archive.
+# The archive is made by running every command once, in one JVM through
+# the batch command, with -XX:ArchiveClassesAtExit. It only matches the
+# JDK and the jar it was made with, so run this again after changing
+# either; a JVM given a stale archive ignores it and starts normally.
+# Needs JDK 13 or newer.
+set -e
+cd "$(dirname "$0")"
+classes="${1:-..}"
+build="$(pwd)/build"
+jar="$build/gitlet.jar"
+archive="$build/gitlet.jsa"
+rm -rf "$build"
+mkdir -p "$build"
+(cd "$classes" && jar cf "$jar" gitlet/*.class)
+
+training=$(mktemp -d)
+trap 'rm -rf "$training"' EXIT
+mkdir -p "$training/repo/dir"
+echo one > "$training/repo/a.txt"
+echo two > "$training/repo/dir/b.txt"
+(cd "$training/repo" && GITLET_SOCKET="$training/none.sock" \
+    java -XX:ArchiveClassesAtExit="$archive" -cp "$jar" \
+    gitlet.Client batch > /dev/null) <<'EOF'
+init
+add a.txt
+add dir/b.txt
+commit "first"
+status
+branch side
+checkout side
+rm dir/b.txt
+commit "remove b"
+checkout master
+diff
+diff --cached
+diff side
+diff master side
+merge side
+log
+global-log
+global-log --since 2000-01-01
+find first
+find --word first
+checkout -- a.txt
+reset master
+rm-branch side
+commit-graph
+reindex
+pack
+status
+EOF
+
+cat > "$build/gitlet" <<EOF
+#!/bin/sh
+# Runs gitlet with the class data archive made by appcds.sh. Set
+# GITLET_JAVA_OPTS to replace the default JVM options, which trade peak
+# speed for startup.
+exec java -XX:SharedArchiveFile="$archive" -Xshare:auto \\
+    \${GITLET_JAVA_OPTS:--XX:TieredStopAtLevel=1 -XX:+UseSerialGC} \\
+    -cp "$jar" gitlet.Client "\$@"
+EOF
+chmod +x "$build/gitlet"
+echo "Built build/gitlet"
@@ -0,0 +1,97 @@
+#!/bin/sh
+# Usage: startup-bench.sh [RUNS] [CLASSES] [BASELINE]
+# Times each command, started in a fresh JVM, in a small scratch
+# repository, and prints the median milliseconds of RUNS runs (default 10)
+# for: the classes in CLASSES/gitlet (default: the directory above this
+# one) run by plain java; build/gitlet, the launcher made by appcds.sh;
+# and, if given, the classes in BASELINE/gitlet run by plain java, such as
+# a build of an earlier version. The table is also written to
+# bench_output.txt. Commands run without the daemon, whose socket is
+# pointed at a file that does not exist.
+set -e
+cd "$(dirname "$0")"
+runs="${1:-10}"
+classes="$(cd "${2:-..}" && pwd)"
+baseline="${3:+$(cd "$3" && pwd)}"
+launcher="$(pwd)/build/gitlet"
+[ -x "$launcher" ] || { echo "Run appcds.sh first."; exit 1; }
+scratch=$(mktemp -d)
+trap 'rm -rf "$scratch"' EXIT
+GITLET_SOCKET="$scratch/none.sock"
+export GITLET_SOCKET
+
+# Prints the median of the numbers read, one per line.
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { print v[int((NR + 1) / 2)] }'
+}
+
+# Prints the median milliseconds of running the command given, after
+# running SETUP, which restores the state the command expects.
+time_command() {
+    i=0
+    while [ $i -lt "$runs" ]; do
+        eval "$setup" > /dev/null
+        start=$(date +%s%N)
+        "$@" > /dev/null
+        end=$(date +%s%N)
+        echo $(((end - start) / 1000000))
+        i=$((i + 1))
+    done | median
+}
+
+# Makes a repository in $scratch/repo with a few commits and a branch,
+# using the gitlet run by the command given.
+prepare() {
+    rm -rf "$scratch/repo"
+    mkdir -p "$scratch/repo/dir"
+    cd "$scratch/repo"
+    "$@" init
+    for n in 1 2 3 4 5; do
+        echo "$n" > a.txt
+        echo "$n$n" > dir/b.txt
+        "$@" add a.txt
+        "$@" add dir/b.txt
+        "$@" commit "change $n"
+    done
+    "$@" branch side
+    cd - > /dev/null
+}
+
+# Prints one column of the table: the milliseconds of each command run
+# by the command given.
+column() {
+    prepare "$@" > /dev/null
+    cd "$scratch/repo"
+    setup=":"
+    for command in status log global-log "find change" diff; do
+        time_command "$@" $command
+    done
+    setup="echo x > a.txt"
+    time_command "$@" add a.txt
+    setup="date +%s%N > a.txt && $* add a.txt"
+    time_command "$@" commit edit
+    setup="$* checkout master || true"
+    time_command "$@" checkout side
+    setup="$* rm-branch extra || true"
+    time_command "$@" branch extra
+    cd - > /dev/null
+}
+
+plain=$(column java -cp "$classes" gitlet.Main)
+fast=$(column "$launcher")
+old=""
+if [ -n "$baseline" ]; then
+    old=$(column java -cp "$baseline" gitlet.Main)
+fi
+{
+    printf '%-12s %10s %10s %10s\n' command baseline plain appcds
+    i=1
+    for command in status log global-log find diff add commit \
+            checkout branch; do
+        printf '%-12s %10s %10s %10s\n' "$command" \
+            "$(echo "$old" | sed -n "${i}p")" \
+            "$(echo "$plain" | sed -n "${i}p")" \
+            "$(echo "$fast" | sed -n "${i}p")"
+        i=$((i + 1))
+    done
+} | tee bench_output.txt